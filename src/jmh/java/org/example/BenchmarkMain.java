@@ -0,0 +1,39 @@
+package org.example;
+
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Runs the benchmarks once per thread count, so contention shows up next to the catalog size params.
+// Usage: java -jar target/benchmarks.jar [--threads=1,4,16] [regular JMH options]
+public class BenchmarkMain {
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        int[] threadCounts = {1, 4, 16};
+        List<String> jmhArgs = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.startsWith("--threads=")) {
+                threadCounts = Arrays.stream(arg.substring("--threads=".length()).split(","))
+                        .mapToInt(Integer::parseInt)
+                        .toArray();
+            } else {
+                jmhArgs.add(arg);
+            }
+        }
+
+        CommandLineOptions commandLine = new CommandLineOptions(jmhArgs.toArray(new String[0]));
+        for (int threads : threadCounts) {
+            OptionsBuilder options = new OptionsBuilder();
+            options.parent(commandLine).threads(threads);
+            if (commandLine.getIncludes().isEmpty()) {
+                options.include("org\\.example\\..*Benchmark");
+            }
+            new Runner(options.build()).run();
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package org.example;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BookServiceBenchmark {
+
+    // The service given, filled with its own copy of the sample catalog: a book belongs to one catalog
+    static BookService withSampleCatalog(BookService bookService, int catalogSize) {
+        bookService.addBooks(SampleCatalog.books(catalogSize));
+        return bookService;
+    }
+
+    @State(Scope.Benchmark)
+    public static class Catalog {
+        @Param({"1000", "100000"})
+        int catalogSize;
+
+        BookService bookService;
+        Book[] books;
+        final AtomicInteger nextBuyer = new AtomicInteger();
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            bookService = withSampleCatalog(new BookService(), catalogSize);
+            books = bookService.searchBook("").toArray(new Book[0]);
+        }
+
+        Book randomBook() {
+            return books[ThreadLocalRandom.current().nextInt(books.length)];
+        }
+    }
+
+    // The same catalog with metrics enabled, compare searchBookHitWithMetrics with searchBookHit
+    @State(Scope.Benchmark)
+    public static class Instrumented {
+        BookService bookService;
+
+        @Setup(Level.Trial)
+        public void setUp(Catalog catalog) {
+            bookService = new BookService();
+            bookService.setMetrics(new Metrics());
+            withSampleCatalog(bookService, catalog.catalogSize);
+        }
+    }
+
+    // The same catalog behind a search cache, queried with 200 hot keywords
+    @State(Scope.Benchmark)
+    public static class Cached {
+        BookService bookService;
+        String[] hotKeywords = new String[200];
+
+        @Setup(Level.Trial)
+        public void setUp(Catalog catalog) {
+            bookService = new BookService();
+            bookService.setSearchCache(100_000);
+            withSampleCatalog(bookService, catalog.catalogSize);
+            for (int i = 0; i < hotKeywords.length; i++) {
+                hotKeywords[i] = catalog.books[i * 7 % catalog.books.length].getTitle(); // same titles as this copy
+            }
+        }
+    }
+
+    // The same catalog publishing to a change feed nobody reads, compare addAndRemoveBookWithFeed
+    // with addAndRemoveBook
+    @State(Scope.Benchmark)
+    public static class Fed {
+        BookService bookService;
+
+        @Setup(Level.Trial)
+        public void setUp(Catalog catalog) {
+            bookService = new BookService();
+            bookService.setChangeFeed(new ChangeFeed());
+            withSampleCatalog(bookService, catalog.catalogSize);
+        }
+    }
+
+    // Per-thread buyer, so purchases only contend on the catalog and not on one balance.
+    // Every buyer reviews a different book.
+    @State(Scope.Thread)
+    public static class Buyer {
+        User user;
+        Book reviewedBook;
+
+        @Setup(Level.Iteration)
+        public void setUp(Catalog catalog) {
+            user = new User("buyer", "password", "buyer@example.com");
+            user.setBalanceCents(Long.MAX_VALUE / 2);
+            reviewedBook = catalog.books[catalog.nextBuyer.getAndIncrement() % catalog.books.length];
+            catalog.bookService.purchaseBook(user, reviewedBook);
+        }
+    }
+
+    @Benchmark
+    public List<Book> searchBookHit(Catalog catalog) {
+        return catalog.bookService.searchBook(catalog.randomBook().getTitle());
+    }
+
+    @Benchmark
+    public List<Book> searchBookHitWithMetrics(Catalog catalog, Instrumented instrumented) {
+        return instrumented.bookService.searchBook(catalog.randomBook().getTitle());
+    }
+
+    @Benchmark
+    public List<Book> searchBookHotCached(Cached cached) {
+        return cached.bookService.searchBook(cached.hotKeywords[ThreadLocalRandom.current().nextInt(cached.hotKeywords.length)]);
+    }
+
+    @Benchmark
+    public List<Book> searchBookMiss(Catalog catalog) {
+        return catalog.bookService.searchBook("Nonexistent Keyword");
+    }
+
+    @Benchmark
+    public List<Book> searchBookParallelScan(Catalog catalog) {
+        return catalog.bookService.searchBookParallel(catalog.randomBook().getTitle());
+    }
+
+    // A keyword that matches almost the whole catalog
+    @Benchmark
+    public List<Book> searchBookBroadTop10(Catalog catalog) {
+        return catalog.bookService.searchBook("e", 0, 10);
+    }
+
+    // Add and remove in one op keeps the catalog at its configured size.
+    // Writers take turns on the catalog's write lock.
+    @Benchmark
+    public boolean addAndRemoveBook(Catalog catalog) {
+        Book book = SampleCatalog.book(catalog.catalogSize + ThreadLocalRandom.current().nextInt(catalog.catalogSize));
+        catalog.bookService.addBook(book);
+        return catalog.bookService.removeBook(book);
+    }
+
+    @Benchmark
+    public boolean addAndRemoveBookWithFeed(Catalog catalog, Fed fed) {
+        Book book = SampleCatalog.book(catalog.catalogSize + ThreadLocalRandom.current().nextInt(catalog.catalogSize));
+        fed.bookService.addBook(book);
+        return fed.bookService.removeBook(book);
+    }
+
+    // Searches while an admin imports and removes batches of 100 books: compare the searchers'
+    // score with searchBookHit to see what the import costs readers.
+    @Benchmark
+    @Group("searchDuringImport")
+    @GroupThreads(3)
+    public List<Book> searchWhileImporting(Catalog catalog) {
+        return catalog.bookService.searchBook(catalog.randomBook().getTitle());
+    }
+
+    @Benchmark
+    @Group("searchDuringImport")
+    @GroupThreads(1)
+    public boolean[] importBatch(Catalog catalog) {
+        List<Book> batch = new ArrayList<>(100);
+        int first = catalog.catalogSize + ThreadLocalRandom.current().nextInt(catalog.catalogSize);
+        for (int i = 0; i < 100; i++) {
+            batch.add(SampleCatalog.book(first + i));
+        }
+        catalog.bookService.addBooks(batch);
+        return catalog.bookService.removeBooks(batch);
+    }
+
+    @Benchmark
+    public boolean purchaseBook(Catalog catalog, Buyer buyer) {
+        return catalog.bookService.purchaseBook(buyer.user, catalog.randomBook());
+    }
+
+    @Benchmark
+    public boolean addBookReview(Catalog catalog, Buyer buyer) {
+        return catalog.bookService.addBookReview(buyer.user, buyer.reviewedBook, "Amazing book!");
+    }
+}
@@ -0,0 +1,165 @@
+package org.example;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UserServiceBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Users {
+        @Param({"1000", "1000000"})
+        int userCount;
+
+        UserService userService;
+        final AtomicInteger nextThread = new AtomicInteger();
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            userService = UserService.concurrent();
+            for (int i = 0; i < userCount; i++) {
+                userService.registerUser(new User("user" + i, "password" + i, "user" + i + "@example.com"));
+            }
+        }
+    }
+
+    // HASHED_USERS users behind PBKDF2 at the default cost, registered in parallel since every
+    // registration runs the full hash. The uncached service remembers a single login, so nearly
+    // every login pays for the hash.
+    @State(Scope.Benchmark)
+    public static class HashedUsers {
+        static final int HASHED_USERS = 100;
+
+        UserService cached;
+        UserService uncached;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            PasswordHasher hasher = new PasswordHasher();
+            cached = UserService.concurrent();
+            cached.setPasswordHasher(hasher);
+            uncached = UserService.concurrent();
+            uncached.setPasswordHasher(hasher, new LoginCache(1, 5, TimeUnit.MINUTES));
+            IntStream.range(0, HASHED_USERS).parallel().forEach(i -> {
+                cached.registerUser(new User("user" + i, "password", "user" + i + "@example.com"));
+                uncached.registerUser(new User("user" + i, "password", "user" + i + "@example.com"));
+            });
+            // Fills the login cache, and makes sure the benchmarks don't time rejected logins
+            boolean loggedIn = IntStream.range(0, HASHED_USERS).parallel()
+                    .allMatch(i -> cached.loginUser("user" + i, "password") != null);
+            if (!loggedIn || uncached.loginUser("user0", "password") == null) {
+                throw new IllegalStateException("Hashed users don't log in");
+            }
+        }
+    }
+
+    // The same users in an off-heap UserService, compare with loginUserHit
+    @State(Scope.Benchmark)
+    public static class OffHeapUsers {
+        UserService userService;
+
+        @Setup(Level.Trial)
+        public void setUp(Users users) {
+            userService = UserService.offHeap(users.userCount, id -> null);
+            for (int i = 0; i < users.userCount; i++) {
+                userService.registerUser(new User("user" + i, "password" + i, "user" + i + "@example.com"));
+            }
+        }
+    }
+
+    // One session per user, resolved by handlers on every request
+    @State(Scope.Benchmark)
+    public static class Sessions {
+        SessionManager sessionManager;
+        String[] tokens;
+
+        @Setup(Level.Trial)
+        public void setUp(Users users) {
+            sessionManager = new SessionManager(users.userService, 1, TimeUnit.HOURS);
+            tokens = new String[Math.min(users.userCount, 100_000)];
+            for (int i = 0; i < tokens.length; i++) {
+                tokens[i] = sessionManager.login("user" + i, "password" + i);
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Caller {
+        String prefix;
+        long registered;
+        User profile;
+        boolean renamed;
+
+        @Setup(Level.Trial)
+        public void setUp(Users users) {
+            prefix = "thread" + users.nextThread.getAndIncrement() + "-";
+            profile = new User(prefix + "a", "password", "profile@example.com");
+            users.userService.registerUser(profile);
+        }
+    }
+
+    @Benchmark
+    public boolean registerUser(Users users, Caller caller) {
+        String username = caller.prefix + caller.registered++;
+        return users.userService.registerUser(new User(username, "password", username + "@example.com"));
+    }
+
+    @Benchmark
+    public User loginUserHit(Users users) {
+        int i = ThreadLocalRandom.current().nextInt(users.userCount);
+        return users.userService.loginUser("user" + i, "password" + i);
+    }
+
+    @Benchmark
+    public User loginUserOffHeap(Users users, OffHeapUsers offHeap) {
+        int i = ThreadLocalRandom.current().nextInt(users.userCount);
+        return offHeap.userService.loginUser("user" + i, "password" + i);
+    }
+
+    @Benchmark
+    public User loginUserMiss(Users users) {
+        return users.userService.loginUser("nobody", "password");
+    }
+
+    @Benchmark
+    public User loginUserHashedCached(HashedUsers users) {
+        return users.cached.loginUser("user" + ThreadLocalRandom.current().nextInt(HashedUsers.HASHED_USERS), "password");
+    }
+
+    @Benchmark
+    public User loginUserHashedUncached(HashedUsers users) {
+        return users.uncached.loginUser("user" + ThreadLocalRandom.current().nextInt(HashedUsers.HASHED_USERS), "password");
+    }
+
+    @Benchmark
+    public User resolveSession(Sessions sessions) {
+        return sessions.sessionManager.resolve(sessions.tokens[ThreadLocalRandom.current().nextInt(sessions.tokens.length)]);
+    }
+
+    // Renames the thread's own user back and forth between two names
+    @Benchmark
+    public boolean updateUserProfile(Users users, Caller caller) {
+        caller.renamed = !caller.renamed;
+        String username = caller.prefix + (caller.renamed ? "b" : "a");
+        return users.userService.updateUserProfile(caller.profile, username, "password", "profile@example.com");
+    }
+}
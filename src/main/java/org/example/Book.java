@@ -1,69 +1,251 @@
 package org.example;
 
-import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 public class Book {
-
-    private String title;
-    private String author;
-    private String genre;
-    private double price;
-    private List<String> reviews = new ArrayList<>();
+    private static final AtomicLong NEXT_ID = new AtomicLong(1);
+    private static final AtomicReferenceFieldUpdater<Book, BookListener> LISTENER =
+            AtomicReferenceFieldUpdater.newUpdater(Book.class, BookListener.class, "listener");
+
+    private final long id; // stable identity, used as the catalog key
+    // volatile because catalog readers scan books without locking while setters may run
+    private volatile String title;
+    private volatile String author;
+    private volatile String genre;
+    private volatile long priceCents;
+    private volatile ReviewLog reviews; // created on first use, most books are never reviewed
+    // Holds title, author and genre instead of the fields above for a book loaded from it, until
+    // materialize() copies them onto the heap; null for every other book
+    private volatile BookStore store;
+
+    private volatile char[][] folded; // title, author and genre folded by TextFolding, built by the catalog holding the book
+
+    // A book is in at most one catalog at a time; these three belong to that catalog
+    long sequence; // order in the catalog, assigned by BookService when the book is added
+    int position; // slot in the latest catalog snapshot, guarded by BookService's write lock
+    volatile BookListener listener; // catalog currently holding this book, notified when a field changes
+    volatile boolean sold; // bought from a catalog at least once, so buyers keep seeing it after it is removed
 
 
     public Book(String title, String author, String genre, double price) {
-        this.title = title;
-        this.author = author;
-        this.genre = genre;
-        this.price = price;
+        this(NEXT_ID.getAndIncrement(), title, author, genre, Money.toCents(price));
     }
 
+    // The reviews are copied into the book's review log; see setReviews
     public Book(String title, String author, String genre, double price, List<String> reviews) {
+        this(title, author, genre, price);
+        setReviews(reviews);
+    }
+
+    // Restores a book under a known id, e.g. when the catalog is reloaded from a BookStore
+    Book(long id, String title, String author, String genre, long priceCents) {
+        this.id = id;
         this.title = title;
         this.author = author;
         this.genre = genre;
-        this.price = price;
-        this.reviews = reviews;
+        this.priceCents = priceCents;
+        NEXT_ID.accumulateAndGet(id + 1, Math::max); // ids handed out later must not collide with restored ones
+    }
+
+    // A book loaded from a store that keeps its text, see BookStore.load
+    Book(long id, long priceCents, BookStore store) {
+        this(id, null, null, null, priceCents);
+        this.store = store;
+    }
+
+    public long getId() {
+        return id;
     }
 
     public String getTitle() {
-        return title;
+        return text(0);
     }
 
     public void setTitle(String title) {
-        this.title = title;
+        update(() -> this.title = title);
     }
 
     public String getAuthor() {
-        return author;
+        return text(1);
     }
 
     public void setAuthor(String author) {
-        this.author = author;
+        update(() -> this.author = author);
     }
 
     public String getGenre() {
-        return genre;
+        return text(2);
     }
 
     public void setGenre(String genre) {
-        this.genre = genre;
+        update(() -> this.genre = genre);
     }
 
+    // Live view of the review log, adding to it appends a review
     public List<String> getReviews() {
-        return reviews;
+        return reviewLog().asList();
     }
 
+    // Replaces the reviews with a copy of the list, null for none. The book doesn't keep the list:
+    // it can't make appends to a list it doesn't own safe for concurrent readers. Later changes to
+    // the list are not seen by the book, and reviews added to the book are not added to the list;
+    // getReviews() is the live list.
     public void setReviews(List<String> reviews) {
-        this.reviews = reviews;
+        this.reviews = reviews == null ? null : new ReviewLog(reviews);
+    }
+
+    ReviewLog reviewLog() {
+        ReviewLog log = reviews;
+        if (log == null) {
+            synchronized (this) {
+                log = reviews;
+                if (log == null) {
+                    log = new ReviewLog();
+                    reviews = log;
+                }
+            }
+        }
+        return log;
     }
 
     public double getPrice() {
-        return price;
+        return Money.fromCents(priceCents);
     }
 
     public void setPrice(double price) {
-        this.price = price;
+        setPriceCents(Money.toCents(price));
+    }
+
+    public long getPriceCents() {
+        return priceCents;
+    }
+
+    public void setPriceCents(long priceCents) {
+        update(() -> this.priceCents = priceCents);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof Book && ((Book) o).id == id;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(id);
+    }
+
+
+    // Makes owner's catalog the one holding this book, false if another catalog already holds it
+    boolean claim(BookListener owner) {
+        return LISTENER.compareAndSet(this, null, owner);
+    }
+
+    // Folded title, author and genre for case and accent insensitive search. Folded on the spot,
+    // and not kept, while a setter has cleared them: a reader storing them could store a fold of
+    // the old values after the setter is done.
+    char[][] foldedFields() {
+        char[][] fields = folded;
+        return fields != null ? fields : fold();
+    }
+
+    // Called by the catalog holding the book, under its write lock, once a change is in place.
+    // A book whose text is in a store is folded per query instead, so its text stays off the heap.
+    void refold() {
+        folded = store == null ? fold() : null;
+    }
+
+    private char[][] fold() {
+        return new char[][]{TextFolding.fold(getTitle()), TextFolding.fold(getAuthor()), TextFolding.fold(getGenre())};
+    }
+
+    // Copies the text of a book loaded from a store onto the heap, so it no longer depends on the
+    // store's record. Under the write lock of the catalog holding the book, if any.
+    void materialize() {
+        BookStore from = store;
+        if (from != null) {
+            title = from.text(id, 0);
+            author = from.text(id, 1);
+            genre = from.text(id, 2);
+            store = null; // last, so a reader that sees it cleared sees the copies
+        }
+    }
+
+    // The store's copy while there is one. A null from the store after the book was materialized
+    // means the record is already gone, and the heap fields hold the text; they are read after
+    // store, so they are the copies.
+    private String text(int field) {
+        BookStore from = store;
+        if (from != null) {
+            String text = from.text(id, field);
+            if (text != null || store != null) {
+                return text;
+            }
+        }
+        return field == 0 ? title : field == 1 ? author : genre;
+    }
+
+    // The values a setter can change, e.g. to put back when the catalog can't keep a change
+    Fields fields() {
+        return new Fields(getTitle(), getAuthor(), getGenre(), priceCents);
+    }
+
+    void restore(Fields fields) {
+        title = fields.title;
+        author = fields.author;
+        genre = fields.genre;
+        priceCents = fields.priceCents;
+        folded = null;
+    }
+
+    // Immutable copy of a book's fields at one moment, e.g. in a ChangeEvent
+    public static final class Fields {
+        private final String title;
+        private final String author;
+        private final String genre;
+        private final long priceCents;
+
+        Fields(String title, String author, String genre, long priceCents) {
+            this.title = title;
+            this.author = author;
+            this.genre = genre;
+            this.priceCents = priceCents;
+        }
+
+        public String getTitle() {
+            return title;
+        }
+
+        public String getAuthor() {
+            return author;
+        }
+
+        public String getGenre() {
+            return genre;
+        }
+
+        public double getPrice() {
+            return Money.fromCents(priceCents);
+        }
+
+        public long getPriceCents() {
+            return priceCents;
+        }
+    }
+
+    // Runs a setter's assignment through the catalog holding the book, if any
+    private void update(Runnable change) {
+        Runnable apply = () -> {
+            materialize();
+            change.run();
+            folded = null;
+        };
+        BookListener current = listener;
+        if (current == null) {
+            apply.run();
+        } else {
+            current.update(this, apply);
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,269 @@
+package org.example;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.LongFunction;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+// Inverted trigram index over title, author and genre.
+// Every trigram of a field maps to the catalog sequences of the books holding it, as a PostingList
+// of primitive longs. Only books holding every trigram of a keyword can match it, so a keyword of
+// 3 chars or more is answered by checking the books in its rarest trigram. Shorter keywords have
+// no trigram to look up and are answered by a scan of the catalog, as is every keyword while the
+// index is still being built, e.g. in the background after a restart.
+// Postings are in sequence order, so results come back in the order books were added.
+// Written by one catalog writer at a time; searches run concurrently without locks on whichever
+// version of a posting list they find, and the check against the keyword drops books that were
+// changed or removed since.
+class BookIndex {
+    static final int GRAM = 3;
+
+    static final Comparator<Book> BY_SEQUENCE = Comparator.comparingLong(book -> book.sequence);
+
+    // Fields in ranking order: a title match beats an author match beats a genre match
+    private static final List<Function<Book, String>> FIELDS = List.of(Book::getTitle, Book::getAuthor, Book::getGenre);
+
+    private final Supplier<CatalogSnapshot> catalog; // for keywords shorter than a trigram, or while building
+    private final LongFunction<Book> books; // catalog sequence -> book, null once removed
+    private final List<Map<Long, PostingList>> grams =
+            List.of(new ConcurrentHashMap<>(), new ConcurrentHashMap<>(), new ConcurrentHashMap<>());
+    private volatile boolean building; // not every book in the catalog is indexed yet
+
+    BookIndex(Supplier<CatalogSnapshot> catalog, LongFunction<Book> books) {
+        this.catalog = catalog;
+        this.books = books;
+    }
+
+    void setBuilding(boolean building) {
+        this.building = building;
+    }
+
+    void add(Book book) {
+        for (int field = 0; field < FIELDS.size(); field++) {
+            index(grams.get(field), FIELDS.get(field).apply(book), book.sequence);
+        }
+    }
+
+    // Needs the values the book was indexed under, so call it before a field changes
+    void remove(Book book) {
+        for (int field = 0; field < FIELDS.size(); field++) {
+            unindex(grams.get(field), FIELDS.get(field).apply(book), book.sequence);
+        }
+    }
+
+    // Same results as title.contains(keyword) || author.contains(keyword) || genre.contains(keyword),
+    // for a non-empty keyword.
+    List<Book> search(String keyword) {
+        List<Book> matches = new ArrayList<>();
+        searchLazily(keyword).forEachRemaining(matches::add);
+        return matches;
+    }
+
+    // All matches in catalog order, produced one at a time: the per-field match streams are
+    // already in catalog order, so a 3-way merge yields them with constant memory.
+    Iterator<Book> searchLazily(String keyword) {
+        if (keyword.length() < GRAM || building) {
+            return filter(catalog.get().iterator(), book -> matchesField(book, keyword, FIELDS.size()));
+        }
+        List<Iterator<Book>> fields = new ArrayList<>(FIELDS.size());
+        for (int field = 0; field < FIELDS.size(); field++) {
+            fields.add(matches(field, keyword));
+        }
+        return new Iterator<>() {
+            private final Book[] heads = new Book[fields.size()];
+            private long last = -1; // sequence of the last book returned, to drop repeats across fields
+
+            {
+                for (int field = 0; field < heads.length; field++) {
+                    heads[field] = fields.get(field).hasNext() ? fields.get(field).next() : null;
+                }
+            }
+
+            @Override
+            public boolean hasNext() {
+                for (int field = 0; field < heads.length; field++) {
+                    while (heads[field] != null && heads[field].sequence <= last) {
+                        heads[field] = fields.get(field).hasNext() ? fields.get(field).next() : null;
+                    }
+                }
+                for (Book head : heads) {
+                    if (head != null) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+
+            @Override
+            public Book next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Book first = null;
+                for (Book head : heads) {
+                    if (head != null && (first == null || head.sequence < first.sequence)) {
+                        first = head;
+                    }
+                }
+                last = first.sequence;
+                return first;
+            }
+        };
+    }
+
+    // One page of the matches ranked by the best field they match in, catalog order within a field.
+    // The fields are walked lazily in ranking order, so the walk stops as soon as the page is full:
+    // nothing further down can outrank what is already on it.
+    List<Book> searchRanked(String keyword, int offset, int limit) {
+        List<Book> page = new ArrayList<>(Math.min(limit, 64));
+        int skip = offset;
+        for (int field = 0; field < FIELDS.size() && page.size() < limit; field++) {
+            Iterator<Book> matches = matches(field, keyword);
+            while (matches.hasNext() && page.size() < limit) {
+                Book book = matches.next();
+                if (matchesField(book, keyword, field)) {
+                    continue; // already ranked under a better field
+                }
+                if (skip > 0) {
+                    skip--;
+                } else {
+                    page.add(book);
+                }
+            }
+        }
+        return page;
+    }
+
+    // Books whose given field contains the keyword, lazily and in catalog order
+    private Iterator<Book> matches(int field, String keyword) {
+        Function<Book, String> value = FIELDS.get(field);
+        if (keyword.length() < GRAM || building) {
+            return filter(catalog.get().iterator(), book -> contains(value.apply(book), keyword));
+        }
+        Map<Long, PostingList> fieldGrams = grams.get(field);
+        PostingList rarest = null;
+        for (int i = 0; i + GRAM <= keyword.length(); i++) {
+            PostingList posting = fieldGrams.get(gram(keyword, i));
+            if (posting == null) {
+                return Collections.emptyIterator();
+            }
+            if (rarest == null || posting.size() < rarest.size()) {
+                rarest = posting;
+            }
+        }
+        return filter(books(rarest), book -> contains(value.apply(book), keyword));
+    }
+
+    // The indexed books of a posting list, skipping sequences removed since it was read
+    private Iterator<Book> books(PostingList posting) {
+        PrimitiveIterator.OfLong sequences = posting.iterator();
+        return new Iterator<>() {
+            private Book next = advance();
+
+            private Book advance() {
+                while (sequences.hasNext()) {
+                    Book book = books.apply(sequences.nextLong());
+                    if (book != null) {
+                        return book;
+                    }
+                }
+                return null;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public Book next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                Book book = next;
+                next = advance();
+                return book;
+            }
+        };
+    }
+
+    // Whether one of the first fields of the book contains the keyword
+    private static boolean matchesField(Book book, String keyword, int fields) {
+        for (int field = 0; field < fields; field++) {
+            if (contains(FIELDS.get(field).apply(book), keyword)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean contains(String value, String keyword) {
+        return value != null && value.contains(keyword);
+    }
+
+    private static Iterator<Book> filter(Iterator<Book> candidates, Predicate<Book> matches) {
+        return new Iterator<>() {
+            private Book next = advance();
+
+            private Book advance() {
+                while (candidates.hasNext()) {
+                    Book book = candidates.next();
+                    if (matches.test(book)) {
+                        return book;
+                    }
+                }
+                return null;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public Book next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                Book book = next;
+                next = advance();
+                return book;
+            }
+        };
+    }
+
+    private static void index(Map<Long, PostingList> grams, String value, long sequence) {
+        if (value == null) {
+            return;
+        }
+        for (int i = 0; i + GRAM <= value.length(); i++) {
+            grams.compute(gram(value, i), (gram, posting) -> (posting == null ? PostingList.EMPTY : posting).with(sequence));
+        }
+    }
+
+    private static void unindex(Map<Long, PostingList> grams, String value, long sequence) {
+        if (value == null) {
+            return;
+        }
+        for (int i = 0; i + GRAM <= value.length(); i++) {
+            grams.computeIfPresent(gram(value, i), (gram, posting) -> {
+                PostingList rest = posting.without(sequence);
+                return rest.isEmpty() ? null : rest;
+            });
+        }
+    }
+
+    // The three chars starting at i, packed into one key
+    private static long gram(String value, int i) {
+        return (long) value.charAt(i) << 32 | (long) value.charAt(i + 1) << 16 | value.charAt(i + 2);
+    }
+}
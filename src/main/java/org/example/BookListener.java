@@ -0,0 +1,9 @@
+package org.example;
+
+// Callback used by Book setters so the catalog holding the book can keep its indexes in sync.
+interface BookListener {
+
+    // Applies the setter's change to the book, with the catalog's bookkeeping around it.
+    // Called with the old field values; change assigns the new ones.
+    void update(Book book, Runnable change);
+}
@@ -1,51 +1,598 @@
 package org.example;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongFunction;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
+// Readers never lock. Scans and listings read the catalog snapshot current when they start and
+// never see later changes to its membership; index lookups read concurrent indexes and see each
+// change once it is made. Writers (add, remove and Book setters) take turns on writeLock and
+// publish a new snapshot per call, so a batch shows up as one version.
 public class BookService {
-    private List<Book> bookDatabase = new ArrayList<>(); // A list to simulate a book database
+    private static final int INDEX_BATCH = 1024;
+
+    private final Map<Long, Book> bookDatabase = new ConcurrentHashMap<>(); // Books keyed by id
+    private final Map<Long, Book> bySequence = new ConcurrentHashMap<>(); // the same books by catalog sequence
+    private final Map<Long, Book> removedSold = new ConcurrentHashMap<>(); // removed books someone bought, as last known
+    private volatile CatalogSnapshot catalog = CatalogSnapshot.EMPTY; // Books in the order they were added
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final BookIndex bookIndex = new BookIndex(() -> catalog, bySequence::get); // trigram index over title, author and genre
+    private final ValueIndex genreIndex = new ValueIndex(Book::getGenre);
+    private final ValueIndex authorIndex = new ValueIndex(Book::getAuthor);
+    private final PriceIndex priceIndex = new PriceIndex(bySequence::get);
+    private BookStore bookStore; // null keeps the catalog in memory only
+    private ForkJoinPool searchPool; // for parallel scans, created on first use unless one is set
+    private long nextSequence; // guarded by writeLock
+    private volatile Metrics metrics = Metrics.DISABLED;
+    private volatile SearchCache searchCache; // null runs every search
+    private volatile ChangeFeed changeFeed; // null publishes nothing
+    private volatile boolean indexed = true; // false while books loaded from the store are being indexed
+    private final CountDownLatch indexing = new CountDownLatch(1);
+
+    // Keeps the indexes and the store in line with Book setters
+    private final BookListener catalogListener = this::update;
+    // Where users look up the books they bought here, removed ones included; one instance, so each
+    // user keeps it once
+    private final LongFunction<Book> lookup = id -> {
+        Book book = bookDatabase.get(id);
+        return book != null ? book : removedSold.get(id);
+    };
+
+    public BookService() {
+    }
+
+    // Backs the catalog with a store and reloads whatever the store already holds. The books are
+    // served as soon as this returns, while a background thread indexes them; until it is done,
+    // searches and the find methods scan the catalog instead of using the indexes. Books the store
+    // hands out without their text keep it there, see BookStore.load.
+    public BookService(BookStore bookStore) {
+        List<Book> books = bookStore.load();
+        for (Book book : books) {
+            bookDatabase.put(book.getId(), book);
+            register(book);
+        }
+        catalog = catalog.append(books);
+        this.bookStore = bookStore;
+        if (!books.isEmpty()) {
+            indexInBackground(books);
+        }
+    }
+
+    // Bumped by every change to the catalog or to a book in it
+    public long getCatalogVersion() {
+        return catalog.version;
+    }
+
+    public void setMetrics(Metrics metrics) {
+        this.metrics = metrics;
+        metrics.gauge("catalog.books", bookDatabase::size);
+        metrics.gauge("search.cache.hits", () -> searchCache == null ? 0 : searchCache.hitCount());
+        metrics.gauge("search.cache.misses", () -> searchCache == null ? 0 : searchCache.missCount());
+    }
+
+    // Publishes every later change to the catalog, a book in it, or its reviews to the feed.
+    // Catalog changes are published under the write lock, so the feed has them in the order they happened.
+    public void setChangeFeed(ChangeFeed changeFeed) {
+        this.changeFeed = changeFeed;
+    }
+
+    // Caches searchBook(keyword) results for repeated keywords, holding at most maxCachedBooks
+    // books across all results; 0 turns the cache off. Results stay valid until the catalog
+    // version changes. With the cache on, searchBook returns unmodifiable lists.
+    public void setSearchCache(long maxCachedBooks) {
+        searchCache = maxCachedBooks > 0 ? new SearchCache(maxCachedBooks) : null;
+    }
 
     public List<Book> searchBook(String keyword) {
-        // Search book by title, author, or genre
-        return bookDatabase.stream()
-                .filter(book -> book.getTitle().contains(keyword) ||
-                        book.getAuthor().contains(keyword) ||
-                        book.getGenre().contains(keyword))
-                .collect(Collectors.toList());
+        long start = metrics.start();
+        List<Book> result;
+        SearchCache cache = searchCache;
+        if (cache == null) {
+            result = search(keyword);
+        } else {
+            long version = catalog.version; // read first, so a change during the search makes the result stale
+            result = cache.get(keyword, version);
+            if (result == null) {
+                result = Collections.unmodifiableList(search(keyword));
+                cache.put(keyword, version, result);
+            }
+        }
+        metrics.recordSearch(start, !result.isEmpty());
+        return result;
     }
 
-    public boolean purchaseBook(User user, Book book) {
-        // In real world, this should check user's balance, availability of the book, and then make a transaction
-        // But for now, we just check if the book exists in our "database"
+    private List<Book> search(String keyword) {
+        // Search book by title, author, or genre
+        if (keyword.isEmpty()) {
+            return catalog.toList(); // every string contains the empty keyword
+        }
+        if (keyword.length() < BookIndex.GRAM || !indexed) {
+            return searchBookParallel(keyword); // no trigram to look up, or not every book indexed yet
+        }
+        return bookIndex.search(keyword);
+    }
 
-        return bookDatabase.contains(book) && user.getBalance() >= book.getPrice();
+    // Ranked search: books matching in the title come first, then author, then genre,
+    // catalog order within each. Returns at most limit books after skipping offset of them,
+    // and stops looking once that page is filled.
+    public List<Book> searchBook(String keyword, int offset, int limit) {
+        if (offset < 0 || limit < 0) {
+            throw new IllegalArgumentException("offset and limit must not be negative");
+        }
+        long start = metrics.start();
+        List<Book> page = keyword.isEmpty()
+                ? catalog.stream().skip(offset).limit(limit).collect(Collectors.toList())
+                : bookIndex.searchRanked(keyword, offset, limit);
+        metrics.recordSearch(start, !page.isEmpty());
+        return page;
     }
 
-    public boolean addBookReview(User user, Book book, String review) {
-        // logic to add book review
-        if (!user.getPurchasedBooks().contains(book)) {
-            return false; // User has not purchased this book
+    // Lazy search for consumers that need every match, e.g. exports: matches are produced as the
+    // caller pulls them, in catalog order, so millions of results never sit in memory at once.
+    public Iterator<Book> searchBookIterator(String keyword) {
+        if (keyword.isEmpty()) {
+            return catalog.iterator();
         }
-        // Updated to return false if there is no review added by the user.
-        if(review.isEmpty()){
+        return bookIndex.searchLazily(keyword);
+    }
+
+    public Stream<Book> searchBookStream(String keyword) {
+        Spliterator<Book> matches = Spliterators.spliteratorUnknownSize(searchBookIterator(keyword),
+                Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL);
+        return StreamSupport.stream(matches, false);
+    }
+
+    // Same results as searchBook, found by scanning the whole catalog in parallel segments instead of
+    // through the index.
+    public List<Book> searchBookParallel(String keyword) {
+        return filterBooks(book -> contains(book.getTitle(), keyword)
+                || contains(book.getAuthor(), keyword)
+                || contains(book.getGenre(), keyword));
+    }
+
+    // Ignores case and accents: "garcia marquez" finds "Gabriel García Márquez".
+    // Each book's folded fields are computed when it is added or changed, the keyword is folded
+    // once per query and matched with Boyer-Moore-Horspool, so the scan itself allocates nothing.
+    public List<Book> searchBookIgnoreCase(String keyword) {
+        Horspool matcher = new Horspool(TextFolding.fold(keyword));
+        return filterBooks(book -> {
+            for (char[] field : book.foldedFields()) {
+                if (matcher.foundIn(field)) {
+                    return true;
+                }
+            }
             return false;
+        });
+    }
+
+    // Books matching any query the index can't answer, in catalog order. Large catalogs are
+    // scanned on the search pool, never on the common pool where it would starve other work.
+    public List<Book> filterBooks(Predicate<Book> query) {
+        CatalogSnapshot books = catalog;
+        ParallelScan scan = new ParallelScan(books, 0, books.slots, query);
+        if (books.slots <= ParallelScan.SEGMENT_SIZE) {
+            return scan.compute(); // one segment, not worth a trip through the pool
+        }
+        return searchPool().invoke(scan);
+    }
+
+    public synchronized void setSearchPool(ForkJoinPool searchPool) {
+        this.searchPool = searchPool;
+    }
+
+    private synchronized ForkJoinPool searchPool() {
+        if (searchPool == null) {
+            searchPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        }
+        return searchPool;
+    }
+
+    private static boolean contains(String value, String keyword) {
+        return value != null && value.contains(keyword);
+    }
+
+    // Storefront queries answered from the secondary indexes, each in catalog order
+
+    public List<Book> findBooksByGenre(String genre) {
+        if (!indexed) {
+            return filterBooks(book -> Objects.equals(book.getGenre(), genre));
+        }
+        return genreIndex.find(genre);
+    }
+
+    public List<Book> findBooksByAuthor(String author) {
+        if (!indexed) {
+            return filterBooks(book -> Objects.equals(book.getAuthor(), author));
+        }
+        return authorIndex.find(author);
+    }
+
+    // Books priced between minPrice and maxPrice inclusive, cheapest first
+    public List<Book> findBooksByPrice(double minPrice, double maxPrice) {
+        long minCents = Money.toCents(minPrice);
+        long maxCents = Money.toCents(maxPrice);
+        if (!indexed) {
+            List<Book> matches = filterBooks(book -> book.getPriceCents() >= minCents && book.getPriceCents() <= maxCents);
+            matches.sort(Comparator.comparingLong(Book::getPriceCents)); // stable, so catalog order within a price
+            return matches;
+        }
+        return priceIndex.range(minCents, maxCents);
+    }
+
+    // Waits until the books loaded from the store are indexed, e.g. before measuring searches
+    void awaitIndexed() throws InterruptedException {
+        if (!indexed) {
+            indexing.await();
+        }
+    }
+
+    public boolean purchaseBook(User user, Book book) {
+        long start = metrics.start();
+        try {
+            // The book has to exist in our "database", then the user's balance is debited
+            // and the book added to the purchased books as one transaction.
+            // At the catalog's price, whatever copy of the book the caller holds.
+            Book stored = book == null ? null : bookDatabase.get(book.getId());
+            if (stored == null) {
+                return false; // Book is not available
+            }
+            // Marked before the purchase, so a removal either sees the mark and keeps the book for
+            // its buyers or has already taken it out, which the check below catches
+            stored.sold = true;
+            if (bookDatabase.get(stored.getId()) != stored) {
+                removedSold.putIfAbsent(stored.getId(), stored);
+            }
+            return user.purchase(stored, stored.getPriceCents(), lookup);
+        } finally {
+            metrics.record(Metrics.Operation.PURCHASE_BOOK, start);
+        }
+    }
+
+    public boolean addBookReview(User user, Book book, String review) {
+        long start = metrics.start();
+        try {
+            // logic to add book review
+            if (!user.hasPurchased(book)) {
+                return false; // User has not purchased this book
+            }
+            // Updated to return false if there is no review added by the user.
+            if(review.isEmpty()){
+                return false;
+            }
+            // On the catalog's own book, so a review through a copy equal by id is not lost with the copy
+            Book stored = bookDatabase.getOrDefault(book.getId(), book);
+            if (changeFeed != null) {
+                // Published under the log's append lock, so a book's reviews reach the feed in log order
+                ChangeEvent event = ChangeEvent.reviewAdded(stored, user, review);
+                stored.reviewLog().append(review, () -> publish(event));
+            } else {
+                stored.reviewLog().append(review);
+            }
+            return true; // Review added successfully
+        } finally {
+            metrics.record(Metrics.Operation.ADD_BOOK_REVIEW, start);
         }
-        book.getReviews().add(review);
-        return true; // Review added successfully
+    }
+
+    // One page of a book's reviews, oldest first, without copying the rest
+    public List<String> getReviews(Book book, int offset, int limit) {
+        return book.reviewLog().page(offset, limit);
+    }
+
+    public int getReviewCount(Book book) {
+        return book.reviewLog().size();
     }
 
     public boolean addBook(Book book) {
-        if (bookDatabase.contains(book)) {
-            return false; // Book is already in the database
+        writeLock.lock();
+        try {
+            if (bookDatabase.containsKey(book.getId())) {
+                return false; // Book is already in the database
+            }
+
+            claim(book);
+            if (bookStore != null) {
+                try {
+                    bookStore.add(book); // first, so a book the store rejects never shows up in the catalog
+                } catch (RuntimeException | Error e) {
+                    book.listener = null;
+                    throw e;
+                }
+            }
+            bookDatabase.put(book.getId(), book);
+            attach(book);
+            catalog = catalog.append(List.of(book));
+            if (changeFeed != null) {
+                publish(ChangeEvent.bookAdded(book));
+            }
+            flushStore();
+            return true; // Book added successfully
+        } finally {
+            writeLock.unlock();
         }
+    }
 
-        bookDatabase.add(book);
-        return true; // Book added successfully
+    // Adds a whole batch in one pass. result[i] tells whether the i-th book was added,
+    // false for nulls, books already in the database and repeats within the batch.
+    // Duplicates are resolved before anything is stored, and the accepted books go
+    // into the database with a single putAll so the table is resized at most once.
+    // Scans see the whole batch appear as one new version. A book held by another catalog fails
+    // the whole batch, as does a book the store rejects.
+    public boolean[] addBooks(Collection<Book> books) {
+        boolean[] result = new boolean[books.size()];
+        writeLock.lock();
+        try {
+            Map<Long, Book> accepted = new LinkedHashMap<>(capacityFor(books.size()));
+            try {
+                int i = 0;
+                for (Book book : books) {
+                    result[i] = book != null
+                            && !bookDatabase.containsKey(book.getId())
+                            && accepted.putIfAbsent(book.getId(), book) == null;
+                    if (result[i++]) {
+                        claim(book);
+                    }
+                }
+                if (bookStore != null) {
+                    storeAll(accepted.values());
+                }
+            } catch (RuntimeException | Error e) {
+                for (Book book : accepted.values()) {
+                    if (book.listener == catalogListener) {
+                        book.listener = null;
+                    }
+                }
+                throw e;
+            }
+            bookDatabase.putAll(accepted);
+            for (Book book : accepted.values()) {
+                attach(book);
+            }
+            catalog = catalog.append(new ArrayList<>(accepted.values()));
+            for (Book book : accepted.values()) {
+                if (changeFeed != null) {
+                    publish(ChangeEvent.bookAdded(book));
+                }
+            }
+            flushStore(); // once for the whole batch
+        } finally {
+            writeLock.unlock();
+        }
+        return result;
     }
 
     public boolean removeBook(Book book) {
-        return bookDatabase.remove(book); // Book removed successfully if it was in the database
+        writeLock.lock();
+        try {
+            Book stored = detach(book);
+            if (stored == null) {
+                return false; // Book was not in the database
+            }
+            catalog = catalog.remove(List.of(stored));
+            if (changeFeed != null) {
+                publish(ChangeEvent.bookRemoved(stored));
+            }
+            flushStore();
+            return true; // Book removed successfully
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    // result[i] tells whether the i-th book was removed. The catalog is compacted once for the
+    // whole batch, not once per book.
+    public boolean[] removeBooks(Collection<Book> books) {
+        boolean[] result = new boolean[books.size()];
+        writeLock.lock();
+        try {
+            List<Book> removed = new ArrayList<>(books.size()); // in batch order, once per removed book
+            int i = 0;
+            for (Book book : books) {
+                Book stored = detach(book);
+                if (stored != null) {
+                    removed.add(stored);
+                    result[i] = true;
+                }
+                i++;
+            }
+            if (!removed.isEmpty()) {
+                catalog = catalog.remove(removed);
+            }
+            for (Book book : removed) {
+                if (changeFeed != null) {
+                    publish(ChangeEvent.bookRemoved(book));
+                }
+            }
+            flushStore();
+        } finally {
+            writeLock.unlock();
+        }
+        return result;
+    }
+
+    public boolean containsBook(Book book) {
+        return book != null && bookDatabase.containsKey(book.getId());
+    }
+
+    public Book getBook(long id) {
+        return bookDatabase.get(id);
+    }
+
+    // A Book setter on a book in this catalog: the field changes under the write lock, while the
+    // book is out of the indexes, and the lock is released whatever the change or the store throws.
+    // A change the store rejects, e.g. a title too long for its record, is rolled back, so the
+    // catalog never holds values that would be gone after a restart.
+    private void update(Book book, Runnable change) {
+        BookListener current;
+        writeLock.lock();
+        try {
+            current = book.listener;
+            if (current == catalogListener) {
+                Book.Fields before = book.fields();
+                unindex(book);
+                try {
+                    change.run();
+                    if (bookStore != null) {
+                        bookStore.update(book);
+                    }
+                } catch (RuntimeException | Error e) {
+                    book.restore(before);
+                    throw e;
+                } finally {
+                    index(book); // under whatever values the book ended up with
+                }
+                catalog = catalog.touch();
+                if (changeFeed != null) {
+                    publish(ChangeEvent.bookUpdated(book, before));
+                }
+                flushStore();
+                return;
+            }
+            if (current == null) {
+                change.run(); // removed while we waited for the lock
+                return;
+            }
+        } finally {
+            writeLock.unlock();
+        }
+        current.update(book, change); // moved to another catalog while we waited
+    }
+
+    // Callers check changeFeed first, so without a feed no event is even built
+    private void publish(ChangeEvent event) {
+        ChangeFeed feed = changeFeed;
+        if (feed != null) {
+            feed.publish(event);
+        }
+    }
+
+    // The durability point: a change is on disk once the call that made it returns
+    private void flushStore() {
+        if (bookStore != null) {
+            bookStore.flush();
+        }
+    }
+
+    // Takes the book out of the database, the store and the indexes, but not out of the snapshot.
+    // Returns the catalog's own instance, null if there was none: the caller's book may only be
+    // equal to it by id, and lacks its sequence, position and listener.
+    private Book detach(Book book) {
+        Book stored = book == null ? null : bookDatabase.remove(book.getId());
+        if (stored == null) {
+            return null;
+        }
+        stored.materialize(); // the caller may keep the book, and its record is about to go
+        if (stored.sold) {
+            removedSold.put(stored.getId(), stored); // its buyers still list it
+        }
+        if (bookStore != null) {
+            bookStore.remove(stored);
+        }
+        unindex(stored);
+        bySequence.remove(stored.sequence);
+        stored.listener = null;
+        return stored;
+    }
+
+    // A book in two catalogs would have one sequence, position and listener for both, so each
+    // catalog would unindex and detach the other's entries. To move a book, remove it from the
+    // catalog holding it first.
+    private void claim(Book book) {
+        if (!book.claim(catalogListener)) {
+            throw new IllegalArgumentException("Book " + book.getId() + " is already in another catalog");
+        }
+    }
+
+    // The book is already claimed
+    private void attach(Book book) {
+        removedSold.remove(book.getId()); // listed from the catalog again
+        register(book);
+        index(book);
+    }
+
+    private void register(Book book) {
+        book.sequence = nextSequence++;
+        bySequence.put(book.sequence, book);
+        book.listener = catalogListener;
+    }
+
+    // Indexes loaded books a batch at a time under the write lock, so writers get their turn in
+    // between. A book a setter already reindexed is indexed again under the same values, which
+    // changes nothing, and a book removed in the meantime is skipped.
+    private void indexInBackground(List<Book> books) {
+        indexed = false;
+        bookIndex.setBuilding(true);
+        Thread indexer = new Thread(() -> {
+            for (int from = 0; from < books.size(); from += INDEX_BATCH) {
+                writeLock.lock();
+                try {
+                    for (Book book : books.subList(from, Math.min(books.size(), from + INDEX_BATCH))) {
+                        if (book.listener == catalogListener) {
+                            index(book);
+                        }
+                    }
+                } finally {
+                    writeLock.unlock();
+                }
+            }
+            bookIndex.setBuilding(false);
+            indexed = true;
+            indexing.countDown();
+        }, "catalog-indexer");
+        indexer.setDaemon(true);
+        indexer.start();
+    }
+
+    private void index(Book book) {
+        book.refold(); // once here, so case insensitive searches don't fold per query
+        bookIndex.add(book);
+        genreIndex.add(book);
+        authorIndex.add(book);
+        priceIndex.add(book);
+    }
+
+    private void unindex(Book book) {
+        bookIndex.remove(book);
+        genreIndex.remove(book);
+        authorIndex.remove(book);
+        priceIndex.remove(book);
+    }
+
+    // All or nothing: if the store rejects one book, the ones already stored are taken out again
+    private void storeAll(Collection<Book> books) {
+        List<Book> stored = new ArrayList<>(books.size());
+        try {
+            for (Book book : books) {
+                bookStore.add(book);
+                stored.add(book);
+            }
+        } catch (RuntimeException | Error e) {
+            for (Book book : stored) {
+                bookStore.remove(book);
+            }
+            throw e;
+        }
+    }
+
+    // HashMap capacity that holds the given number of entries without resizing
+    static int capacityFor(int entries) {
+        return (int) (entries / 0.75f) + 1;
     }
 }
\ No newline at end of file
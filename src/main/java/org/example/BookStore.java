@@ -0,0 +1,31 @@
+package org.example;
+
+import java.io.Closeable;
+import java.util.List;
+
+// Durable storage behind BookService. BookService writes every catalog change through and
+// flushes the store before the call making the change returns, and reloads the live books from
+// the store when it is constructed with one.
+public interface BookStore extends Closeable {
+
+    void add(Book book);
+
+    void update(Book book);
+
+    void remove(Book book);
+
+    // Makes every change so far durable
+    void flush();
+
+    // Live books, in the order they were stored. A store may hand them out without their text and
+    // answer their getters through text(); BookService copies it onto the heap before a setter
+    // changes such a book or the book leaves the catalog.
+    List<Book> load();
+
+    // Title, author or genre (field 0, 1 or 2) of a live stored book, null if it is null or the
+    // book is not stored. Called concurrently by readers, so it must not block on writers.
+    // Only needed by a store whose load() leaves the text out.
+    default String text(long id, int field) {
+        return null;
+    }
+}
@@ -0,0 +1,151 @@
+package org.example;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+// One published version of the catalog: the books in catalog order, at positions [0, slots) of a
+// three-level array, position p at root[p >>> 20][(p >>> 10) & 1023][p & 1023].
+// Appends write past slots into arrays the latest snapshot shares with older ones, which never
+// read that far. A removal leaves a null tombstone, copying only the leaf holding the book and the
+// two arrays above it; once a quarter of the positions are tombstones, the catalog is compacted
+// into fresh arrays in one pass. Either way the positions a reader holds never change under it,
+// so readers need no lock.
+final class CatalogSnapshot implements Iterable<Book> {
+    private static final int SHIFT = 10;
+    static final int LEAF_SIZE = 1 << SHIFT;
+    private static final int MASK = LEAF_SIZE - 1;
+
+    static final CatalogSnapshot EMPTY = new CatalogSnapshot(new Book[0][][], 0, 0, 0);
+
+    private final Book[][][] root;
+    final int slots; // positions in use, books and tombstones
+    final int size; // books
+    final long version;
+
+    private CatalogSnapshot(Book[][][] root, int slots, int size, long version) {
+        this.root = root;
+        this.slots = slots;
+        this.size = size;
+        this.version = version;
+    }
+
+    // Only for the writer, with the latest snapshot
+    CatalogSnapshot append(List<Book> added) {
+        return append(added, version + 1);
+    }
+
+    private CatalogSnapshot append(List<Book> added, long newVersion) {
+        Book[][][] target = root;
+        int position = slots;
+        for (Book book : added) {
+            int top = position >>> (2 * SHIFT);
+            if (top == target.length) {
+                target = Arrays.copyOf(target, Math.max(1, target.length * 2));
+            }
+            if (target[top] == null) {
+                target[top] = new Book[LEAF_SIZE][];
+            }
+            Book[][] middle = target[top];
+            int leaf = (position >>> SHIFT) & MASK;
+            if (middle[leaf] == null) {
+                middle[leaf] = new Book[LEAF_SIZE];
+            }
+            middle[leaf][position & MASK] = book;
+            book.position = position++;
+        }
+        return new CatalogSnapshot(target, position, size + added.size(), newVersion);
+    }
+
+    // Only for the writer, with the latest snapshot, and only with books it holds
+    CatalogSnapshot remove(Collection<Book> removed) {
+        Book[][][] target = root.clone();
+        Set<Object> copied = Collections.newSetFromMap(new IdentityHashMap<>()); // arrays this removal owns
+        for (Book book : removed) {
+            int position = book.position;
+            int top = position >>> (2 * SHIFT);
+            int leaf = (position >>> SHIFT) & MASK;
+            if (copied.add(target[top])) {
+                target[top] = target[top].clone();
+                copied.add(target[top]);
+            }
+            if (copied.add(target[top][leaf])) {
+                target[top][leaf] = target[top][leaf].clone();
+                copied.add(target[top][leaf]);
+            }
+            target[top][leaf][position & MASK] = null;
+        }
+        CatalogSnapshot next = new CatalogSnapshot(target, slots, size - removed.size(), version + 1);
+        int tombstones = slots - next.size;
+        if (tombstones >= LEAF_SIZE && tombstones * 4L > slots) {
+            return EMPTY.append(next.toList(), next.version); // positions are renumbered in catalog order
+        }
+        return next;
+    }
+
+    // Same books, new version, e.g. after a Book setter changed a field
+    CatalogSnapshot touch() {
+        return new CatalogSnapshot(root, slots, size, version + 1);
+    }
+
+    // The leaf holding the given position, which starts at the leaf's first position.
+    // Entries past slots and tombstones are null.
+    Book[] leaf(int position) {
+        return root[position >>> (2 * SHIFT)][(position >>> SHIFT) & MASK];
+    }
+
+    List<Book> toList() {
+        List<Book> books = new ArrayList<>(size);
+        forEach(books::add);
+        return books;
+    }
+
+    Stream<Book> stream() {
+        Spliterator<Book> books = Spliterators.spliterator(iterator(), size,
+                Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL);
+        return StreamSupport.stream(books, false);
+    }
+
+    @Override
+    public Iterator<Book> iterator() {
+        return new Iterator<>() {
+            private int position = -1;
+            private Book next = advance();
+
+            private Book advance() {
+                while (++position < slots) {
+                    Book book = leaf(position & ~MASK)[position & MASK];
+                    if (book != null) {
+                        return book;
+                    }
+                }
+                return null;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public Book next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                Book book = next;
+                next = advance();
+                return book;
+            }
+        };
+    }
+}
@@ -0,0 +1,109 @@
+package org.example;
+
+// One mutation of the catalog or the user table, as delivered by a ChangeFeed.
+// Holds the values as they were when the mutation happened, never the live Book or User, so a
+// subscriber polling late still sees what each event changed, and passwords never leave the service.
+// Book events carry the book's fields before and after the change: before is null for BOOK_ADDED,
+// after is null for BOOK_REMOVED, and comparing the two tells what a BOOK_UPDATED changed.
+// User events carry the username and email, after and, for USER_UPDATED, before the change.
+public final class ChangeEvent {
+    public enum Type {
+        BOOK_ADDED, BOOK_UPDATED, BOOK_REMOVED, REVIEW_ADDED, USER_REGISTERED, USER_UPDATED
+    }
+
+    private static final long UNPUBLISHED = -1;
+
+    long sequence = UNPUBLISHED; // assigned once by the ChangeFeed that publishes the event
+    private final Type type;
+    private final long bookId; // 0 for user events
+    private final Book.Fields before;
+    private final Book.Fields after;
+    private final String username;
+    private final String email;
+    private final String previousUsername;
+    private final String previousEmail;
+    private final String review;
+
+    private ChangeEvent(Type type, long bookId, Book.Fields before, Book.Fields after, String username,
+                        String email, String previousUsername, String previousEmail, String review) {
+        this.type = type;
+        this.bookId = bookId;
+        this.before = before;
+        this.after = after;
+        this.username = username;
+        this.email = email;
+        this.previousUsername = previousUsername;
+        this.previousEmail = previousEmail;
+        this.review = review;
+    }
+
+    static ChangeEvent bookAdded(Book book) {
+        return new ChangeEvent(Type.BOOK_ADDED, book.getId(), null, book.fields(), null, null, null, null, null);
+    }
+
+    static ChangeEvent bookUpdated(Book book, Book.Fields before) {
+        return new ChangeEvent(Type.BOOK_UPDATED, book.getId(), before, book.fields(), null, null, null, null, null);
+    }
+
+    static ChangeEvent bookRemoved(Book book) {
+        return new ChangeEvent(Type.BOOK_REMOVED, book.getId(), book.fields(), null, null, null, null, null, null);
+    }
+
+    static ChangeEvent reviewAdded(Book book, User user, String review) {
+        return new ChangeEvent(Type.REVIEW_ADDED, book.getId(), null, null, user.getUsername(), null, null, null, review);
+    }
+
+    static ChangeEvent userRegistered(User user) {
+        return new ChangeEvent(Type.USER_REGISTERED, 0, null, null, user.getUsername(), user.getEmail(), null, null, null);
+    }
+
+    static ChangeEvent userUpdated(User user, String previousUsername, String previousEmail) {
+        return new ChangeEvent(Type.USER_UPDATED, 0, null, null, user.getUsername(), user.getEmail(),
+                previousUsername, previousEmail, null);
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public long getBookId() {
+        return bookId;
+    }
+
+    public Book.Fields getBefore() {
+        return before;
+    }
+
+    public Book.Fields getAfter() {
+        return after;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public String getEmail() {
+        return email;
+    }
+
+    public String getPreviousUsername() {
+        return previousUsername;
+    }
+
+    public String getPreviousEmail() {
+        return previousEmail;
+    }
+
+    public String getReview() {
+        return review;
+    }
+
+    @Override
+    public String toString() {
+        return sequence + " " + type + (bookId != 0 ? " book=" + bookId : "") + (username != null ? " user=" + username : "");
+    }
+}
@@ -0,0 +1,95 @@
+package org.example;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+// Ordered, in-process feed of catalog and user mutations, for subscribers that keep derived views
+// (indexes, caches, replicas) up to date without polling the services.
+// A ring buffer in the style of the Disruptor: a publisher claims the next sequence number with
+// one atomic increment and publishes the event into its slot, and each subscriber follows with
+// its own cursor. Publishers never wait for subscribers, so the mutation path pays one increment,
+// the event and one CAS. The price is that a subscriber falling a whole ring behind loses
+// events; poll then fails, and the subscriber has to rebuild its view and resubscribe.
+public class ChangeFeed {
+    private final AtomicReferenceArray<ChangeEvent> slots;
+    private final int mask;
+    private final AtomicLong claimed = new AtomicLong(); // next sequence to hand out
+
+    public ChangeFeed() {
+        this(1 << 16);
+    }
+
+    public ChangeFeed(int capacity) {
+        if (capacity < 1 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("capacity must be a power of two");
+        }
+        slots = new AtomicReferenceArray<>(capacity);
+        mask = capacity - 1;
+    }
+
+    void publish(ChangeEvent event) {
+        if (event.sequence >= 0) {
+            throw new IllegalArgumentException("Event " + event + " is already published");
+        }
+        long sequence = claimed.getAndIncrement();
+        event.sequence = sequence; // visible to pollers through the slot's CAS
+        int index = (int) sequence & mask;
+        // A publisher a whole ring ahead may have filled the slot already; never replace a newer event
+        for (ChangeEvent current = slots.get(index); current == null || current.getSequence() < sequence;
+             current = slots.get(index)) {
+            if (slots.compareAndSet(index, current, event)) {
+                return;
+            }
+        }
+    }
+
+    // Sequence the next published event will get
+    public long nextSequence() {
+        return claimed.get();
+    }
+
+    // Subscription to every event published from now on
+    public Subscription subscribe() {
+        return new Subscription(claimed.get());
+    }
+
+    // A subscriber's position in the feed. Not thread-safe: one thread polls it.
+    public class Subscription {
+        private long next;
+
+        private Subscription(long next) {
+            this.next = next;
+        }
+
+        // Hands the events published since the last poll to the handler, in sequence order, and
+        // returns how many. Stops at the first sequence that is claimed but not yet published,
+        // so events are never skipped or reordered.
+        public int poll(Consumer<ChangeEvent> handler) {
+            int delivered = 0;
+            while (true) {
+                ChangeEvent event = slots.get((int) next & mask);
+                if (event == null || event.getSequence() < next) {
+                    return delivered; // not published yet
+                }
+                if (event.getSequence() > next) {
+                    throw new IllegalStateException("Subscriber fell behind: event " + next
+                            + " was overwritten, resubscribe and rebuild");
+                }
+                handler.accept(event);
+                next++;
+                delivered++;
+            }
+        }
+
+        // Sequence of the next event this subscriber will see
+        public long position() {
+            return next;
+        }
+
+        // Events claimed by publishers that this subscriber hasn't polled yet
+        public long lag() {
+            return claimed.get() - next;
+        }
+    }
+}
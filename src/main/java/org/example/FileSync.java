@@ -0,0 +1,20 @@
+package org.example;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// A rename only survives a power loss once the directory holding the file is on disk too,
+// so anything deleting the old file after a rename has to sync the directory first.
+final class FileSync {
+
+    private FileSync() {
+    }
+
+    static void syncDirectory(Path directory) throws IOException {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package org.example;
+
+import java.util.Arrays;
+
+// Boyer-Moore-Horspool substring search over char arrays. The shift table is built once per
+// pattern, matching itself allocates nothing. Chars are bucketed by their low byte; where two
+// chars share a bucket the smaller shift wins, which keeps the skips safe.
+final class Horspool {
+    private final char[] pattern;
+    private final int[] shift = new int[256];
+
+    Horspool(char[] pattern) {
+        this.pattern = pattern;
+        Arrays.fill(shift, Math.max(pattern.length, 1));
+        for (int i = 0; i < pattern.length - 1; i++) {
+            shift[pattern[i] & 0xFF] = pattern.length - 1 - i;
+        }
+    }
+
+    boolean foundIn(char[] text) {
+        int last = pattern.length - 1;
+        if (last < 0) {
+            return true;
+        }
+        for (int i = 0; i + last < text.length; i += shift[text[i + last] & 0xFF]) {
+            int j = last;
+            while (text[i + j] == pattern[j]) {
+                if (j == 0) {
+                    return true;
+                }
+                j--;
+            }
+        }
+        return false;
+    }
+}
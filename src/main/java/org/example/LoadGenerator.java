@@ -0,0 +1,487 @@
+package org.example;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+// Drives BookService and UserService with a production-like workload, in process.
+// A workload is a stream of operations with the time each should start, generated from a Config
+// (Poisson arrivals at a target rate, a mix of operation types, Zipf-skewed keyword, book and
+// user popularity) or read back from a recorded log.
+// Runs are open loop: operations are started at their scheduled time whether or not earlier ones
+// have finished, and latency is measured from the scheduled time. A stall therefore shows up in
+// the latency of every operation that should have started during it, instead of silently
+// lowering the offered load (coordinated omission).
+// Operations are handed to a fixed set of worker threads, all started before the run, through a
+// bounded queue. Time spent in the queue counts towards latency, so a backlog shows up in the
+// numbers. An operation due while the queue is full is dropped and reported as such, rather than
+// held back by the scheduler, which would lower the offered load.
+public class LoadGenerator {
+    static final int DEFAULT_THREADS = 1024;
+    static final int DEFAULT_QUEUE = 10_000;
+
+    public enum Type {
+        SEARCH, PURCHASE, REVIEW, LOGIN
+    }
+
+    static final class Operation {
+        final long atNanos; // scheduled start, from the beginning of the run
+        final Type type;
+        final String user; // username
+        final long book; // book id
+        final String keyword;
+
+        Operation(long atNanos, Type type, String user, long book, String keyword) {
+            this.atNanos = atNanos;
+            this.type = type;
+            this.user = user;
+            this.book = book;
+            this.keyword = keyword;
+        }
+    }
+
+    // Workload parameters, set from "--name=value" arguments
+    static final class Config {
+        int books = 10_000;
+        int users = 1_000;
+        int rate = 1_000; // operations per second
+        int seconds = 10;
+        int threads = DEFAULT_THREADS; // workers, operations running at once, see run()
+        int queue = DEFAULT_QUEUE; // operations waiting for a worker, see run()
+        int[] mix = {70, 10, 10, 10}; // weights, in Type order
+        double zipf = 1.0; // popularity skew, 0 is uniform
+        long seed = 42;
+
+        static Config parse(String[] args) {
+            Config config = new Config();
+            for (String arg : args) {
+                if (!arg.startsWith("--") || arg.indexOf('=') < 0) {
+                    continue;
+                }
+                String name = arg.substring(2, arg.indexOf('='));
+                String value = arg.substring(arg.indexOf('=') + 1);
+                switch (name) {
+                    case "books": config.books = Integer.parseInt(value); break;
+                    case "users": config.users = Integer.parseInt(value); break;
+                    case "rate": config.rate = Integer.parseInt(value); break;
+                    case "seconds": config.seconds = Integer.parseInt(value); break;
+                    case "threads": config.threads = Integer.parseInt(value); break;
+                    case "queue": config.queue = Integer.parseInt(value); break;
+                    case "zipf": config.zipf = Double.parseDouble(value); break;
+                    case "seed": config.seed = Long.parseLong(value); break;
+                    case "mix":
+                        String[] weights = value.split(",");
+                        for (int i = 0; i < config.mix.length; i++) {
+                            config.mix[i] = i < weights.length ? Integer.parseInt(weights[i].trim()) : 0;
+                        }
+                        break;
+                    default:
+                        break; // options of other modes, e.g. --record
+                }
+            }
+            return config;
+        }
+    }
+
+    private final BookService bookService;
+    private final UserService userService;
+    private final Map<String, User> users = new HashMap<>(); // by username, read-only once constructed
+    private final Map<String, String> passwords = new HashMap<>(); // plaintext, the service may keep only a hash
+
+    // Fresh services loaded with a synthetic catalog and users user<i> / password<i>
+    public LoadGenerator(int bookCount, int userCount) {
+        this(new BookService(), UserService.concurrent(), bookCount, userCount);
+    }
+
+    LoadGenerator(BookService bookService, UserService userService, int bookCount, int userCount) {
+        this.bookService = bookService;
+        this.userService = userService;
+        bookService.addBooks(SampleCatalog.books(bookCount));
+        for (int i = 0; i < userCount; i++) {
+            users.put(username(i), new User(username(i), password(i), username(i) + "@example.com"));
+            passwords.put(username(i), password(i));
+        }
+        userService.registerUsers(users.values());
+        for (User user : users.values()) {
+            userService.topUp(user.getUsername(), Long.MAX_VALUE / 4); // purchases should measure the service, not run out of money
+        }
+    }
+
+    static String username(int i) {
+        return "user" + i;
+    }
+
+    private static String password(int i) {
+        return "password" + i;
+    }
+
+    // The workload described by config, drawn lazily as the stream is consumed, so a long run
+    // never holds its schedule in memory. The same config always gives the same operations.
+    static Stream<Operation> generate(Config config) {
+        return stream(new Workload(config));
+    }
+
+    private static final class Workload implements Iterator<Operation> {
+        private final Config config;
+        private final Random random;
+        private final List<String> keywords = keywords();
+        private final int[] keywordRanks;
+        private final int[] bookRanks;
+        private final int[] userRanks;
+        private final ZipfSampler keywordPopularity;
+        private final ZipfSampler bookPopularity;
+        private final ZipfSampler userActivity;
+        private final int totalWeight;
+        private final int[] lastPurchase; // so reviews are of books the user bought
+        private final long end;
+        private double at;
+        private Operation next;
+
+        Workload(Config config) {
+            this.config = config;
+            random = new Random(config.seed);
+            keywordRanks = permutation(keywords.size(), random);
+            bookRanks = permutation(config.books, random);
+            userRanks = permutation(config.users, random);
+            keywordPopularity = new ZipfSampler(keywords.size(), config.zipf);
+            bookPopularity = new ZipfSampler(config.books, config.zipf);
+            userActivity = new ZipfSampler(config.users, config.zipf);
+            int weights = 0;
+            for (int weight : config.mix) {
+                weights += weight;
+            }
+            if (weights <= 0) {
+                throw new IllegalArgumentException("mix needs a positive weight");
+            }
+            totalWeight = weights;
+            lastPurchase = new int[config.users];
+            Arrays.fill(lastPurchase, -1);
+            end = TimeUnit.SECONDS.toNanos(config.seconds);
+            next = advance();
+        }
+
+        private Operation advance() {
+            while (true) {
+                at += -Math.log(1 - random.nextDouble()) * 1e9 / config.rate; // exponential gaps: Poisson arrivals
+                if (at >= end) {
+                    return null;
+                }
+                Type type = pick(config.mix, totalWeight, random);
+                int user = userRanks[userActivity.sample(random)];
+                int book = bookRanks[bookPopularity.sample(random)];
+                String keyword = null;
+                if (type == Type.SEARCH) {
+                    keyword = keywords.get(keywordRanks[keywordPopularity.sample(random)]);
+                } else if (type == Type.PURCHASE) {
+                    lastPurchase[user] = book;
+                } else if (type == Type.REVIEW) {
+                    if (lastPurchase[user] < 0) {
+                        continue; // left out, the user hasn't bought anything to review yet
+                    }
+                    book = lastPurchase[user];
+                }
+                return new Operation((long) at, type, username(user), SampleCatalog.id(book), keyword);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Operation next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            Operation operation = next;
+            next = advance();
+            return operation;
+        }
+    }
+
+    public Report run(Stream<Operation> operations) throws InterruptedException {
+        return run(operations, 1.0, DEFAULT_THREADS, DEFAULT_QUEUE);
+    }
+
+    // speed 2 replays a log twice as fast as it was recorded. Operations are pulled from the stream
+    // as their start time comes up, and run on threads workers with room for queue more waiting.
+    public Report run(Stream<Operation> operations, double speed, int threads, int queue) throws InterruptedException {
+        Map<Type, LatencyHistogram> latencies = new EnumMap<>(Type.class);
+        Map<Type, LongAdder> failures = new EnumMap<>(Type.class);
+        Map<Type, LongAdder> skips = new EnumMap<>(Type.class);
+        Map<Type, Long> dropped = new EnumMap<>(Type.class);
+        for (Type type : Type.values()) {
+            latencies.put(type, new LatencyHistogram(8));
+            failures.put(type, new LongAdder());
+            skips.put(type, new LongAdder());
+            dropped.put(type, 0L);
+        }
+        AtomicInteger workerCount = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.NANOSECONDS,
+                new ArrayBlockingQueue<>(queue), task -> new Thread(task, "load-" + workerCount.incrementAndGet()));
+        executor.prestartAllCoreThreads(); // none is started while the run is timed
+        long started = 0;
+        long begin = System.nanoTime();
+        try {
+            for (Iterator<Operation> pending = operations.iterator(); pending.hasNext(); ) {
+                Operation operation = pending.next();
+                long scheduled = begin + (long) (operation.atNanos / speed);
+                for (long wait = scheduled - System.nanoTime(); wait > 0; wait = scheduled - System.nanoTime()) {
+                    LockSupport.parkNanos(wait);
+                }
+                try {
+                    executor.execute(() -> {
+                        if (!ready(operation)) {
+                            skips.get(operation.type).increment();
+                            return;
+                        }
+                        try {
+                            if (!perform(operation)) {
+                                failures.get(operation.type).increment();
+                            }
+                        } catch (RuntimeException e) {
+                            failures.get(operation.type).increment();
+                        } finally {
+                            latencies.get(operation.type).record(System.nanoTime() - scheduled);
+                        }
+                    });
+                    started++;
+                } catch (RejectedExecutionException e) {
+                    dropped.merge(operation.type, 1L, Long::sum); // the queue is full
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS); // every started operation finished
+        long elapsed = System.nanoTime() - begin;
+        Map<Type, long[]> counts = new EnumMap<>(Type.class);
+        Map<Type, Long> failed = new EnumMap<>(Type.class);
+        Map<Type, Long> skipped = new EnumMap<>(Type.class);
+        for (Type type : Type.values()) {
+            counts.put(type, latencies.get(type).counts());
+            failed.put(type, failures.get(type).sum());
+            skipped.put(type, skips.get(type).sum());
+        }
+        return new Report(started, elapsed, counts, failed, skipped, dropped);
+    }
+
+    // A review counts only once the purchase it follows has completed. Runs are open loop, so that
+    // purchase may still be running, or not even started, when the review comes due.
+    private boolean ready(Operation operation) {
+        if (operation.type != Type.REVIEW) {
+            return true;
+        }
+        User user = users.get(operation.user);
+        return user == null || user.hasPurchased(bookService.getBook(operation.book)); // unknown ones fail in perform
+    }
+
+    // An operation naming a user or book these services don't have fails
+    private boolean perform(Operation operation) {
+        User user = users.get(operation.user);
+        Book book = bookService.getBook(operation.book);
+        switch (operation.type) {
+            case SEARCH:
+                return !bookService.searchBook(operation.keyword).isEmpty();
+            case PURCHASE:
+                return user != null && bookService.purchaseBook(user, book);
+            case REVIEW:
+                return user != null && book != null && bookService.addBookReview(user, book, "Read it in one sitting");
+            case LOGIN:
+                return user != null && userService.loginUser(operation.user, passwords.get(operation.user)) != null;
+            default:
+                throw new IllegalStateException("Unknown operation " + operation.type);
+        }
+    }
+
+    // Throughput and latency percentiles per operation type. Latencies are from the scheduled start.
+    // Dropped operations never started, and skipped ones, reviews whose purchase hadn't completed,
+    // did nothing, so neither kind is in the counts or the latencies.
+    public static class Report {
+        private final long operations;
+        private final long elapsedNanos;
+        private final Map<Type, long[]> latencies;
+        private final Map<Type, Long> failures;
+        private final Map<Type, Long> skipped;
+        private final Map<Type, Long> dropped;
+
+        Report(long operations, long elapsedNanos, Map<Type, long[]> latencies, Map<Type, Long> failures,
+               Map<Type, Long> skipped, Map<Type, Long> dropped) {
+            this.operations = operations;
+            this.elapsedNanos = elapsedNanos;
+            this.latencies = latencies;
+            this.failures = failures;
+            this.skipped = skipped;
+            this.dropped = dropped;
+        }
+
+        public double throughput() {
+            return operations * 1e9 / elapsedNanos;
+        }
+
+        public long count(Type type) {
+            long count = 0;
+            for (long bucket : latencies.get(type)) {
+                count += bucket;
+            }
+            return count;
+        }
+
+        public long failures(Type type) {
+            return failures.get(type);
+        }
+
+        public long skipped(Type type) {
+            return skipped.get(type);
+        }
+
+        public long dropped(Type type) {
+            return dropped.get(type);
+        }
+
+        public long percentile(Type type, double fraction) {
+            return LatencyHistogram.percentile(latencies.get(type), fraction);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder report = new StringBuilder(String.format("%d operations in %.2fs, %.0f ops/s%n",
+                    operations, elapsedNanos / 1e9, throughput()));
+            for (Type type : Type.values()) {
+                report.append(String.format("%-9s count=%d failed=%d skipped=%d dropped=%d p50=%dus p99=%dus p999=%dus max=%dus%n",
+                        type, count(type), failures(type), skipped(type), dropped(type), percentile(type, 0.50) / 1000, percentile(type, 0.99) / 1000,
+                        percentile(type, 0.999) / 1000, percentile(type, 1.0) / 1000));
+            }
+            return report.toString();
+        }
+    }
+
+    // Operation log: a "# books=<n> users=<n>" header, then one tab-separated line per operation:
+    // scheduled start in nanoseconds, type, username, book id, keyword (empty if none).
+    // Usernames and book ids are the ones the services know them by, so a log converted from
+    // production traffic replays as well as a generated one. Replay builds a LoadGenerator of the
+    // header's sizes, whose synthetic users and SampleCatalog books have the same names and ids in
+    // every process.
+
+    static void write(Path log, Config config, Stream<Operation> operations) throws IOException {
+        try (BufferedWriter out = Files.newBufferedWriter(log, StandardCharsets.UTF_8)) {
+            out.write("# books=" + config.books + " users=" + config.users);
+            out.newLine();
+            for (Iterator<Operation> pending = operations.iterator(); pending.hasNext(); ) {
+                Operation operation = pending.next();
+                out.write(operation.atNanos + "\t" + operation.type + "\t" + operation.user + "\t" + operation.book
+                        + "\t" + (operation.keyword == null ? "" : operation.keyword));
+                out.newLine();
+            }
+        }
+    }
+
+    // Reads a log written by write, one line at a time as the stream is consumed; close the stream
+    // to close the log. The sizes from its header are set on config right away.
+    static Stream<Operation> read(Path log, Config config) throws IOException {
+        BufferedReader in = Files.newBufferedReader(log, StandardCharsets.UTF_8);
+        try {
+            String header = in.readLine();
+            if (header == null || !header.startsWith("#")) {
+                throw new IOException("Operation log has no header: " + log);
+            }
+            for (String setting : header.substring(1).trim().split(" ")) {
+                String[] parts = setting.split("=");
+                if (parts[0].equals("books")) {
+                    config.books = Integer.parseInt(parts[1]);
+                } else if (parts[0].equals("users")) {
+                    config.users = Integer.parseInt(parts[1]);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            in.close();
+            throw e;
+        }
+        return in.lines().map(LoadGenerator::parse).onClose(() -> {
+            try {
+                in.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    private static Operation parse(String line) {
+        String[] fields = line.split("\t", -1);
+        if (fields.length != 5) {
+            throw new UncheckedIOException(new IOException("Malformed operation log line: " + line));
+        }
+        return new Operation(Long.parseLong(fields[0]), Type.valueOf(fields[1]),
+                fields[2], Long.parseLong(fields[3]), fields[4].isEmpty() ? null : fields[4]);
+    }
+
+    private static Stream<Operation> stream(Iterator<Operation> operations) {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(operations,
+                Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    // Storefront keywords: every title word and every two-word title prefix, plus the authors
+    private static List<String> keywords() {
+        List<String> keywords = new ArrayList<>();
+        for (String first : SampleCatalog.WORDS) {
+            keywords.add(first);
+            for (String second : SampleCatalog.WORDS) {
+                keywords.add(first + " " + second);
+            }
+        }
+        Collections.addAll(keywords, SampleCatalog.AUTHORS);
+        return keywords;
+    }
+
+    // Random order of 0..n-1, so the most popular items aren't simply the first ones in the catalog
+    private static int[] permutation(int n, Random random) {
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        for (int i = n - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int swap = order[i];
+            order[i] = order[j];
+            order[j] = swap;
+        }
+        return order;
+    }
+
+    private static Type pick(int[] mix, int totalWeight, Random random) {
+        int ticket = random.nextInt(totalWeight);
+        for (int i = 0; i < mix.length; i++) {
+            ticket -= mix[i];
+            if (ticket < 0) {
+                return Type.values()[i];
+            }
+        }
+        throw new IllegalStateException("mix weights changed");
+    }
+}
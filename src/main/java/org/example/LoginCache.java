@@ -0,0 +1,119 @@
+package org.example;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+// Remembers recently verified logins, so a repeat login costs one HMAC instead of a slow
+// password hash. Entries hold an HMAC of the password under a random per-process key, never the
+// password itself, and are tied to the stored hash they were verified against: changing the
+// password makes them useless even before they expire. Bounded to maxEntries; when full, the
+// entry closest to expiry among a few samples makes room.
+class LoginCache {
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+    private static final int EVICTION_SAMPLES = 8;
+
+    private static final class Entry {
+        final String stored; // the stored hash this login was verified against
+        final byte[] digest;
+        final long expiresAt;
+
+        Entry(String stored, byte[] digest, long expiresAt) {
+            this.stored = stored;
+            this.digest = digest;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final LongSupplier clock;
+    private final ThreadLocal<Mac> macs; // Mac instances are not thread-safe
+
+    LoginCache(int maxEntries, long ttl, TimeUnit unit) {
+        this(maxEntries, ttl, unit, System::nanoTime);
+    }
+
+    LoginCache(int maxEntries, long ttl, TimeUnit unit, LongSupplier clock) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("maxEntries must be positive");
+        }
+        this.maxEntries = maxEntries;
+        this.ttlNanos = unit.toNanos(ttl);
+        this.clock = clock;
+        byte[] key = new byte[32];
+        new SecureRandom().nextBytes(key);
+        SecretKeySpec secret = new SecretKeySpec(key, MAC_ALGORITHM);
+        this.macs = ThreadLocal.withInitial(() -> {
+            try {
+                Mac mac = Mac.getInstance(MAC_ALGORITHM);
+                mac.init(secret);
+                return mac;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(MAC_ALGORITHM + " is not available", e);
+            }
+        });
+    }
+
+    // True if this password was verified for this username and stored hash within the ttl
+    boolean verified(String username, String stored, String password) {
+        Entry entry = entries.get(username);
+        if (entry == null) {
+            return false;
+        }
+        if (clock.getAsLong() - entry.expiresAt >= 0 || !entry.stored.equals(stored)) {
+            entries.remove(username, entry);
+            return false;
+        }
+        return MessageDigest.isEqual(entry.digest, digest(password));
+    }
+
+    void put(String username, String stored, String password) {
+        if (entries.size() >= maxEntries && !entries.containsKey(username)) {
+            evictOne();
+        }
+        entries.put(username, new Entry(stored, digest(password), clock.getAsLong() + ttlNanos));
+    }
+
+    void invalidate(String username) {
+        if (username != null) {
+            entries.remove(username);
+        }
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    private void evictOne() {
+        long now = clock.getAsLong();
+        Map.Entry<String, Entry> victim = null;
+        Iterator<Map.Entry<String, Entry>> sample = entries.entrySet().iterator();
+        for (int i = 0; i < EVICTION_SAMPLES && sample.hasNext(); i++) {
+            Map.Entry<String, Entry> candidate = sample.next();
+            if (now - candidate.getValue().expiresAt >= 0) {
+                victim = candidate; // already expired, no need to look further
+                break;
+            }
+            if (victim == null || candidate.getValue().expiresAt - victim.getValue().expiresAt < 0) {
+                victim = candidate;
+            }
+        }
+        if (victim != null) {
+            entries.remove(victim.getKey(), victim.getValue());
+        }
+    }
+
+    private byte[] digest(String password) {
+        return macs.get().doFinal(password.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,102 @@
+package org.example;
+
+// Open addressing set of primitive longs: one long[] with linear probing, no boxing and
+// no per-entry objects. 0 marks an empty slot, so the value 0 itself is tracked by a flag.
+class LongHashSet {
+    private long[] table;
+    private int size;
+    private boolean containsZero;
+
+    LongHashSet() {
+        this(8);
+    }
+
+    LongHashSet(int expected) {
+        table = new long[tableSizeFor(expected)];
+    }
+
+    boolean add(long value) {
+        if (value == 0) {
+            boolean added = !containsZero;
+            containsZero = true;
+            return added;
+        }
+        int mask = table.length - 1;
+        for (int i = mix(value) & mask; ; i = (i + 1) & mask) {
+            if (table[i] == value) {
+                return false;
+            }
+            if (table[i] == 0) {
+                table[i] = value;
+                if (++size * 2 > table.length) {
+                    resize();
+                }
+                return true;
+            }
+        }
+    }
+
+    boolean contains(long value) {
+        if (value == 0) {
+            return containsZero;
+        }
+        int mask = table.length - 1;
+        for (int i = mix(value) & mask; ; i = (i + 1) & mask) {
+            if (table[i] == value) {
+                return true;
+            }
+            if (table[i] == 0) {
+                return false;
+            }
+        }
+    }
+
+    int size() {
+        return size + (containsZero ? 1 : 0);
+    }
+
+    // In no particular order
+    long[] toArray() {
+        long[] values = new long[size()];
+        int i = 0;
+        if (containsZero) {
+            values[i++] = 0;
+        }
+        for (long value : table) {
+            if (value != 0) {
+                values[i++] = value;
+            }
+        }
+        return values;
+    }
+
+    private void resize() {
+        long[] old = table;
+        table = new long[old.length * 2];
+        int mask = table.length - 1;
+        for (long value : old) {
+            if (value != 0) {
+                int i = mix(value) & mask;
+                while (table[i] != 0) {
+                    i = (i + 1) & mask;
+                }
+                table[i] = value;
+            }
+        }
+    }
+
+    // Keeps the table at most half full
+    private static int tableSizeFor(int expected) {
+        int size = 8;
+        while (size < expected * 2L) {
+            size <<= 1;
+        }
+        return size;
+    }
+
+    // Sequential ids would cluster under linear probing, so spread the bits first
+    private static int mix(long value) {
+        long h = value * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
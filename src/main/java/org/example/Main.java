@@ -1,12 +1,99 @@
 package org.example;
 
-import java.util.ArrayList;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
 
 public class Main {
-    public static void main(String[] args) {
+    // "serve [port] [books] [--operator-key=<key>]" runs the HTTP front end over a synthetic catalog,
+    // "load [--options]" and "replay <log> [--speed=n]" run the load generator, anything else runs the demo
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length > 0 && args[0].equals("serve")) {
+            serve(args.length > 1 && !args[1].startsWith("--") ? Integer.parseInt(args[1]) : 8080,
+                    args.length > 2 && !args[2].startsWith("--") ? Integer.parseInt(args[2]) : 10_000,
+                    option(args, "operator-key"));
+            return;
+        }
+        if (args.length > 0 && args[0].equals("load")) {
+            load(args);
+            return;
+        }
+        if (args.length > 1 && args[0].equals("replay")) {
+            replay(Path.of(args[1]), args);
+            return;
+        }
+        demo();
+    }
+
+    // Options: --books, --users, --rate (ops/s), --seconds, --mix (search,purchase,review,login weights),
+    // --zipf (skew), --seed, --threads (workers), --queue (operations waiting for a worker), and
+    // --record=<log> to save the workload for replay
+    private static void load(String[] args) throws IOException, InterruptedException {
+        LoadGenerator.Config config = LoadGenerator.Config.parse(args);
+        String record = option(args, "record");
+        if (record != null) {
+            // Generated twice rather than held in memory: the seed makes both passes the same
+            LoadGenerator.write(Path.of(record), config, LoadGenerator.generate(config));
+        }
+        System.out.print(new LoadGenerator(config.books, config.users)
+                .run(LoadGenerator.generate(config), 1.0, config.threads, config.queue));
+    }
+
+    private static void replay(Path log, String[] args) throws IOException, InterruptedException {
+        LoadGenerator.Config config = LoadGenerator.Config.parse(args); // for --threads and --queue, the sizes come from the log
+        String speed = option(args, "speed");
+        try (Stream<LoadGenerator.Operation> operations = LoadGenerator.read(log, config)) {
+            System.out.print(new LoadGenerator(config.books, config.users)
+                    .run(operations, speed == null ? 1.0 : Double.parseDouble(speed), config.threads, config.queue));
+        }
+    }
+
+    private static String option(String[] args, String name) {
+        for (String arg : args) {
+            if (arg.startsWith("--" + name + "=")) {
+                return arg.substring(name.length() + 3);
+            }
+        }
+        return null;
+    }
+
+    // Without an operator key nobody can add funds over HTTP
+    private static void serve(int port, int books, String operatorKey) throws IOException, InterruptedException {
+        Metrics metrics = new Metrics();
+        BookService bookService = new BookService();
+        bookService.setMetrics(metrics);
+        bookService.addBooks(SampleCatalog.books(books));
+        UserService userService = UserService.concurrent();
+        userService.setMetrics(metrics);
+        userService.setPasswordHasher(new PasswordHasher()); // passwords come over the network, never keep them in plaintext
+        SessionManager sessionManager = new SessionManager(userService, 30, TimeUnit.MINUTES);
+
+        Server server = new Server(bookService, userService, sessionManager);
+        if (operatorKey != null) {
+            server.setOperatorKey(operatorKey);
+        }
+        InetSocketAddress address = server.start(port);
+        System.out.println("Serving " + books + " books on http://localhost:" + address.getPort() + "/");
+        CountDownLatch stopped = new CountDownLatch(1);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.close();
+            System.out.print(metrics.snapshot());
+            stopped.countDown();
+        }));
+        stopped.await();
+    }
+
+    private static void demo() {
+        // Metrics for both services, printed at the end
+        Metrics metrics = new Metrics();
+
         // Creating an instance of UserService
         UserService userService = new UserService();
+        userService.setMetrics(metrics);
 
         // Creating a new User
         User newUser = new User("JohnDoe", "password", "johndoe@example.com", 45);
@@ -19,9 +106,10 @@ public class Main {
             System.out.println("User registration failed. Username might already be taken.");
         }
 
-        // Logging in the user
-        User loggedInUser = userService.loginUser("JohnDoe", "password");
-        if (loggedInUser != null) {
+        // Logging in the user. The session token is all a caller has to keep.
+        SessionManager sessionManager = new SessionManager(userService, 30, TimeUnit.MINUTES);
+        String token = sessionManager.login("JohnDoe", "password");
+        if (token != null) {
             System.out.println("User login successful!");
         } else {
             System.out.println("User login failed. Username and password do not match.");
@@ -29,6 +117,7 @@ public class Main {
 
         // Creating an instance of BookService
         BookService bookService = new BookService();
+        bookService.setMetrics(metrics);
 
         // Adding some books to the "database"
         bookService.addBook(new Book("1984", "George Orwell", "Dystopian", 9.99));
@@ -47,16 +136,13 @@ public class Main {
 
         // Purchasing a book
         Book bookToPurchase = books.get(0);
-        // added few lines of code, to add the purchased book to the logged in user
-        List<Book> purchasedBook = new ArrayList<>();
-        purchasedBook.add(bookToPurchase);
-        loggedInUser.setPurchasedBooks(purchasedBook);
-//        System.out.println(bookToPurchase.getTitle());
+        // purchaseBook debits the balance and adds the book to the user's purchased books
+        User loggedInUser = sessionManager.resolve(token);
         boolean purchaseSuccessful = bookService.purchaseBook(loggedInUser, bookToPurchase);
         if (purchaseSuccessful) {
             System.out.println("Book purchase successful!");
         } else {
-            System.out.println("Book purchase failed. The book might not be available.");
+            System.out.println("Book purchase failed. The book might not be available or the balance is too low.");
         }
 
 //        System.out.println(loggedInUser.getUsername());
@@ -64,11 +150,13 @@ public class Main {
 //        System.out.println(loggedInUser.getPurchasedBooks());
 
         // Adding a book review
-        boolean reviewAdded = bookService.addBookReview(loggedInUser, bookToPurchase, "Amazing book!");
+        boolean reviewAdded = bookService.addBookReview(sessionManager.resolve(token), bookToPurchase, "Amazing book!");
         if (reviewAdded) {
             System.out.println("Review added successfully!");
         } else {
             System.out.println("Failed to add review. The user might not have purchased this book.");
         }
+
+        System.out.print(metrics.snapshot());
     }
 }
\ No newline at end of file
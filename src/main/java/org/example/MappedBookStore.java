@@ -0,0 +1,452 @@
+package org.example;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Append-only book file, memory mapped in 4 MB regions.
+// Every book is one variable-length record, as long as its text needs, 8-byte aligned. A record
+// never spans two regions: one that doesn't fit in what is left of a region starts the next one.
+// load() hands out books that keep their title, author and genre here, so a restart decodes no
+// text, and those books' getters read it from the mapped record. Such reads take no lock: they
+// find the record through a concurrent id -> offset map, and records are never overwritten in place.
+// An update appends a new record before marking the old one deleted, so a crash in between leaves
+// two live records for the book, and reopening keeps the later one.
+// Once deleted records take more space than live ones, the live records are rewritten into a fresh
+// file that replaces this one, so the file stays within about twice the size of the live books.
+// Changes reach the disk on flush(), which forces only the pages written since the last one.
+//
+// Header: magic long, end of the last record long
+// Record: state byte, 3 bytes padding, record length int, id long, price cents long,
+//         title/author/genre byte lengths (int, -1 for null), then their UTF-8 bytes back to back
+public class MappedBookStore implements BookStore {
+    private static final int REGION_SIZE = 4 << 20;
+    private static final long MAGIC = 0x424f4f4b53544f32L; // "BOOKSTO2"
+    private static final int END = 8;
+    private static final int HEADER_SIZE = 64;
+    private static final int PAGE_SIZE = 4096;
+
+    private static final int STATE = 0;
+    private static final int LENGTH = 4;
+    private static final int ID = 8;
+    private static final int PRICE = 16;
+    private static final int LENGTHS = 24;
+    private static final int TEXT = 36;
+
+    static final int MAX_TEXT_BYTES = REGION_SIZE - TEXT;
+
+    private static final byte LIVE = 1;
+    private static final byte DELETED = 2;
+    private static final byte SKIP = 3; // rest of the region is unused, the next record starts the next region
+
+    private final Path file;
+    private volatile Mapping mapping; // replaced by compaction; readers holding the old one still read valid records
+    private long end; // where the next record goes
+    private int recordCount; // live and deleted
+    private long liveBytes;
+    private final BitSet dirty = new BitSet(); // pages written since the last flush
+    private boolean headerDirty;
+
+    // One open file: its regions and where each live book's record is
+    private static final class Mapping {
+        final FileChannel channel;
+        volatile MappedByteBuffer[] regions = new MappedByteBuffer[0]; // grown, never changed, by the writer
+        final Map<Long, Long> offsets = new ConcurrentHashMap<>(); // live book id -> record offset
+
+        Mapping(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        ByteBuffer region(long offset) {
+            return regions[(int) (offset / REGION_SIZE)];
+        }
+    }
+
+    public MappedBookStore(Path file) throws IOException {
+        this.file = file;
+        open();
+    }
+
+    private void open() throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        // Check the magic before mapping, since mapping grows the file. All zeros is a store that was never written.
+        ByteBuffer magic = ByteBuffer.allocate(Long.BYTES);
+        channel.read(magic, 0);
+        if (channel.size() > 0 && (magic.position() < Long.BYTES || (magic.getLong(0) != MAGIC && magic.getLong(0) != 0))) {
+            channel.close();
+            throw new IOException("Not a book store: " + file);
+        }
+        Mapping opened = new Mapping(channel);
+        ByteBuffer header = region(opened, 0);
+        header.putLong(0, MAGIC);
+        headerDirty = true;
+        end = Math.max(HEADER_SIZE, header.getLong(END));
+        recordCount = 0;
+        liveBytes = 0;
+        // Reads only the head of each record: the text stays in the page cache until a book asks for it
+        long offset = HEADER_SIZE;
+        while (offset < end) {
+            ByteBuffer region = region(opened, offset);
+            int at = (int) (offset % REGION_SIZE);
+            byte state = region.get(at + STATE);
+            if (state == SKIP) {
+                offset = nextRegion(offset);
+                continue;
+            }
+            int length = region.getInt(at + LENGTH);
+            if (state == 0 || length < TEXT) {
+                end = offset; // the header reached the disk before the records it covers, they were never flushed
+                break;
+            }
+            recordCount++;
+            if (state == LIVE) {
+                Long older = opened.offsets.put(region.getLong(at + ID), offset);
+                liveBytes += length;
+                if (older != null) {
+                    liveBytes -= markDeleted(opened, older); // an update that crashed before dropping the old record
+                }
+            }
+            offset += align(length);
+        }
+        mapping = opened;
+    }
+
+    @Override
+    public synchronized void add(Book book) {
+        append(book, encode(book));
+    }
+
+    @Override
+    public synchronized void update(Book book) {
+        Long old = mapping.offsets.get(book.getId());
+        if (old != null) {
+            append(book, encode(book)); // encode first, so new values that don't fit change nothing
+            flush(); // the new record is on disk before the old one is dropped
+            liveBytes -= markDeleted(mapping, old);
+            compactIfWasteful();
+        }
+    }
+
+    @Override
+    public synchronized void remove(Book book) {
+        Long offset = mapping.offsets.remove(book.getId());
+        if (offset != null) {
+            liveBytes -= markDeleted(mapping, offset);
+            compactIfWasteful();
+        }
+    }
+
+    private void append(Book book, byte[][] text) {
+        int length = TEXT;
+        for (byte[] field : text) {
+            length += field == null ? 0 : field.length;
+        }
+        if (end % REGION_SIZE + length > REGION_SIZE) {
+            region(mapping, end).put((int) (end % REGION_SIZE) + STATE, SKIP);
+            markDirty(end, 1);
+            end = nextRegion(end);
+        }
+        long offset = end;
+        ByteBuffer region = region(mapping, offset);
+        int at = (int) (offset % REGION_SIZE);
+        region.putInt(at + LENGTH, length);
+        region.putLong(at + ID, book.getId());
+        region.putLong(at + PRICE, book.getPriceCents());
+        int position = at + TEXT;
+        for (int field = 0; field < text.length; field++) {
+            region.putInt(at + LENGTHS + 4 * field, text[field] == null ? -1 : text[field].length);
+            if (text[field] != null) {
+                region.put(position, text[field]);
+                position += text[field].length;
+            }
+        }
+        // The record only counts once it is complete, and the header only covers it once it is on disk
+        region.put(at + STATE, LIVE);
+        markDirty(offset, length);
+        end = offset + align(length);
+        recordCount++;
+        liveBytes += length;
+        region(mapping, 0).putLong(END, end);
+        headerDirty = true;
+        // Published last, so a reader that finds the offset finds the whole record
+        mapping.offsets.put(book.getId(), offset);
+    }
+
+    // Books without their text: their title, author and genre are read from the records on demand,
+    // see text(), until a setter or removal from a catalog copies them onto the heap
+    @Override
+    public synchronized List<Book> load() {
+        Mapping current = mapping;
+        List<Book> books = new ArrayList<>(current.offsets.size());
+        long offset = HEADER_SIZE;
+        while (offset < end) {
+            ByteBuffer region = current.region(offset);
+            int at = (int) (offset % REGION_SIZE);
+            byte state = region.get(at + STATE);
+            if (state == SKIP) {
+                offset = nextRegion(offset);
+                continue;
+            }
+            if (state == LIVE) {
+                books.add(new Book(region.getLong(at + ID), region.getLong(at + PRICE), this));
+            }
+            offset += align(region.getInt(at + LENGTH));
+        }
+        return books;
+    }
+
+    @Override
+    public String text(long id, int field) {
+        Mapping current = mapping;
+        Long offset = current.offsets.get(id);
+        if (offset == null) {
+            return null;
+        }
+        ByteBuffer region = current.region(offset);
+        int at = (int) (offset % REGION_SIZE);
+        int position = at + TEXT;
+        for (int before = 0; before < field; before++) {
+            position += Math.max(0, region.getInt(at + LENGTHS + 4 * before));
+        }
+        int length = region.getInt(at + LENGTHS + 4 * field);
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        region.get(position, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // A copy of the book as stored, with its text on the heap
+    public Book read(long id) {
+        Mapping current = mapping;
+        Long offset = current.offsets.get(id);
+        if (offset == null) {
+            return null;
+        }
+        ByteBuffer region = current.region(offset);
+        int at = (int) (offset % REGION_SIZE);
+        return new Book(id, text(id, 0), text(id, 1), text(id, 2), region.getLong(at + PRICE));
+    }
+
+    public int size() {
+        return mapping.offsets.size();
+    }
+
+    // Ids of the live books whose title, author or genre contains the keyword.
+    // Compares UTF-8 bytes in place; since UTF-8 is self-synchronizing a byte match is a char match.
+    public synchronized List<Long> searchIds(String keyword) {
+        byte[] pattern = keyword.getBytes(StandardCharsets.UTF_8);
+        List<Long> ids = new ArrayList<>();
+        long offset = HEADER_SIZE;
+        while (offset < end) {
+            ByteBuffer region = mapping.region(offset);
+            int at = (int) (offset % REGION_SIZE);
+            byte state = region.get(at + STATE);
+            if (state == SKIP) {
+                offset = nextRegion(offset);
+                continue;
+            }
+            if (state == LIVE) {
+                int position = at + TEXT;
+                for (int field = 0; field < 3; field++) {
+                    int length = region.getInt(at + LENGTHS + 4 * field);
+                    if (length < 0) {
+                        continue;
+                    }
+                    if (contains(region, position, length, pattern)) {
+                        ids.add(region.getLong(at + ID));
+                        break;
+                    }
+                    position += length;
+                }
+            }
+            offset += align(region.getInt(at + LENGTH));
+        }
+        return ids;
+    }
+
+    @Override
+    public synchronized void flush() {
+        // Records first: a header on disk never covers records that are not
+        for (int from = dirty.nextSetBit(0); from >= 0; from = dirty.nextSetBit(from)) {
+            int to = dirty.nextClearBit(from);
+            while (from < to) { // one force per run of pages within a region
+                long offset = (long) from * PAGE_SIZE;
+                int at = (int) (offset % REGION_SIZE);
+                int pages = Math.min(to - from, (REGION_SIZE - at) / PAGE_SIZE);
+                mapping.regions[(int) (offset / REGION_SIZE)].force(at, pages * PAGE_SIZE);
+                from += pages;
+            }
+        }
+        dirty.clear();
+        if (headerDirty) {
+            mapping.regions[0].force(0, HEADER_SIZE);
+            headerDirty = false;
+        }
+    }
+
+    // Rewrites the live records, in order, into a fresh file that atomically replaces this one.
+    // A crash before the rename leaves the old file as it was.
+    public synchronized void compact() {
+        Path compacted = file.resolveSibling(file.getFileName() + ".compact");
+        Mapping old = mapping;
+        try {
+            Files.deleteIfExists(compacted);
+            try (FileChannel target = FileChannel.open(compacted, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = ByteBuffer.allocate(REGION_SIZE); // one region of the new file at a time
+                buffer.position(HEADER_SIZE);
+                long written = 0; // bytes of the new file before the buffer, then its end
+                long offset = HEADER_SIZE;
+                while (offset < end) {
+                    ByteBuffer region = old.region(offset);
+                    int at = (int) (offset % REGION_SIZE);
+                    byte state = region.get(at + STATE);
+                    if (state == SKIP) {
+                        offset = nextRegion(offset);
+                        continue;
+                    }
+                    int length = region.getInt(at + LENGTH);
+                    if (state == LIVE) {
+                        if (buffer.position() + length > REGION_SIZE) {
+                            if (buffer.hasRemaining()) {
+                                buffer.put(buffer.position(), SKIP);
+                            }
+                            buffer.position(REGION_SIZE);
+                            written += REGION_SIZE;
+                            writeFully(target, buffer);
+                        }
+                        buffer.put(buffer.position(), region, at, length).position(Math.min(REGION_SIZE, buffer.position() + align(length)));
+                    }
+                    offset += align(length);
+                }
+                written += buffer.position();
+                writeFully(target, buffer);
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putLong(0, MAGIC).putLong(END, written);
+                target.write(header, 0);
+                target.force(true);
+            }
+            Files.move(compacted, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            FileSync.syncDirectory(file.toAbsolutePath().getParent());
+            dirty.clear();
+            open();
+            // The old mappings stay valid until they are collected, for readers still holding them
+            old.channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Records in the file, live or deleted
+    synchronized int records() {
+        return recordCount;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        flush();
+        mapping.channel.close();
+    }
+
+    // Length of the record marked deleted
+    private int markDeleted(Mapping in, long offset) {
+        ByteBuffer region = in.region(offset);
+        int at = (int) (offset % REGION_SIZE);
+        region.put(at + STATE, DELETED);
+        if (in == mapping) {
+            markDirty(offset, 1);
+        }
+        return region.getInt(at + LENGTH);
+    }
+
+    private void markDirty(long offset, int length) {
+        dirty.set((int) (offset / PAGE_SIZE), (int) ((offset + length - 1) / PAGE_SIZE) + 1);
+    }
+
+    // Deleted records may take as much space as live ones, and a region more, before a compaction,
+    // so its cost is spread over deletes of at least as many bytes as it has to copy
+    private void compactIfWasteful() {
+        long deletedBytes = end - HEADER_SIZE - liveBytes;
+        if (deletedBytes > REGION_SIZE && deletedBytes > liveBytes) {
+            compact();
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private static byte[][] encode(Book book) {
+        byte[][] text = {utf8(book.getTitle()), utf8(book.getAuthor()), utf8(book.getGenre())};
+        int length = 0;
+        for (byte[] field : text) {
+            length += field == null ? 0 : field.length;
+        }
+        if (length > MAX_TEXT_BYTES) {
+            throw new IllegalArgumentException("Title, author and genre of book " + book.getId()
+                    + " take " + length + " bytes, a record holds at most " + MAX_TEXT_BYTES);
+        }
+        return text;
+    }
+
+    private static byte[] utf8(String value) {
+        return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static boolean contains(ByteBuffer region, int from, int length, byte[] pattern) {
+        outer:
+        for (int i = from; i <= from + length - pattern.length; i++) {
+            for (int j = 0; j < pattern.length; j++) {
+                if (region.get(i + j) != pattern[j]) {
+                    continue outer;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private static int align(int length) {
+        return (length + 7) & ~7;
+    }
+
+    private static long nextRegion(long offset) {
+        return (offset / REGION_SIZE + 1) * REGION_SIZE;
+    }
+
+    // Maps regions up to the one holding offset; only the writer grows the mapping
+    private static ByteBuffer region(Mapping in, long offset) {
+        int index = (int) (offset / REGION_SIZE);
+        MappedByteBuffer[] regions = in.regions;
+        if (regions.length <= index) {
+            int mapped = regions.length;
+            regions = Arrays.copyOf(regions, index + 1);
+            try {
+                for (int i = mapped; i <= index; i++) {
+                    regions[i] = in.channel.map(FileChannel.MapMode.READ_WRITE, (long) i * REGION_SIZE, REGION_SIZE);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            in.regions = regions;
+        }
+        return regions[index];
+    }
+}
@@ -0,0 +1,142 @@
+package org.example;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+// Counters and latency histograms for the service hot paths, read by pulling a snapshot.
+// Recording costs two nanoTime calls, a LongAdder increment and one striped array increment.
+// DISABLED records nothing and doesn't read the clock, so uninstrumented services pay one branch.
+public class Metrics {
+    public enum Operation {
+        SEARCH_BOOK, PURCHASE_BOOK, ADD_BOOK_REVIEW, REGISTER_USER, LOGIN_USER
+    }
+
+    public static final Metrics DISABLED = new Metrics(false);
+
+    private final boolean enabled;
+    private final Map<Operation, LongAdder> counts = new EnumMap<>(Operation.class);
+    private final Map<Operation, LatencyHistogram> latencies = new EnumMap<>(Operation.class);
+    private final LongAdder searchHits = new LongAdder();
+    private final LongAdder searchMisses = new LongAdder();
+    private final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+
+    public Metrics() {
+        this(true);
+    }
+
+    private Metrics(boolean enabled) {
+        this.enabled = enabled;
+        if (enabled) {
+            int stripes = Integer.highestOneBit(Math.min(8, Runtime.getRuntime().availableProcessors()));
+            for (Operation operation : Operation.values()) {
+                counts.put(operation, new LongAdder());
+                latencies.put(operation, new LatencyHistogram(stripes));
+            }
+        }
+    }
+
+    // Start time to pass to record, 0 when disabled
+    long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    void record(Operation operation, long start) {
+        if (enabled) {
+            long elapsed = System.nanoTime() - start;
+            counts.get(operation).increment();
+            latencies.get(operation).record(elapsed);
+        }
+    }
+
+    void recordSearch(long start, boolean hit) {
+        if (enabled) {
+            record(Operation.SEARCH_BOOK, start);
+            (hit ? searchHits : searchMisses).increment();
+        }
+    }
+
+    // Value read on every snapshot, e.g. a table size
+    void gauge(String name, LongSupplier value) {
+        if (enabled) {
+            gauges.put(name, value);
+        }
+    }
+
+    public Snapshot snapshot() {
+        Map<Operation, Long> totals = new EnumMap<>(Operation.class);
+        counts.forEach((operation, count) -> totals.put(operation, count.sum()));
+        Map<Operation, long[]> buckets = new EnumMap<>(Operation.class);
+        latencies.forEach((operation, histogram) -> buckets.put(operation, histogram.counts()));
+        Map<String, Long> values = new LinkedHashMap<>();
+        gauges.forEach((name, gauge) -> values.put(name, gauge.getAsLong()));
+        return new Snapshot(totals, buckets, searchHits.sum(), searchMisses.sum(), values);
+    }
+
+    // Metrics at one point in time. Latencies are in nanoseconds.
+    public static class Snapshot {
+        private final Map<Operation, Long> counts;
+        private final Map<Operation, long[]> latencies;
+        private final long searchHits;
+        private final long searchMisses;
+        private final Map<String, Long> gauges;
+
+        Snapshot(Map<Operation, Long> counts, Map<Operation, long[]> latencies, long searchHits, long searchMisses,
+                 Map<String, Long> gauges) {
+            this.counts = counts;
+            this.latencies = latencies;
+            this.searchHits = searchHits;
+            this.searchMisses = searchMisses;
+            this.gauges = Collections.unmodifiableMap(gauges);
+        }
+
+        public long count(Operation operation) {
+            return counts.getOrDefault(operation, 0L);
+        }
+
+        public long percentile(Operation operation, double fraction) {
+            long[] counts = latencies.get(operation);
+            return counts == null ? 0 : LatencyHistogram.percentile(counts, fraction);
+        }
+
+        public long p50(Operation operation) {
+            return percentile(operation, 0.50);
+        }
+
+        public long p99(Operation operation) {
+            return percentile(operation, 0.99);
+        }
+
+        public long p999(Operation operation) {
+            return percentile(operation, 0.999);
+        }
+
+        public long getSearchHits() {
+            return searchHits;
+        }
+
+        public long getSearchMisses() {
+            return searchMisses;
+        }
+
+        public Map<String, Long> getGauges() {
+            return gauges;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder report = new StringBuilder();
+            for (Operation operation : Operation.values()) {
+                report.append(String.format("%-16s count=%d p50=%dns p99=%dns p999=%dns%n", operation,
+                        count(operation), p50(operation), p99(operation), p999(operation)));
+            }
+            report.append(String.format("search hits=%d misses=%d%n", searchHits, searchMisses));
+            gauges.forEach((name, value) -> report.append(String.format("%s=%d%n", name, value)));
+            return report.toString();
+        }
+    }
+}
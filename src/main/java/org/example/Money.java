@@ -0,0 +1,17 @@
+package org.example;
+
+// Money is kept as whole cents so balances and prices never pick up floating point drift.
+// The double based getters and setters convert at the edge.
+final class Money {
+
+    private Money() {
+    }
+
+    static long toCents(double amount) {
+        return Math.round(amount * 100);
+    }
+
+    static double fromCents(long cents) {
+        return cents / 100.0;
+    }
+}
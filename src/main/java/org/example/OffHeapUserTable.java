@@ -0,0 +1,624 @@
+package org.example;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.locks.StampedLock;
+
+// User table kept in direct ByteBuffers, for user bases too large to keep as User objects on the
+// heap: the GC sees a handful of buffers instead of tens of millions of objects. UserService.offHeap
+// keeps its users here.
+// Records (balance, purchases, username hash, username, password, email) are appended to 64MB data
+// pages. Purchases are a separate block of book ids in purchase order, moved to a block twice the
+// size when full. An open-addressing table maps usernames to records. Each slot is one long: 24
+// bits of the username's hash to skip most mismatches without touching the record, and the
+// record's address; removed users leave a tombstone until the next resize. Strings are stored like
+// compact Strings, one byte per char when every char fits, so lookups compare chars in place
+// without decoding anything.
+// Logins and lookups run under an optimistic read of a StampedLock, every change takes the write
+// lock. A rename appends a new record and leaves the old one, and a moved purchase block its old
+// block, as unused bytes in the data pages.
+// Users are only materialized as User objects when asked for. Such a User is a view: purchases,
+// top-ups and balance changes through it are made in the table, so every view of a user sees them.
+public class OffHeapUserTable {
+    private static final int PAGE_SHIFT = 26;
+    private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+    private static final long REF_MASK = (1L << 40) - 1; // record address / 8 + 1, 0 marks an empty slot
+    private static final long TOMBSTONE = REF_MASK; // a removed user, no record is that far out
+    private static final int MAX_CHARS = 1 << 16; // per string, keeps every record well inside a page
+    private static final int MAX_PURCHASES = PAGE_SIZE / Long.BYTES - 1; // a purchase block fits in a page
+
+    // Record layout
+    private static final int BALANCE = 0;
+    private static final int PURCHASES = 8; // address of the purchase block, -1 for none yet
+    private static final int HASH = 16;
+    private static final int STRINGS = 20;
+
+    // Purchase block layout: count int, capacity int, then the book ids
+    private static final int COUNT = 0;
+    private static final int CAPACITY = 4;
+    private static final int IDS = 8;
+
+    // balance() of a user that isn't in the table
+    static final long NO_USER = Long.MIN_VALUE;
+
+    private final StampedLock lock = new StampedLock();
+    private volatile Pages slots; // slot count is a power of two, see mask()
+    private volatile Pages data = new Pages(new ByteBuffer[0]);
+    private long dataEnd; // next free data address, guarded by the write lock
+    private volatile int size;
+    private int tombstones; // guarded by the write lock
+    private volatile PasswordHasher passwordHasher; // null keeps passwords in plaintext
+    private volatile String unknownUserHash; // checked for unknown usernames, see UserService
+
+    public OffHeapUserTable(int expectedUsers) {
+        long capacity = Long.highestOneBit(Math.max(16, (long) expectedUsers * 4 / 3)) << 1;
+        slots = Pages.allocate(capacity * Long.BYTES);
+    }
+
+    // Same contract as UserService.setPasswordHasher, without the login cache
+    public void setPasswordHasher(PasswordHasher passwordHasher) {
+        this.unknownUserHash = passwordHasher.hash(UUID.randomUUID().toString());
+        this.passwordHasher = passwordHasher;
+    }
+
+    // Registers the user with its balance and purchases. From then on the User is a view of the
+    // table's record, see getUser.
+    public boolean registerUser(User user) {
+        if (!registerUser(user.getUsername(), user.getPassword(), user.getEmail(), user.getBalanceCents(), user.purchasedBookIds())) {
+            return false;
+        }
+        user.table = this;
+        return true;
+    }
+
+    // False if the username is taken
+    public boolean registerUser(String username, String password, String email, long balanceCents) {
+        return registerUser(username, password, email, balanceCents, new long[0]);
+    }
+
+    // With the user's purchases, in purchase order
+    boolean registerUser(String username, String password, String email, long balanceCents, long[] purchases) {
+        checkLength(username);
+        checkLength(password);
+        checkLength(email);
+        checkPurchases(purchases.length);
+        PasswordHasher hasher = passwordHasher;
+        if (hasher != null && password != null) {
+            password = hasher.hash(password); // outside the lock, it's the slow part
+        }
+        int hash = hash(username);
+        long stamp = lock.writeLock();
+        try {
+            if (find(slots, data, username, hash) >= 0) {
+                return false; // User already exists
+            }
+            long record = append(hash, username, password, email, balanceCents);
+            if (purchases.length > 0) {
+                long block = allocatePurchases(purchases.length);
+                for (long id : purchases) {
+                    appendPurchase(block, id);
+                }
+                data.putLong(record + PURCHASES, block);
+            }
+            insert(hash, record);
+            return true; // User registered successfully
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    // Renames the user and replaces password and email as given, keeping balance and purchases.
+    // False if there is no such user or the new username belongs to another one.
+    public boolean updateUser(String username, String newUsername, String newPassword, String newEmail) {
+        checkLength(newUsername);
+        checkLength(newPassword);
+        checkLength(newEmail);
+        PasswordHasher hasher = passwordHasher;
+        if (hasher != null && newPassword != null) {
+            newPassword = hasher.hash(newPassword);
+        }
+        if (username == null || newUsername == null) {
+            return false;
+        }
+        int hash = hash(username);
+        int newHash = hash(newUsername);
+        long stamp = lock.writeLock();
+        try {
+            long slot = findSlot(slots, data, username, hash);
+            if (slot < 0) {
+                return false;
+            }
+            if (!username.equals(newUsername) && find(slots, data, newUsername, newHash) >= 0) {
+                return false; // New username is already taken
+            }
+            long old = record(slots.getLong(slot));
+            long record = append(newHash, newUsername, newPassword, newEmail, data.getLong(old + BALANCE));
+            data.putLong(record + PURCHASES, data.getLong(old + PURCHASES));
+            slots.putLong(slot, TOMBSTONE);
+            size--;
+            tombstones++;
+            insert(newHash, record);
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    // False if there is no such user
+    public boolean removeUser(String username) {
+        if (username == null) {
+            return false;
+        }
+        long stamp = lock.writeLock();
+        try {
+            long slot = findSlot(slots, data, username, hash(username));
+            if (slot < 0) {
+                return false;
+            }
+            slots.putLong(slot, TOMBSTONE);
+            size--;
+            tombstones++;
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    // The stored password or hash, for a caller doing its own check, e.g. UserService with its
+    // login cache; null if there is no such user or no password
+    String password(String username) {
+        if (username == null) {
+            return null;
+        }
+        return read(() -> {
+            Pages pages = data;
+            long record = find(slots, pages, username, hash(username));
+            return record < 0 ? null : pages.getString(passwordAt(pages, record));
+        });
+    }
+
+    // Debits the price and records the book in one step. The balance left, or -1 if there is no
+    // such user or the balance doesn't cover the price.
+    long purchase(String username, long priceCents, long bookId) {
+        long stamp = lock.writeLock();
+        try {
+            long record = find(slots, data, username, hash(username));
+            if (record < 0 || data.getLong(record + BALANCE) < priceCents) {
+                return -1; // Unknown user or insufficient funds
+            }
+            long block = data.getLong(record + PURCHASES);
+            if (block < 0 || data.getInt(block + COUNT) == data.getInt(block + CAPACITY)) {
+                int count = block < 0 ? 0 : data.getInt(block + COUNT);
+                checkPurchases(count + 1);
+                long grown = allocatePurchases(Math.min(MAX_PURCHASES, Math.max(4, count * 2)));
+                for (int i = 0; i < count; i++) {
+                    appendPurchase(grown, data.getLong(block + IDS + (long) i * Long.BYTES));
+                }
+                data.putLong(record + PURCHASES, grown);
+                block = grown;
+            }
+            appendPurchase(block, bookId);
+            long balance = data.getLong(record + BALANCE) - priceCents;
+            data.putLong(record + BALANCE, balance);
+            return balance;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    // Adds to the balance; the new balance, or NO_USER if there is no such user
+    long credit(String username, long amountCents) {
+        long stamp = lock.writeLock();
+        try {
+            long record = find(slots, data, username, hash(username));
+            if (record < 0) {
+                return NO_USER;
+            }
+            long balance = Math.addExact(data.getLong(record + BALANCE), amountCents);
+            data.putLong(record + BALANCE, balance);
+            return balance;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    // False if there is no such user
+    boolean setBalance(String username, long balanceCents) {
+        long stamp = lock.writeLock();
+        try {
+            long record = find(slots, data, username, hash(username));
+            if (record < 0) {
+                return false;
+            }
+            data.putLong(record + BALANCE, balanceCents);
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    // NO_USER if there is no such user
+    long balance(String username) {
+        return read(() -> {
+            long record = find(slots, data, username, hash(username));
+            return record < 0 ? NO_USER : data.getLong(record + BALANCE);
+        });
+    }
+
+    // Book ids in purchase order, one per purchase; null if there is no such user
+    long[] purchasedBookIds(String username) {
+        return read(() -> {
+            Pages pages = data;
+            long record = find(slots, pages, username, hash(username));
+            if (record < 0) {
+                return null;
+            }
+            long block = pages.getLong(record + PURCHASES);
+            if (block < 0) {
+                return new long[0];
+            }
+            int count = pages.getInt(block + COUNT);
+            if (count < 0 || count > MAX_PURCHASES) {
+                throw new IllegalStateException("Not a purchase count: " + count); // torn optimistic read
+            }
+            long[] ids = new long[count];
+            for (int i = 0; i < count; i++) {
+                ids[i] = pages.getLong(block + IDS + (long) i * Long.BYTES);
+            }
+            return ids;
+        });
+    }
+
+    // Checks the password without creating a User
+    public boolean authenticate(String username, String password) {
+        if (username == null || password == null) {
+            return false;
+        }
+        PasswordHasher hasher = passwordHasher;
+        if (hasher == null) {
+            return read(() -> {
+                long record = find(slots, data, username, hash(username));
+                return record >= 0 && data.equalsString(passwordAt(data, record), password);
+            });
+        }
+        String stored = read(() -> {
+            long record = find(slots, data, username, hash(username));
+            return record < 0 ? null : data.getString(passwordAt(data, record));
+        });
+        // Unknown users are checked against a dummy hash, so they take as long as a wrong password
+        return hasher.matches(password, stored != null ? stored : unknownUserHash) && stored != null;
+    }
+
+    // The user as a new, detached User object, or null if the credentials don't match
+    public User loginUser(String username, String password) {
+        return authenticate(username, password) ? getUser(username) : null;
+    }
+
+    // Materializes the user as a view of its record: balance, purchases and top-ups through it go
+    // to the table. Its username, password and email are a copy; change them with updateUser.
+    public User getUser(String username) {
+        if (username == null) {
+            return null;
+        }
+        return read(() -> {
+            Pages pages = data;
+            long record = find(slots, pages, username, hash(username));
+            if (record < 0) {
+                return null;
+            }
+            long password = passwordAt(pages, record);
+            long email = pages.skipString(password);
+            User user = new User(username, pages.getString(password), pages.getString(email));
+            user.table = this;
+            return user;
+        });
+    }
+
+    public boolean containsUser(String username) {
+        return username != null && read(() -> find(slots, data, username, hash(username)) >= 0);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // Bytes held off-heap, slots and data pages together
+    public long offHeapBytes() {
+        return slots.bytes + data.bytes;
+    }
+
+    private interface Read<T> {
+        T run();
+    }
+
+    // Optimistic first; a registration that resized or wrote meanwhile sends the read round
+    // again under a real read lock
+    private <T> T read(Read<T> read) {
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                T result = read.run();
+                if (lock.validate(stamp)) {
+                    return result;
+                }
+            } catch (RuntimeException e) {
+                // read a half-written state, retry under the lock
+            }
+        }
+        stamp = lock.readLock();
+        try {
+            return read.run();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    // Address of the user's record, or -1
+    private static long find(Pages slots, Pages data, String username, int hash) {
+        long slot = findSlot(slots, data, username, hash);
+        return slot < 0 ? -1 : record(slots.getLong(slot));
+    }
+
+    // Address of the user's slot, or -1
+    private static long findSlot(Pages slots, Pages data, String username, int hash) {
+        if (username == null) {
+            return -1;
+        }
+        long mask = mask(slots);
+        long fingerprint = (hash >>> 8) & 0xFFFFFF;
+        for (long i = hash & mask; ; i = (i + 1) & mask) {
+            long slot = slots.getLong(i * Long.BYTES);
+            if (slot == 0) {
+                return -1;
+            }
+            if (slot != TOMBSTONE && slot >>> 40 == fingerprint) {
+                long record = record(slot);
+                if (data.getInt(record + HASH) == hash && data.equalsString(record + STRINGS, username)) {
+                    return i * Long.BYTES;
+                }
+            }
+        }
+    }
+
+    private static long record(long slot) {
+        return ((slot & REF_MASK) - 1) << 3;
+    }
+
+    // Takes the first free slot; the caller checked the username isn't there
+    private void insert(int hash, long record) {
+        if ((long) (size + tombstones + 1) * 4 > (mask(slots) + 1) * 3) {
+            resize();
+        }
+        long fingerprint = (hash >>> 8) & 0xFFFFFF;
+        long mask = mask(slots);
+        for (long i = hash & mask; ; i = (i + 1) & mask) {
+            long slot = slots.getLong(i * Long.BYTES);
+            if (slot == 0 || slot == TOMBSTONE) {
+                slots.putLong(i * Long.BYTES, fingerprint << 40 | ((record >>> 3) + 1));
+                if (slot == TOMBSTONE) {
+                    tombstones--;
+                }
+                break;
+            }
+        }
+        size++;
+    }
+
+    // Derived from the table itself, so a reader racing a resize never pairs a table with another's mask
+    private static long mask(Pages slots) {
+        return slots.bytes / Long.BYTES - 1;
+    }
+
+    private static long passwordAt(Pages data, long record) {
+        return data.skipString(record + STRINGS);
+    }
+
+    private long append(int hash, String username, String password, String email, long balanceCents) {
+        long length = STRINGS + Pages.stringBytes(username) + Pages.stringBytes(password) + Pages.stringBytes(email);
+        long record = allocate(length);
+        data.putLong(record + BALANCE, balanceCents);
+        data.putLong(record + PURCHASES, -1);
+        data.putInt(record + HASH, hash);
+        long at = data.putString(record + STRINGS, username);
+        at = data.putString(at, password);
+        data.putString(at, email);
+        return record;
+    }
+
+    private long allocatePurchases(int capacity) {
+        long block = allocate(IDS + (long) capacity * Long.BYTES);
+        data.putInt(block + COUNT, 0);
+        data.putInt(block + CAPACITY, capacity);
+        return block;
+    }
+
+    // The block has room for one more
+    private void appendPurchase(long block, long bookId) {
+        int count = data.getInt(block + COUNT);
+        data.putLong(block + IDS + (long) count * Long.BYTES, bookId);
+        data.putInt(block + COUNT, count + 1);
+    }
+
+    private long allocate(long length) {
+        length = (length + 7) & ~7L;
+        if ((dataEnd & (PAGE_SIZE - 1)) + length > PAGE_SIZE) {
+            dataEnd = (dataEnd + PAGE_SIZE - 1) & ~(long) (PAGE_SIZE - 1); // records never straddle pages
+        }
+        long address = dataEnd;
+        if (address >>> PAGE_SHIFT >= data.pages.length) {
+            data = data.grow();
+        }
+        dataEnd = address + length;
+        return address;
+    }
+
+    // Doubles the slot table, or rebuilds it at the same size when tombstones filled it.
+    // Readers keep probing the old table until they validate.
+    private void resize() {
+        long mask = mask(slots);
+        long capacity = (long) (size + 1) * 4 > (mask + 1) * 3 / 2 ? (mask + 1) * 2 : mask + 1;
+        Pages grown = Pages.allocate(capacity * Long.BYTES);
+        long grownMask = capacity - 1;
+        for (long i = 0; i <= mask; i++) {
+            long slot = slots.getLong(i * Long.BYTES);
+            if (slot == 0 || slot == TOMBSTONE) {
+                continue;
+            }
+            int hash = data.getInt(record(slot) + HASH);
+            for (long j = hash & grownMask; ; j = (j + 1) & grownMask) {
+                if (grown.getLong(j * Long.BYTES) == 0) {
+                    grown.putLong(j * Long.BYTES, slot);
+                    break;
+                }
+            }
+        }
+        slots = grown;
+        tombstones = 0;
+    }
+
+    private static int hash(String username) {
+        int h = username.hashCode() * 0x9E3779B9; // String caches its hash, so this allocates nothing
+        return h ^ (h >>> 16);
+    }
+
+    private static void checkPurchases(int count) {
+        if (count > MAX_PURCHASES) {
+            throw new IllegalArgumentException("A user holds at most " + MAX_PURCHASES + " purchases");
+        }
+    }
+
+    private static void checkLength(String value) {
+        if (value != null && value.length() > MAX_CHARS) {
+            throw new IllegalArgumentException("User fields are limited to " + MAX_CHARS + " chars");
+        }
+    }
+
+    // Long-addressed memory over fixed-size direct buffers
+    private static final class Pages {
+        final ByteBuffer[] pages;
+        final long bytes;
+
+        Pages(ByteBuffer[] pages) {
+            this.pages = pages;
+            long total = 0;
+            for (ByteBuffer page : pages) {
+                total += page.capacity();
+            }
+            this.bytes = total;
+        }
+
+        static Pages allocate(long bytes) {
+            ByteBuffer[] pages = new ByteBuffer[(int) ((bytes + PAGE_SIZE - 1) >>> PAGE_SHIFT)];
+            for (int i = 0; i < pages.length; i++) {
+                pages[i] = page((int) Math.min(PAGE_SIZE, bytes - ((long) i << PAGE_SHIFT)));
+            }
+            return new Pages(pages);
+        }
+
+        Pages grow() {
+            ByteBuffer[] grown = Arrays.copyOf(pages, pages.length + 1);
+            grown[pages.length] = page(PAGE_SIZE);
+            return new Pages(grown);
+        }
+
+        private static ByteBuffer page(int bytes) {
+            return ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+        }
+
+        long getLong(long address) {
+            return pages[(int) (address >>> PAGE_SHIFT)].getLong((int) (address & (PAGE_SIZE - 1)));
+        }
+
+        void putLong(long address, long value) {
+            pages[(int) (address >>> PAGE_SHIFT)].putLong((int) (address & (PAGE_SIZE - 1)), value);
+        }
+
+        int getInt(long address) {
+            return pages[(int) (address >>> PAGE_SHIFT)].getInt((int) (address & (PAGE_SIZE - 1)));
+        }
+
+        void putInt(long address, int value) {
+            pages[(int) (address >>> PAGE_SHIFT)].putInt((int) (address & (PAGE_SIZE - 1)), value);
+        }
+
+        // A string is an int header, chars << 1 | 1 if two bytes per char, then the chars.
+        // null is stored as header -1.
+
+        static long stringBytes(String value) {
+            return Integer.BYTES + (value == null ? 0 : (long) value.length() * (isLatin1(value) ? 1 : 2));
+        }
+
+        long putString(long address, String value) {
+            if (value == null) {
+                putInt(address, -1);
+                return address + Integer.BYTES;
+            }
+            boolean latin1 = isLatin1(value);
+            putInt(address, value.length() << 1 | (latin1 ? 0 : 1));
+            ByteBuffer page = pages[(int) (address >>> PAGE_SHIFT)];
+            int at = (int) (address & (PAGE_SIZE - 1)) + Integer.BYTES;
+            for (int i = 0; i < value.length(); i++) {
+                if (latin1) {
+                    page.put(at + i, (byte) value.charAt(i));
+                } else {
+                    page.putChar(at + 2 * i, value.charAt(i));
+                }
+            }
+            return skipString(address);
+        }
+
+        long skipString(long address) {
+            int header = getInt(address);
+            if (header == -1) {
+                return address + Integer.BYTES;
+            }
+            return address + Integer.BYTES + (long) (header >>> 1) * ((header & 1) + 1);
+        }
+
+        boolean equalsString(long address, String value) {
+            int header = getInt(address);
+            if (header == -1 || header >>> 1 != value.length()) {
+                return false;
+            }
+            ByteBuffer page = pages[(int) (address >>> PAGE_SHIFT)];
+            int at = (int) (address & (PAGE_SIZE - 1)) + Integer.BYTES;
+            boolean latin1 = (header & 1) == 0;
+            for (int i = 0; i < value.length(); i++) {
+                char c = latin1 ? (char) (page.get(at + i) & 0xFF) : page.getChar(at + 2 * i);
+                if (c != value.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        String getString(long address) {
+            int header = getInt(address);
+            if (header == -1) {
+                return null;
+            }
+            if (header >>> 1 > MAX_CHARS) {
+                throw new IllegalStateException("Not a string header: " + header); // torn optimistic read
+            }
+            ByteBuffer page = pages[(int) (address >>> PAGE_SHIFT)];
+            int at = (int) (address & (PAGE_SIZE - 1)) + Integer.BYTES;
+            char[] chars = new char[header >>> 1];
+            boolean latin1 = (header & 1) == 0;
+            for (int i = 0; i < chars.length; i++) {
+                chars[i] = latin1 ? (char) (page.get(at + i) & 0xFF) : page.getChar(at + 2 * i);
+            }
+            return new String(chars);
+        }
+
+        private static boolean isLatin1(String value) {
+            for (int i = 0; i < value.length(); i++) {
+                if (value.charAt(i) > 0xFF) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package org.example;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Predicate;
+
+// Fork-join scan of a catalog snapshot's positions. The range is halved until it is one fixed-size
+// segment, segments are filtered independently and the results are joined left to right, so the
+// output keeps catalog order.
+class ParallelScan extends RecursiveTask<List<Book>> {
+    private static final long serialVersionUID = 1L;
+    static final int SEGMENT_SIZE = 16 * CatalogSnapshot.LEAF_SIZE;
+
+    private final CatalogSnapshot books;
+    private final int from;
+    private final int to;
+    private final Predicate<Book> query;
+
+    ParallelScan(CatalogSnapshot books, int from, int to, Predicate<Book> query) {
+        this.books = books;
+        this.from = from;
+        this.to = to;
+        this.query = query;
+    }
+
+    @Override
+    protected List<Book> compute() {
+        if (to - from <= SEGMENT_SIZE) {
+            List<Book> matches = new ArrayList<>();
+            for (int start = from; start < to; start += CatalogSnapshot.LEAF_SIZE) { // from is a leaf boundary
+                Book[] leaf = books.leaf(start);
+                for (int i = 0, end = Math.min(leaf.length, to - start); i < end; i++) {
+                    if (leaf[i] != null && query.test(leaf[i])) { // skips tombstones
+                        matches.add(leaf[i]);
+                    }
+                }
+            }
+            return matches;
+        }
+        // Split on segment boundaries so every leaf scans whole segments
+        int middle = from + (((to - from) / SEGMENT_SIZE + 1) / 2) * SEGMENT_SIZE;
+        ParallelScan right = new ParallelScan(books, middle, to, query);
+        right.fork();
+        List<Book> matches = new ParallelScan(books, from, middle, query).compute();
+        matches.addAll(right.join());
+        return matches;
+    }
+}
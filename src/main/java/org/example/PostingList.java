@@ -0,0 +1,343 @@
+package org.example;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+// Sorted set of longs, published as immutable versions: a B+ tree whose leaves are primitive
+// long[] of at most 64 values under branches of at most 16 children, plus a tail leaf holding
+// the largest values.
+// with() and without() return a new version that copies only the leaf they change and the branches
+// above it, so one writer can publish versions while readers keep walking the ones they hold.
+// A value above every other one, the usual case for catalog sequences, is written in place past the
+// end of the tail, which older versions never read that far; a full tail moves into the tree whole.
+final class PostingList {
+    private static final int MAX_LEAF = 64;
+    private static final int MAX_BRANCH = 16;
+    private static final long[] NO_VALUES = new long[0];
+
+    static final PostingList EMPTY = new PostingList(NO_VALUES, 0, NO_VALUES, 0);
+
+    private final Object root; // long[] leaf or Branch, with every value below the tail's
+    private final int treeSize;
+    private final long[] tail; // tail[0, tailSize) in use, the rest is free for appends
+    private final int tailSize;
+
+    private static final class Branch {
+        final long[] lows; // smallest value under each child
+        final Object[] children;
+        final int size;
+
+        Branch(long[] lows, Object[] children, int size) {
+            this.lows = lows;
+            this.children = children;
+            this.size = size;
+        }
+
+        // Last child whose smallest value is not above value, or the first child
+        int childFor(long value) {
+            int low = 0;
+            int high = lows.length - 1;
+            while (low < high) {
+                int middle = (low + high + 1) >>> 1;
+                if (lows[middle] <= value) {
+                    low = middle;
+                } else {
+                    high = middle - 1;
+                }
+            }
+            return low;
+        }
+    }
+
+    private PostingList(Object root, int treeSize, long[] tail, int tailSize) {
+        this.root = root;
+        this.treeSize = treeSize;
+        this.tail = tail;
+        this.tailSize = tailSize;
+    }
+
+    int size() {
+        return treeSize + tailSize;
+    }
+
+    boolean isEmpty() {
+        return size() == 0;
+    }
+
+    // Only for the writer, with the latest version
+    PostingList with(long value) {
+        if (tailSize == 0 ? value > max(root) : value >= tail[0]) {
+            return withInTail(value);
+        }
+        Object[] nodes = insert(root, value);
+        if (nodes == null) {
+            return this; // already there
+        }
+        return new PostingList(join(nodes), treeSize + 1, tail, tailSize);
+    }
+
+    // Only for the writer, with the latest version
+    PostingList without(long value) {
+        if (tailSize > 0 && value >= tail[0]) {
+            int position = Arrays.binarySearch(tail, 0, tailSize, value);
+            if (position < 0) {
+                return this; // not there
+            }
+            long[] shrunk = new long[tailSize - 1];
+            System.arraycopy(tail, 0, shrunk, 0, position);
+            System.arraycopy(tail, position + 1, shrunk, position, shrunk.length - position);
+            return new PostingList(root, treeSize, shrunk, shrunk.length);
+        }
+        Object node = delete(root, value);
+        if (node == null) {
+            return this; // not there
+        }
+        while (node instanceof Branch && ((Branch) node).children.length == 1) {
+            node = ((Branch) node).children[0]; // the tree got shallower
+        }
+        return new PostingList(node, treeSize - 1, tail, tailSize);
+    }
+
+    PrimitiveIterator.OfLong iterator() {
+        return new PrimitiveIterator.OfLong() {
+            private final Branch[] path = new Branch[depth()];
+            private final int[] next = new int[path.length]; // next child to visit at each level
+            private long[] leaf;
+            private int index;
+            private int end;
+            private boolean inTail;
+
+            {
+                descend(root, 0);
+            }
+
+            private void descend(Object node, int level) {
+                while (node instanceof Branch) {
+                    path[level] = (Branch) node;
+                    next[level] = 1;
+                    node = path[level].children[0];
+                    level++;
+                }
+                leaf = (long[]) node;
+                index = 0;
+                end = leaf.length;
+            }
+
+            @Override
+            public boolean hasNext() {
+                while (index == end) {
+                    if (inTail) {
+                        return false;
+                    }
+                    int level = path.length - 1;
+                    while (level >= 0 && next[level] == path[level].children.length) {
+                        level--;
+                    }
+                    if (level >= 0) {
+                        descend(path[level].children[next[level]++], level + 1);
+                    } else {
+                        inTail = true;
+                        leaf = tail;
+                        index = 0;
+                        end = tailSize;
+                    }
+                }
+                return true;
+            }
+
+            @Override
+            public long nextLong() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return leaf[index++];
+            }
+        };
+    }
+
+    private PostingList withInTail(long value) {
+        if (tailSize == MAX_LEAF) {
+            // The full tail becomes the tree's last leaf; value may still belong below it
+            return new PostingList(join(appendLeaf(root, tail)), treeSize + tailSize, NO_VALUES, 0).with(value);
+        }
+        int position = Arrays.binarySearch(tail, 0, tailSize, value);
+        if (position >= 0) {
+            return this; // already there
+        }
+        position = -position - 1;
+        if (position == tailSize && tailSize < tail.length) {
+            tail[tailSize] = value;
+            return new PostingList(root, treeSize, tail, tailSize + 1);
+        }
+        // Copy on write, doubling the capacity when it is used up, so small postings stay small
+        int capacity = tailSize < tail.length ? tail.length : Math.min(MAX_LEAF, Math.max(2, tail.length * 2));
+        long[] grown = new long[capacity];
+        System.arraycopy(tail, 0, grown, 0, position);
+        grown[position] = value;
+        System.arraycopy(tail, position, grown, position + 1, tailSize - position);
+        return new PostingList(root, treeSize, grown, tailSize + 1);
+    }
+
+    private int depth() {
+        int depth = 0;
+        for (Object node = root; node instanceof Branch; node = ((Branch) node).children[0]) {
+            depth++;
+        }
+        return depth;
+    }
+
+    private static long max(Object node) {
+        while (node instanceof Branch) {
+            Object[] children = ((Branch) node).children;
+            node = children[children.length - 1];
+        }
+        long[] leaf = (long[]) node;
+        return leaf.length == 0 ? Long.MIN_VALUE : leaf[leaf.length - 1];
+    }
+
+    // The node with value added, as one node or split in two; null if value is already there
+    private static Object[] insert(Object node, long value) {
+        if (node instanceof long[]) {
+            long[] leaf = (long[]) node;
+            int position = Arrays.binarySearch(leaf, value);
+            if (position >= 0) {
+                return null;
+            }
+            position = -position - 1;
+            long[] grown = new long[leaf.length + 1];
+            System.arraycopy(leaf, 0, grown, 0, position);
+            grown[position] = value;
+            System.arraycopy(leaf, position, grown, position + 1, leaf.length - position);
+            if (grown.length <= MAX_LEAF) {
+                return new Object[]{grown};
+            }
+            int half = grown.length / 2;
+            return new Object[]{Arrays.copyOfRange(grown, 0, half), Arrays.copyOfRange(grown, half, grown.length)};
+        }
+        Branch branch = (Branch) node;
+        int child = branch.childFor(value);
+        Object[] nodes = insert(branch.children[child], value);
+        return nodes == null ? null : replace(branch, child, nodes, 1);
+    }
+
+    // The node with a leaf of values above all of its own added at the end
+    private static Object[] appendLeaf(Object node, long[] leaf) {
+        if (node instanceof long[]) {
+            return ((long[]) node).length == 0 ? new Object[]{leaf} : new Object[]{node, leaf};
+        }
+        Branch branch = (Branch) node;
+        int last = branch.children.length - 1;
+        return replace(branch, last, appendLeaf(branch.children[last], leaf), leaf.length);
+    }
+
+    // The branch with one child replaced by the given nodes, as one branch or split in two.
+    // A branch that grew at its end keeps its full half, so appends fill branches completely.
+    private static Object[] replace(Branch branch, int child, Object[] nodes, int added) {
+        int count = branch.children.length;
+        Object[] children = new Object[count + nodes.length - 1];
+        long[] lows = new long[children.length];
+        System.arraycopy(branch.children, 0, children, 0, child);
+        System.arraycopy(branch.lows, 0, lows, 0, child);
+        for (int i = 0; i < nodes.length; i++) {
+            children[child + i] = nodes[i];
+            lows[child + i] = low(nodes[i]);
+        }
+        System.arraycopy(branch.children, child + 1, children, child + nodes.length, count - child - 1);
+        System.arraycopy(branch.lows, child + 1, lows, child + nodes.length, count - child - 1);
+        if (children.length <= MAX_BRANCH) {
+            return new Object[]{new Branch(lows, children, branch.size + added)};
+        }
+        int split = child == count - 1 ? count : children.length / 2;
+        return new Object[]{branch(children, lows, 0, split), branch(children, lows, split, children.length)};
+    }
+
+    // The node without value, an empty leaf if nothing is left; null if value is not there
+    private static Object delete(Object node, long value) {
+        if (node instanceof long[]) {
+            long[] leaf = (long[]) node;
+            int position = Arrays.binarySearch(leaf, value);
+            if (position < 0) {
+                return null;
+            }
+            long[] shrunk = new long[leaf.length - 1];
+            System.arraycopy(leaf, 0, shrunk, 0, position);
+            System.arraycopy(leaf, position + 1, shrunk, position, shrunk.length - position);
+            return shrunk;
+        }
+
+        Branch branch = (Branch) node;
+        int child = branch.childFor(value);
+        Object shrunk = delete(branch.children[child], value);
+        if (shrunk == null) {
+            return null;
+        }
+        if (size(shrunk) == 0) {
+            if (branch.children.length == 1) {
+                return NO_VALUES;
+            }
+            return new Branch(remove(branch.lows, child), remove(branch.children, child), branch.size - 1);
+        }
+        Object[] children = branch.children.clone();
+        long[] lows = branch.lows.clone();
+        children[child] = shrunk;
+        lows[child] = low(shrunk);
+        // Small neighbouring leaves are merged, so a posting that loses most of its values
+        // does not keep a leaf per value
+        if (shrunk instanceof long[] && child + 1 < children.length && children[child + 1] instanceof long[]
+                && ((long[]) shrunk).length + ((long[]) children[child + 1]).length <= MAX_LEAF / 2) {
+            long[] left = (long[]) shrunk;
+            long[] right = (long[]) children[child + 1];
+            long[] merged = Arrays.copyOf(left, left.length + right.length);
+            System.arraycopy(right, 0, merged, left.length, right.length);
+            children[child] = merged;
+            return new Branch(remove(lows, child + 1), remove(children, child + 1), branch.size - 1);
+        }
+        return new Branch(lows, children, branch.size - 1);
+    }
+
+    // One node as it is, two under a new root
+    private static Object join(Object[] nodes) {
+        if (nodes.length == 1) {
+            return nodes[0];
+        }
+        long[] lows = new long[nodes.length];
+        for (int i = 0; i < nodes.length; i++) {
+            lows[i] = low(nodes[i]);
+        }
+        return branch(nodes, lows, 0, nodes.length);
+    }
+
+    private static Branch branch(Object[] nodes, long[] lows, int from, int to) {
+        int size = 0;
+        for (int i = from; i < to; i++) {
+            size += size(nodes[i]);
+        }
+        return new Branch(Arrays.copyOfRange(lows, from, to), Arrays.copyOfRange(nodes, from, to), size);
+    }
+
+    private static long low(Object node) {
+        while (node instanceof Branch) {
+            node = ((Branch) node).children[0];
+        }
+        return ((long[]) node)[0];
+    }
+
+    private static int size(Object node) {
+        return node instanceof long[] ? ((long[]) node).length : ((Branch) node).size;
+    }
+
+    private static Object[] remove(Object[] array, int index) {
+        Object[] shorter = new Object[array.length - 1];
+        System.arraycopy(array, 0, shorter, 0, index);
+        System.arraycopy(array, index + 1, shorter, index, shorter.length - index);
+        return shorter;
+    }
+
+    private static long[] remove(long[] array, int index) {
+        long[] shorter = new long[array.length - 1];
+        System.arraycopy(array, 0, shorter, 0, index);
+        System.arraycopy(array, index + 1, shorter, index, shorter.length - index);
+        return shorter;
+    }
+}
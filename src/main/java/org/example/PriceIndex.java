@@ -0,0 +1,52 @@
+package org.example;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PrimitiveIterator;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.LongFunction;
+
+// Sorted index on price: a skip list from each price in cents to the catalog sequences of the
+// books at that price, kept as a PostingList, so equal prices stay in catalog order.
+// A write replaces one price's posting list with a version that copies only the path it changed,
+// so its cost does not grow with the catalog, and a range query walks the versions it finds.
+// Written by one catalog writer at a time, read concurrently without locks.
+class PriceIndex {
+    private final LongFunction<Book> books; // catalog sequence -> book, null once removed
+    private final ConcurrentSkipListMap<Long, PostingList> prices = new ConcurrentSkipListMap<>();
+
+    PriceIndex(LongFunction<Book> books) {
+        this.books = books;
+    }
+
+    void add(Book book) {
+        prices.compute(book.getPriceCents(),
+                (price, posting) -> (posting == null ? PostingList.EMPTY : posting).with(book.sequence));
+    }
+
+    // Needs the price the book was indexed under, so call it before the price changes
+    void remove(Book book) {
+        prices.computeIfPresent(book.getPriceCents(), (price, posting) -> {
+            PostingList rest = posting.without(book.sequence);
+            return rest.isEmpty() ? null : rest;
+        });
+    }
+
+    // Books priced between minCents and maxCents inclusive, cheapest first
+    List<Book> range(long minCents, long maxCents) {
+        List<Book> matches = new ArrayList<>();
+        if (minCents > maxCents) {
+            return matches;
+        }
+        prices.subMap(minCents, true, maxCents, true).forEach((price, posting) -> {
+            PrimitiveIterator.OfLong sequences = posting.iterator();
+            while (sequences.hasNext()) {
+                Book book = books.apply(sequences.nextLong());
+                if (book != null && book.getPriceCents() == price) { // not removed or repriced since
+                    matches.add(book);
+                }
+            }
+        });
+        return matches;
+    }
+}
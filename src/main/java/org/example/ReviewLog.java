@@ -0,0 +1,93 @@
+package org.example;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+// Append-only review storage for one book, kept in fixed-size chunks so a popular book never
+// copies one huge array as it grows. Appends take the log's lock; reads never lock: they read
+// the published count first, and every slot below it is written once and never changes.
+class ReviewLog {
+    private static final int CHUNK_SHIFT = 6;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final String[][] NO_CHUNKS = new String[0][];
+
+    private volatile String[][] chunks = NO_CHUNKS;
+    private volatile int count;
+
+    ReviewLog() {
+    }
+
+    ReviewLog(Collection<String> reviews) {
+        for (String review : reviews) {
+            append(review);
+        }
+    }
+
+    synchronized void append(String review) {
+        int index = count;
+        int chunk = index >>> CHUNK_SHIFT;
+        String[][] directory = chunks;
+        if (chunk == directory.length) {
+            directory = Arrays.copyOf(directory, Math.max(4, directory.length * 2));
+        }
+        if (directory[chunk] == null) {
+            directory[chunk] = new String[CHUNK_SIZE];
+        }
+        directory[chunk][index & (CHUNK_SIZE - 1)] = review;
+        chunks = directory;
+        count = index + 1; // publishes the slot
+    }
+
+    // Appends and then runs appended before letting the next append in, e.g. to publish the review
+    // so events come out in the order of the log
+    synchronized void append(String review, Runnable appended) {
+        append(review);
+        appended.run();
+    }
+
+    int size() {
+        return count;
+    }
+
+    String get(int index) {
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException("Review " + index + " of " + count);
+        }
+        return chunks[index >>> CHUNK_SHIFT][index & (CHUNK_SIZE - 1)];
+    }
+
+    // At most limit reviews starting at offset, oldest first
+    List<String> page(int offset, int limit) {
+        int end = (int) Math.min(count, (long) Math.max(offset, 0) + Math.max(limit, 0));
+        String[][] directory = chunks;
+        List<String> page = new ArrayList<>(Math.max(0, end - offset));
+        for (int i = Math.max(offset, 0); i < end; i++) {
+            page.add(directory[i >>> CHUNK_SHIFT][i & (CHUNK_SIZE - 1)]);
+        }
+        return page;
+    }
+
+    // List view for Book.getReviews(); add() appends to the log
+    List<String> asList() {
+        return new AbstractList<>() {
+            @Override
+            public String get(int index) {
+                return ReviewLog.this.get(index);
+            }
+
+            @Override
+            public int size() {
+                return count;
+            }
+
+            @Override
+            public boolean add(String review) {
+                append(review);
+                return true;
+            }
+        };
+    }
+}
@@ -0,0 +1,34 @@
+package org.example;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Deterministic synthetic books for server mode, load tests and benchmarks, so every run sees the same catalog
+final class SampleCatalog {
+    static final String[] AUTHORS = {"George Orwell", "Harper Lee", "Jane Austen", "Leo Tolstoy", "Toni Morrison",
+            "Gabriel Garcia Marquez", "Virginia Woolf", "Fyodor Dostoevsky", "Haruki Murakami", "Chinua Achebe"};
+    static final String[] GENRES = {"Dystopian", "Fiction", "Romance", "Mystery", "Fantasy", "History", "Poetry"};
+    static final String[] WORDS = {"Silent", "River", "Empire", "Garden", "Winter", "Shadow", "Crown", "Light",
+            "Stone", "Harbor", "Mirror", "Storm", "Letters", "Island", "Night", "Machine"};
+
+    private SampleCatalog() {
+    }
+
+    static Book book(int i) {
+        String title = WORDS[i % WORDS.length] + " " + WORDS[(i / WORDS.length) % WORDS.length] + " " + i;
+        return new Book(id(i), title, AUTHORS[i % AUTHORS.length], GENRES[i % GENRES.length], Money.toCents(5 + (i % 2000) / 100.0));
+    }
+
+    // The i-th book's id, the same in every process, e.g. for operation logs
+    static long id(int i) {
+        return i + 1;
+    }
+
+    static List<Book> books(int count) {
+        List<Book> books = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            books.add(book(i));
+        }
+        return books;
+    }
+}
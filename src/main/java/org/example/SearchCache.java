@@ -0,0 +1,271 @@
+package org.example;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Search results by keyword, bounded by the total number of books held across all results.
+// Eviction follows W-TinyLFU: new keywords enter a small LRU window, and when the cache is full
+// a keyword leaving the window only displaces the main area's least recently used keyword if a
+// count-min sketch has seen it more often. One-off keywords therefore never push out the
+// storefront's hot ones. The main area is a segmented LRU: a keyword hit again while on
+// probation moves to the protected segment.
+// Every result is tagged with the catalog version it was computed at and only served at that
+// version; the first result stored for a newer version drops everything older.
+// Lookups are a ConcurrentHashMap read. Recency and frequency updates take the policy lock
+// only if it is free, so a busy cache loses a few of them rather than making readers wait.
+class SearchCache {
+    private static final int WINDOW = 0;
+    private static final int PROBATION = 1;
+    private static final int PROTECTED = 2;
+
+    private static final class Node {
+        final String keyword;
+        final List<Book> books;
+        final long version;
+        final long weight;
+        int queue;
+        Node previous;
+        Node next;
+
+        Node(String keyword, List<Book> books, long version) {
+            this.keyword = keyword;
+            this.books = books;
+            this.version = version;
+            this.weight = books.size() + 1L;
+        }
+    }
+
+    // Intrusive LRU list, least recent first
+    private static final class Queue {
+        Node first;
+        Node last;
+        long weight;
+
+        void addLast(Node node) {
+            node.previous = last;
+            node.next = null;
+            if (last == null) {
+                first = node;
+            } else {
+                last.next = node;
+            }
+            last = node;
+            weight += node.weight;
+        }
+
+        void remove(Node node) {
+            if (node.previous == null) {
+                first = node.next;
+            } else {
+                node.previous.next = node.next;
+            }
+            if (node.next == null) {
+                last = node.previous;
+            } else {
+                node.next.previous = node.previous;
+            }
+            node.previous = null;
+            node.next = null;
+            weight -= node.weight;
+        }
+    }
+
+    private final Map<String, Node> nodes = new ConcurrentHashMap<>();
+    private final ReentrantLock policyLock = new ReentrantLock();
+    private final Queue[] queues = {new Queue(), new Queue(), new Queue()};
+    private final FrequencySketch sketch;
+    private final long maxWeight;
+    private final long windowMax;
+    private final long protectedMax;
+    private long version; // newest version stored, guarded by policyLock
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    // maxWeight bounds the books held by all cached results together, plus one per keyword
+    SearchCache(long maxWeight) {
+        if (maxWeight < 1) {
+            throw new IllegalArgumentException("maxWeight must be positive");
+        }
+        this.maxWeight = maxWeight;
+        this.windowMax = Math.max(1, maxWeight / 100);
+        this.protectedMax = (maxWeight - windowMax) * 4 / 5;
+        this.sketch = new FrequencySketch(maxWeight);
+    }
+
+    // The cached result if it was computed at this version, else null
+    List<Book> get(String keyword, long version) {
+        Node node = nodes.get(keyword);
+        if (policyLock.tryLock()) {
+            try {
+                sketch.increment(keyword);
+                if (node != null && nodes.get(keyword) == node) {
+                    onHit(node);
+                }
+            } finally {
+                policyLock.unlock();
+            }
+        }
+        if (node == null || node.version != version) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return node.books;
+    }
+
+    // books must not change afterwards, it is handed to every later caller
+    void put(String keyword, long version, List<Book> books) {
+        Node node = new Node(keyword, books, version);
+        if (node.weight > maxWeight) {
+            return; // would evict everything else
+        }
+        policyLock.lock();
+        try {
+            if (version < this.version) {
+                return; // computed before a change that is already cached against
+            }
+            if (version > this.version) {
+                clear();
+                this.version = version;
+            }
+            Node previous = nodes.put(keyword, node);
+            if (previous != null) {
+                queues[previous.queue].remove(previous);
+            }
+            node.queue = WINDOW;
+            queues[WINDOW].addLast(node);
+            evict();
+        } finally {
+            policyLock.unlock();
+        }
+    }
+
+    long hitCount() {
+        return hits.sum();
+    }
+
+    long missCount() {
+        return misses.sum();
+    }
+
+    int size() {
+        return nodes.size();
+    }
+
+    long weight() {
+        return queues[WINDOW].weight + queues[PROBATION].weight + queues[PROTECTED].weight;
+    }
+
+    private void onHit(Node node) {
+        Queue queue = queues[node.queue];
+        queue.remove(node);
+        if (node.queue == PROBATION) {
+            node.queue = PROTECTED;
+            queues[PROTECTED].addLast(node);
+            while (queues[PROTECTED].weight > protectedMax && queues[PROTECTED].first != node) {
+                Node demoted = queues[PROTECTED].first;
+                queues[PROTECTED].remove(demoted);
+                demoted.queue = PROBATION;
+                queues[PROBATION].addLast(demoted);
+            }
+        } else {
+            queue.addLast(node);
+        }
+    }
+
+    private void evict() {
+        // Keywords leaving the window become candidates at the back of probation
+        Node candidate = null;
+        while (queues[WINDOW].weight > windowMax && queues[WINDOW].first != null) {
+            Node moved = queues[WINDOW].first;
+            queues[WINDOW].remove(moved);
+            moved.queue = PROBATION;
+            queues[PROBATION].addLast(moved);
+            if (candidate == null) {
+                candidate = moved;
+            }
+        }
+        // Each candidate has to beat probation's least recent keyword to stay
+        while (weight() > maxWeight) {
+            Node victim = queues[PROBATION].first;
+            if (victim == null) {
+                victim = queues[PROTECTED].first != null ? queues[PROTECTED].first : queues[WINDOW].first;
+            } else if (candidate != null && candidate != victim
+                    && sketch.frequency(candidate.keyword) <= sketch.frequency(victim.keyword)) {
+                victim = candidate;
+            }
+            if (victim == candidate) {
+                candidate = candidate.next;
+            }
+            remove(victim);
+        }
+    }
+
+    private void remove(Node node) {
+        queues[node.queue].remove(node);
+        nodes.remove(node.keyword, node);
+    }
+
+    private void clear() {
+        nodes.clear();
+        for (Queue queue : queues) {
+            queue.first = null;
+            queue.last = null;
+            queue.weight = 0;
+        }
+    }
+
+    // Count-min sketch of keyword popularity: 4 rows of counters capped at 15, all halved
+    // every 10 * width increments so old popularity fades
+    private static final class FrequencySketch {
+        private static final int[] SEEDS = {0x97CB3127, 0xB1B8A9E7, 0x2F9F46AD, 0x4D8E9D2B};
+        private static final int MAX_COUNT = 15;
+
+        private final int[][] rows;
+        private final int mask;
+        private final int resetAfter;
+        private int increments;
+
+        FrequencySketch(long maxWeight) {
+            int width = Integer.highestOneBit((int) Math.min(1 << 20, Math.max(64, maxWeight)));
+            rows = new int[SEEDS.length][width];
+            mask = width - 1;
+            resetAfter = 10 * width;
+        }
+
+        void increment(String keyword) {
+            int hash = keyword.hashCode();
+            for (int row = 0; row < rows.length; row++) {
+                int index = index(hash, row);
+                if (rows[row][index] < MAX_COUNT) {
+                    rows[row][index]++;
+                }
+            }
+            if (++increments >= resetAfter) {
+                for (int[] counters : rows) {
+                    for (int i = 0; i < counters.length; i++) {
+                        counters[i] >>>= 1;
+                    }
+                }
+                increments /= 2;
+            }
+        }
+
+        int frequency(String keyword) {
+            int hash = keyword.hashCode();
+            int frequency = MAX_COUNT;
+            for (int row = 0; row < rows.length; row++) {
+                frequency = Math.min(frequency, rows[row][index(hash, row)]);
+            }
+            return frequency;
+        }
+
+        private int index(int hash, int row) {
+            int h = hash * SEEDS[row];
+            return (h ^ (h >>> 16)) & mask;
+        }
+    }
+}
@@ -0,0 +1,269 @@
+package org.example;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+
+// Plain HTTP front end over the services, every request on a new thread of its own: a virtual
+// thread on JDK 24 and later, a platform thread before that. HttpServer reads request headers inside
+// synchronized methods, and before JDK 24 a virtual thread blocked there pins its carrier, so a few
+// slow clients would stall every other request.
+// Idle keep-alive connections cost no thread: the HttpServer's dispatcher holds them in one selector
+// and only hands an exchange to dispatch() once a request has arrived. So the thread cap bounds the
+// requests in flight, not the connections: MAX_VIRTUAL_THREADS, enough for well over 100k
+// concurrent requests, or MAX_THREADS with platform threads. A request beyond it gets 503 with
+// Retry-After from a small set of busy threads; when those are taken too the connection is closed.
+// Either way the dispatcher never runs an exchange itself, since reading the request and writing the
+// answer block on the client, and one slow client would hold up every other connection.
+// Requests are form encoded (query string or POST body), responses are text/plain:
+//   POST /register  username, password, email           201, or 409 if the username is taken; balance starts at 0
+//   POST /login     username, password                  200 with a session token, or 401
+//   GET  /search    q, offset, limit                    200, one book per line: id, title, author, genre, price
+//   POST /purchase  token, bookId                       200, 401 bad token, 404 no such book, 402 balance too low
+//   POST /review    token, bookId, review               200, 401 bad token, 404 no such book, 403 not purchased
+//   POST /topup     key, username, amount               200, 403 without the operator key, 404 no such user
+//   any endpoint                                        503 when the thread cap is reached already
+// The UserService must be a concurrent one, see UserService.concurrent(); the constructor refuses others.
+// /topup is for operators only: it answers 403 to everyone until setOperatorKey is called.
+public class Server implements Closeable {
+    private static final int BACKLOG = 65_536;
+    private static final int MAX_BODY = 64 * 1024;
+    static final int MAX_THREADS = 1024; // platform threads
+    static final int MAX_VIRTUAL_THREADS = 1 << 18;
+    static final boolean VIRTUAL_THREADS = ThreadPerTaskExecutor.virtualThreadsAvailable()
+            && Runtime.version().feature() >= 24;
+    private static final int BUSY_THREADS = 64; // only ever answer 503
+    private static final ThreadLocal<Boolean> BUSY = new ThreadLocal<>();
+
+    private final BookService bookService;
+    private final UserService userService;
+    private final SessionManager sessionManager;
+    private final int maxThreads;
+    private final int busyThreads;
+    private final boolean virtual;
+    private volatile byte[] operatorKey; // null until set, which keeps /topup closed
+    private HttpServer httpServer;
+    private ThreadPerTaskExecutor executor;
+    private ThreadPerTaskExecutor busyExecutor;
+
+    public Server(BookService bookService, UserService userService, SessionManager sessionManager) {
+        this(bookService, userService, sessionManager,
+                VIRTUAL_THREADS ? MAX_VIRTUAL_THREADS : MAX_THREADS, BUSY_THREADS, VIRTUAL_THREADS);
+    }
+
+    Server(BookService bookService, UserService userService, SessionManager sessionManager,
+           int maxThreads, int busyThreads, boolean virtual) {
+        if (!userService.isConcurrent()) {
+            throw new IllegalArgumentException("Server needs a concurrent UserService, see UserService.concurrent()");
+        }
+        this.bookService = bookService;
+        this.userService = userService;
+        this.sessionManager = sessionManager;
+        this.maxThreads = maxThreads;
+        this.busyThreads = busyThreads;
+        this.virtual = virtual;
+    }
+
+    // Callers of /topup must pass this key
+    public void setOperatorKey(String operatorKey) {
+        this.operatorKey = operatorKey.getBytes(StandardCharsets.UTF_8);
+    }
+
+    // Starts listening on localhost, port 0 picks a free port. Returns the bound address.
+    public synchronized InetSocketAddress start(int port) throws IOException {
+        if (httpServer != null) {
+            throw new IllegalStateException("Server already started");
+        }
+        httpServer = HttpServer.create(new InetSocketAddress("localhost", port), BACKLOG);
+        executor = new ThreadPerTaskExecutor("request", maxThreads, virtual);
+        busyExecutor = new ThreadPerTaskExecutor("busy", busyThreads, virtual);
+        httpServer.setExecutor(this::dispatch);
+        httpServer.createContext("/register", exchange -> handle(exchange, "POST", this::register));
+        httpServer.createContext("/login", exchange -> handle(exchange, "POST", this::login));
+        httpServer.createContext("/search", exchange -> handle(exchange, "GET", this::search));
+        httpServer.createContext("/purchase", exchange -> handle(exchange, "POST", this::purchase));
+        httpServer.createContext("/review", exchange -> handle(exchange, "POST", this::review));
+        httpServer.createContext("/topup", exchange -> handle(exchange, "POST", this::topUp));
+        httpServer.start();
+        return httpServer.getAddress();
+    }
+
+    @Override
+    public synchronized void close() {
+        if (httpServer != null) {
+            httpServer.stop(0);
+            executor.shutdown();
+            busyExecutor.shutdown();
+            httpServer = null;
+        }
+    }
+
+    // Runs on the dispatcher thread, so it never waits for a thread to free up. An exchange refused
+    // here is never run: HttpServer closes the connection of an exchange its executor rejects.
+    private void dispatch(Runnable exchange) {
+        if (executor.tryExecute(exchange)) {
+            return;
+        }
+        Runnable busy = () -> {
+            BUSY.set(Boolean.TRUE);
+            try {
+                exchange.run();
+            } finally {
+                BUSY.remove();
+            }
+        };
+        if (!busyExecutor.tryExecute(busy)) {
+            throw new RejectedExecutionException("Server busy"); // even the 503s are backed up
+        }
+    }
+
+    private static final class Response {
+        final int status;
+        final String body;
+
+        Response(int status, String body) {
+            this.status = status;
+            this.body = body;
+        }
+    }
+
+    private interface Handler {
+        Response handle(Map<String, String> params);
+    }
+
+    private Response register(Map<String, String> params) {
+        User user = new User(required(params, "username"), required(params, "password"), params.get("email"));
+        return userService.registerUser(user) ? new Response(201, "registered") : new Response(409, "username taken");
+    }
+
+    private Response topUp(Map<String, String> params) {
+        byte[] key = operatorKey;
+        String given = params.get("key");
+        // Compared in constant time, so the answer's timing gives nothing away about the key
+        if (key == null || given == null || !MessageDigest.isEqual(key, given.getBytes(StandardCharsets.UTF_8))) {
+            return new Response(403, "operator key required");
+        }
+        double amount = Double.parseDouble(required(params, "amount"));
+        if (!Double.isFinite(amount) || amount <= 0) {
+            throw new IllegalArgumentException("amount must be a positive amount");
+        }
+        return userService.topUp(required(params, "username"), Money.toCents(amount))
+                ? new Response(200, "topped up")
+                : new Response(404, "no such user");
+    }
+
+    private Response login(Map<String, String> params) {
+        String token = sessionManager.login(required(params, "username"), required(params, "password"));
+        return token == null ? new Response(401, "wrong username or password") : new Response(200, token);
+    }
+
+    private Response search(Map<String, String> params) {
+        String keyword = params.getOrDefault("q", "");
+        int offset = Integer.parseInt(params.getOrDefault("offset", "0"));
+        int limit = Integer.parseInt(params.getOrDefault("limit", "20"));
+        StringBuilder body = new StringBuilder();
+        List<Book> books = bookService.searchBook(keyword, offset, limit);
+        for (Book book : books) {
+            body.append(book.getId()).append('\t').append(book.getTitle()).append('\t').append(book.getAuthor())
+                    .append('\t').append(book.getGenre()).append('\t').append(book.getPrice()).append('\n');
+        }
+        return new Response(200, body.toString());
+    }
+
+    private Response purchase(Map<String, String> params) {
+        User user = sessionManager.resolve(required(params, "token"));
+        if (user == null) {
+            return new Response(401, "not logged in");
+        }
+        Book book = bookService.getBook(Long.parseLong(required(params, "bookId")));
+        if (book == null) {
+            return new Response(404, "no such book");
+        }
+        return bookService.purchaseBook(user, book) ? new Response(200, "purchased") : new Response(402, "balance too low");
+    }
+
+    private Response review(Map<String, String> params) {
+        User user = sessionManager.resolve(required(params, "token"));
+        if (user == null) {
+            return new Response(401, "not logged in");
+        }
+        Book book = bookService.getBook(Long.parseLong(required(params, "bookId")));
+        if (book == null) {
+            return new Response(404, "no such book");
+        }
+        return bookService.addBookReview(user, book, required(params, "review"))
+                ? new Response(200, "reviewed")
+                : new Response(403, "book not purchased or review empty");
+    }
+
+    private static void handle(HttpExchange exchange, String method, Handler handler) throws IOException {
+        Response response;
+        try {
+            if (BUSY.get() != null) {
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                response = new Response(503, "server busy");
+            } else if (!exchange.getRequestMethod().equals(method)) {
+                response = new Response(405, method + " only");
+            } else {
+                response = handler.handle(params(exchange));
+            }
+        } catch (IllegalArgumentException e) { // includes NumberFormatException
+            response = new Response(400, e.getMessage());
+        } catch (RuntimeException e) {
+            response = new Response(500, "internal error");
+        }
+        byte[] body = response.body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(response.status, body.length == 0 ? -1 : body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static Map<String, String> params(HttpExchange exchange) throws IOException {
+        Map<String, String> params = new HashMap<>();
+        parse(exchange.getRequestURI().getRawQuery(), params);
+        if (exchange.getRequestMethod().equals("POST")) {
+            try (InputStream in = exchange.getRequestBody()) {
+                byte[] body = in.readNBytes(MAX_BODY + 1);
+                if (body.length > MAX_BODY) {
+                    throw new IllegalArgumentException("request body too large");
+                }
+                parse(new String(body, StandardCharsets.UTF_8), params);
+            }
+        }
+        return params;
+    }
+
+    private static void parse(String form, Map<String, String> params) {
+        if (form == null || form.isEmpty()) {
+            return;
+        }
+        for (String pair : form.split("&")) {
+            int equals = pair.indexOf('=');
+            String name = equals < 0 ? pair : pair.substring(0, equals);
+            String value = equals < 0 ? "" : pair.substring(equals + 1);
+            params.put(URLDecoder.decode(name, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+    }
+
+    private static String required(Map<String, String> params, String name) {
+        String value = params.get(name);
+        if (value == null) {
+            throw new IllegalArgumentException("missing " + name);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,169 @@
+package org.example;
+
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+// Issues session tokens on login, so request handlers resolve the user from a token with one
+// hash lookup instead of holding User objects or re-authenticating.
+// Tokens are 128 random bits in URL-safe base64 (22 chars). A session lasts ttl from login.
+// Expired sessions are dropped by a hashed timer wheel that whichever caller first notices a new
+// tick advances, so there is no background thread; resolve also checks the expiry itself.
+public class SessionManager {
+    private static final int WHEEL_SIZE = 64; // power of two; a ttl spans the wheel once
+
+    private static final class Session {
+        final String token;
+        final User user;
+        final long expiresAt;
+        final long expiryTick;
+
+        Session(String token, User user, long expiresAt, long expiryTick) {
+            this.token = token;
+            this.user = user;
+            this.expiresAt = expiresAt;
+            this.expiryTick = expiryTick;
+        }
+    }
+
+    private final UserService userService;
+    private final long ttlNanos;
+    private final long tickNanos;
+    private final LongSupplier clock;
+    private final long origin;
+    private final SecureRandom random = new SecureRandom();
+
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+    private final Map<User, Set<Session>> byUser = new ConcurrentHashMap<>(); // for revokeAll
+    private final Set<Session>[] wheel;
+    private final ReentrantLock sweepLock = new ReentrantLock();
+    private volatile long sweptTick; // every bucket up to this tick has been swept
+
+    public SessionManager(UserService userService, long ttl, TimeUnit unit) {
+        this(userService, ttl, unit, System::nanoTime);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    SessionManager(UserService userService, long ttl, TimeUnit unit, LongSupplier clock) {
+        if (ttl <= 0) {
+            throw new IllegalArgumentException("ttl must be positive");
+        }
+        this.userService = userService;
+        this.ttlNanos = unit.toNanos(ttl);
+        this.tickNanos = Math.max(1, (ttlNanos + WHEEL_SIZE - 1) / WHEEL_SIZE);
+        this.clock = clock;
+        this.origin = clock.getAsLong();
+        this.wheel = new Set[WHEEL_SIZE];
+        for (int i = 0; i < wheel.length; i++) {
+            wheel[i] = ConcurrentHashMap.newKeySet();
+        }
+    }
+
+    // Token for a new session, or null if the credentials are wrong
+    public String login(String username, String password) {
+        User user = userService.loginUser(username, password);
+        return user == null ? null : issue(user);
+    }
+
+    // Starts a session for a user that is already authenticated, e.g. right after registering
+    public String issue(User user) {
+        long now = clock.getAsLong();
+        advance(now);
+        long expiresAt = now + ttlNanos;
+        // Ticks are counted up to the expiry, so a session is swept after it expires, never before
+        Session session = new Session(newToken(), user, expiresAt, (expiresAt - origin + tickNanos - 1) / tickNanos);
+        sessions.put(session.token, session);
+        wheel[(int) (session.expiryTick & (WHEEL_SIZE - 1))].add(session);
+        byUser.compute(user, (key, userSessions) -> {
+            Set<Session> result = userSessions == null ? ConcurrentHashMap.newKeySet() : userSessions;
+            result.add(session);
+            return result;
+        });
+        return session.token;
+    }
+
+    // The session's user, or null if the token is unknown, expired or revoked
+    public User resolve(String token) {
+        long now = clock.getAsLong();
+        advance(now);
+        Session session = token == null ? null : sessions.get(token);
+        if (session == null) {
+            return null;
+        }
+        if (now - session.expiresAt >= 0) {
+            end(session); // expired but not swept yet
+            return null;
+        }
+        return session.user;
+    }
+
+    public boolean revoke(String token) {
+        Session session = token == null ? null : sessions.get(token);
+        return session != null && end(session);
+    }
+
+    // Ends every session of the user, e.g. after a password change. Returns how many were ended.
+    public int revokeAll(User user) {
+        Set<Session> userSessions = byUser.get(user);
+        if (userSessions == null) {
+            return 0;
+        }
+        int revoked = 0;
+        for (Session session : userSessions) {
+            if (end(session)) {
+                revoked++;
+            }
+        }
+        return revoked;
+    }
+
+    // Sessions not yet ended, including expired ones the wheel hasn't reached
+    public int sessionCount() {
+        return sessions.size();
+    }
+
+    private boolean end(Session session) {
+        if (!sessions.remove(session.token, session)) {
+            return false; // ended by someone else
+        }
+        wheel[(int) (session.expiryTick & (WHEEL_SIZE - 1))].remove(session);
+        byUser.computeIfPresent(session.user, (key, userSessions) -> {
+            userSessions.remove(session);
+            return userSessions.isEmpty() ? null : userSessions;
+        });
+        return true;
+    }
+
+    // Sweeps the buckets of every tick since the last sweep. Only one caller sweeps at a time and
+    // the others don't wait for it.
+    private void advance(long now) {
+        long tick = (now - origin) / tickNanos;
+        if (tick <= sweptTick || !sweepLock.tryLock()) {
+            return;
+        }
+        try {
+            // After a full turn every bucket has been visited, so idle periods cost at most one turn
+            for (long t = Math.max(sweptTick + 1, tick - WHEEL_SIZE + 1); t <= tick; t++) {
+                for (Session session : wheel[(int) (t & (WHEEL_SIZE - 1))]) {
+                    if (session.expiryTick <= tick) {
+                        end(session);
+                    }
+                }
+            }
+            sweptTick = tick;
+        } finally {
+            sweepLock.unlock();
+        }
+    }
+
+    private String newToken() {
+        byte[] bytes = new byte[16];
+        random.nextBytes(bytes);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+}
@@ -0,0 +1,27 @@
+package org.example;
+
+import java.text.Normalizer;
+import java.util.Arrays;
+
+// Folds text for case and accent insensitive matching: "García" and "GARCIA" both become "garcia".
+final class TextFolding {
+
+    private TextFolding() {
+    }
+
+    static char[] fold(String value) {
+        if (value == null) {
+            return new char[0];
+        }
+        String decomposed = Normalizer.normalize(value, Normalizer.Form.NFD); // é -> e + combining accent
+        char[] folded = new char[decomposed.length()];
+        int length = 0;
+        for (int i = 0; i < decomposed.length(); i++) {
+            char c = decomposed.charAt(i);
+            if (Character.getType(c) != Character.NON_SPACING_MARK) {
+                folded[length++] = Character.toLowerCase(c);
+            }
+        }
+        return length == folded.length ? folded : Arrays.copyOf(folded, length);
+    }
+}
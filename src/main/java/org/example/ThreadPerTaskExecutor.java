@@ -0,0 +1,156 @@
+package org.example;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Starts a new thread for every task, at most maxThreads of them running at a time.
+// Threads are never reused, so a slow task can't hold up the ones behind it, and the cap keeps a
+// stall from piling up threads until the JVM can't create any more.
+// Virtual threads are used where asked for and the JDK has them (21 and later); the build targets
+// 17, so they are looked up at runtime and platform threads stand in on older JDKs.
+// execute() waits for a running task to finish once the cap is reached; tryExecute() refuses instead.
+final class ThreadPerTaskExecutor extends AbstractExecutorService {
+    private static final ThreadFactory VIRTUAL_THREADS = virtualThreadFactory(); // null before JDK 21
+
+    private final String name;
+    private final int maxThreads;
+    private final ThreadFactory threads; // null starts platform threads
+    private final Semaphore permits;
+    private final Set<Thread> running = ConcurrentHashMap.newKeySet();
+    private final AtomicLong started = new AtomicLong();
+    private volatile boolean shutdown;
+
+    ThreadPerTaskExecutor(String name, int maxThreads) {
+        this(name, maxThreads, false);
+    }
+
+    ThreadPerTaskExecutor(String name, int maxThreads, boolean virtual) {
+        if (maxThreads < 1) {
+            throw new IllegalArgumentException("maxThreads must be at least 1");
+        }
+        this.name = name;
+        this.maxThreads = maxThreads;
+        this.permits = new Semaphore(maxThreads);
+        this.threads = virtual ? VIRTUAL_THREADS : null;
+    }
+
+    static boolean virtualThreadsAvailable() {
+        return VIRTUAL_THREADS != null;
+    }
+
+    boolean isVirtual() {
+        return threads != null;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("Interrupted while waiting for a thread", e);
+        }
+        start(task);
+    }
+
+    // false, without running the task, if maxThreads tasks are running already
+    boolean tryExecute(Runnable task) {
+        if (!permits.tryAcquire()) {
+            return false;
+        }
+        start(task);
+        return true;
+    }
+
+    private void start(Runnable task) {
+        if (shutdown) {
+            permits.release();
+            throw new RejectedExecutionException(name + " executor is shut down");
+        }
+        Runnable body = () -> {
+            try {
+                task.run();
+            } finally {
+                running.remove(Thread.currentThread());
+                finished();
+            }
+        };
+        String threadName = name + "-" + started.incrementAndGet();
+        Thread thread;
+        if (threads == null) {
+            thread = new Thread(body, threadName);
+            thread.setDaemon(true);
+        } else {
+            thread = threads.newThread(body); // always a daemon
+            thread.setName(threadName);
+        }
+        running.add(thread);
+        try {
+            thread.start();
+        } catch (RuntimeException | Error e) { // e.g. the OS refused another thread
+            running.remove(thread);
+            finished();
+            throw e;
+        }
+    }
+
+    // Thread.ofVirtual().factory(), reached by reflection so the code still compiles for JDK 17
+    private static ThreadFactory virtualThreadFactory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            return (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    private synchronized void finished() {
+        permits.release();
+        notifyAll();
+    }
+
+    @Override
+    public void shutdown() {
+        shutdown = true;
+    }
+
+    // Interrupts the running tasks; there is never a queue of tasks to hand back
+    @Override
+    public List<Runnable> shutdownNow() {
+        shutdown = true;
+        for (Thread thread : running) {
+            thread.interrupt();
+        }
+        return List.of();
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return shutdown && permits.availablePermits() == maxThreads;
+    }
+
+    @Override
+    public synchronized boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!isTerminated()) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return false;
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return true;
+    }
+}
@@ -1,15 +1,30 @@
 package org.example;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.LongFunction;
 
 public class User {
     private String username;
     private String password;
     private String email;
-    private double balance; // added this to test user balance before purchase of book.
+    private volatile long balanceCents; // added this to test user balance before purchase of book. Kept in cents, written under the user's lock.
 
-    private List<Book> purchasedBooks = new ArrayList<>();
+    // The purchases are only kept as book ids, a long each, and the Books looked up when asked for:
+    // one id per purchase in purchase order, plus a set of them for ownership checks.
+    private long[] purchases = new long[4];
+    private int purchaseCount;
+    private LongHashSet ownedBookIds = new LongHashSet();
+    private List<LongFunction<Book>> catalogs = List.of(); // where the ids are looked up, usually just one
+
+    UserJournal journal; // write-ahead log of the UserService this user is registered with, if it has one
+    // Holds the balance and purchases instead of the fields above when this user is a view of an
+    // off-heap table, see OffHeapUserTable.getUser
+    volatile OffHeapUserTable table;
 
 
     public User(String username, String password, String email) {
@@ -22,7 +37,7 @@ public class User {
         this.username = username;
         this.password = password;
         this.email = email;
-        this.purchasedBooks = purchasedBooks;
+        setPurchasedBooks(purchasedBooks);
     }
 
     // Added new constructor with balance
@@ -30,7 +45,7 @@ public class User {
         this.username = username;
         this.password = password;
         this.email = email;
-        this.balance = balance;
+        this.balanceCents = Money.toCents(balance);
     }
 
     public String getUsername() {
@@ -57,20 +72,203 @@ public class User {
         this.email = email;
     }
 
+    // The purchased books, one entry per purchase in purchase order, so a book bought twice is
+    // listed twice. Read-only; purchases go through BookService.purchaseBook. A book since removed
+    // from the catalog is listed as it was when it was removed, as long as the catalog it was
+    // bought from still knows it; only a book no catalog knows, e.g. removed before a restart, is
+    // left out.
     public List<Book> getPurchasedBooks() {
-        return purchasedBooks;
+        long[] ids;
+        List<LongFunction<Book>> lookups;
+        synchronized (this) {
+            ids = purchasedBookIds(); // only the ids are copied under the lock
+            lookups = catalogs;
+        }
+        List<Book> books = new ArrayList<>(ids.length);
+        for (long id : ids) {
+            Book book = lookUp(lookups, id);
+            if (book != null) {
+                books.add(book);
+            }
+        }
+        return Collections.unmodifiableList(books);
+    }
+
+    // Ids of the purchased books, one per purchase in purchase order, e.g. for a snapshot
+    synchronized long[] purchasedBookIds() {
+        OffHeapUserTable table = this.table;
+        if (table != null) {
+            long[] ids = table.purchasedBookIds(username);
+            if (ids != null) {
+                return ids;
+            }
+        }
+        return Arrays.copyOf(purchases, purchaseCount);
+    }
+
+    public synchronized void setPurchasedBooks(List<Book> purchasedBooks) {
+        LongHashSet ids = new LongHashSet(purchasedBooks.size());
+        long[] order = new long[Math.max(4, purchasedBooks.size())];
+        Map<Long, Book> books = new HashMap<>();
+        int count = 0;
+        for (Book book : purchasedBooks) {
+            ids.add(book.getId());
+            order[count++] = book.getId();
+            books.put(book.getId(), book);
+        }
+        this.ownedBookIds = ids;
+        this.purchases = order;
+        this.purchaseCount = count;
+        this.catalogs = List.of(books::get); // not necessarily in any catalog, so they are looked up here
+    }
+
+    // Purchased ids are also looked up in this catalog from now on
+    synchronized void lookUpBooksIn(LongFunction<Book> catalog) {
+        if (!catalogs.contains(catalog)) {
+            List<LongFunction<Book>> more = new ArrayList<>(catalogs);
+            more.add(catalog);
+            catalogs = List.copyOf(more);
+        }
     }
 
-    public void setPurchasedBooks(List<Book> purchasedBooks) {
-        this.purchasedBooks = purchasedBooks;
+    private static Book lookUp(List<LongFunction<Book>> catalogs, long id) {
+        for (LongFunction<Book> catalog : catalogs) {
+            Book book = catalog.apply(id);
+            if (book != null) {
+                return book;
+            }
+        }
+        return null;
     }
 
     public void setBalance(double v) {
-        this.balance = v;
+        setBalanceCents(Money.toCents(v));
     }
 
     public double getBalance() {
-        return balance;
+        return Money.fromCents(getBalanceCents());
+
+    }
+
+    public synchronized void setBalanceCents(long balanceCents) {
+        OffHeapUserTable table = this.table;
+        if (table != null) {
+            table.setBalance(username, balanceCents);
+        }
+        this.balanceCents = balanceCents;
+    }
+
+    public long getBalanceCents() {
+        OffHeapUserTable table = this.table;
+        if (table != null) {
+            long balance = table.balance(username);
+            if (balance != OffHeapUserTable.NO_USER) {
+                return balance;
+            }
+        }
+        return balanceCents;
+    }
+
+    // Debits the price and records the book in one step. Each user is its own lock,
+    // so purchases by different users never contend and one balance can't be spent twice.
+    // catalog is the one the book was bought from, getPurchasedBooks looks the book up there.
+    boolean purchase(Book book, long priceCents, LongFunction<Book> catalog) {
+        OffHeapUserTable table = this.table;
+        if (table != null) {
+            synchronized (this) {
+                long balance = table.purchase(username, priceCents, book.getId());
+                if (balance < 0) {
+                    return false;
+                }
+                balanceCents = balance;
+                lookUpBooksIn(catalog);
+                return true;
+            }
+        }
+        UserJournal journal = this.journal;
+        if (journal == null) {
+            return debit(book, priceCents, catalog);
+        }
+        long logged;
+        journal.beginMutation();
+        try {
+            synchronized (this) {
+                if (!debit(book, priceCents, catalog)) {
+                    return false;
+                }
+                logged = journal.logPurchase(this, book, priceCents);
+            }
+        } finally {
+            journal.endMutation();
+        }
+        journal.awaitDurable(logged);
+        return true;
+    }
+
+    // Adds funds under the user's lock, logged like a purchase so the two replay in order
+    void credit(long amountCents) {
+        OffHeapUserTable table = this.table;
+        if (table != null) {
+            synchronized (this) {
+                long balance = table.credit(username, amountCents);
+                if (balance != OffHeapUserTable.NO_USER) {
+                    balanceCents = balance;
+                }
+            }
+            return;
+        }
+        UserJournal journal = this.journal;
+        if (journal == null) {
+            addToBalance(amountCents);
+            return;
+        }
+        long logged;
+        journal.beginMutation();
+        try {
+            synchronized (this) {
+                addToBalance(amountCents);
+                logged = journal.logTopUp(this, amountCents);
+            }
+        } finally {
+            journal.endMutation();
+        }
+        journal.awaitDurable(logged);
+    }
+
+    private synchronized void addToBalance(long amountCents) {
+        balanceCents = Math.addExact(balanceCents, amountCents);
+    }
+
+    private synchronized boolean debit(Book book, long priceCents, LongFunction<Book> catalog) {
+        if (balanceCents < priceCents) {
+            return false; // Insufficient funds
+        }
+        balanceCents -= priceCents;
+        addPurchasedBookId(book.getId());
+        lookUpBooksIn(catalog);
+        return true;
+    }
+
+    synchronized void addPurchasedBookId(long id) {
+        if (purchaseCount == purchases.length) {
+            purchases = Arrays.copyOf(purchases, purchaseCount * 2);
+        }
+        purchases[purchaseCount++] = id;
+        ownedBookIds.add(id);
+    }
 
+    synchronized boolean hasPurchased(Book book) {
+        if (book == null) {
+            return false;
+        }
+        if (table != null) {
+            for (long id : purchasedBookIds()) {
+                if (id == book.getId()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        return ownedBookIds.contains(book.getId());
     }
 }
\ No newline at end of file
@@ -0,0 +1,475 @@
+package org.example;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.LongFunction;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+// Write-ahead log plus snapshots for UserService state.
+//
+// Register, profile update, purchase and top-up each append one record. A single writer thread
+// drains everything queued since its last fsync, writes it, and forces the file once,
+// so concurrent callers share one fsync (group commit) instead of paying for one each.
+//
+// The directory holds log-<n> files and at most one snapshot-<n>. snapshot-<n> covers
+// every log below n; recovery loads it and replays log-<n> onwards, stopping at the first
+// torn or corrupt record.
+public class UserJournal implements Closeable {
+    private static final byte REGISTER = 1;
+    private static final byte UPDATE = 2;
+    private static final byte PURCHASE = 3;
+    private static final byte TOP_UP = 4;
+
+    private final Path directory;
+    // Mutations hold the read side while they change state and queue their record,
+    // a checkpoint holds the write side while it copies state and rolls the log
+    private final ReentrantReadWriteLock checkpointLock = new ReentrantReadWriteLock();
+    // One checkpoint at a time from the copy to the last delete, e.g. a manual one and a scheduled
+    // one, so they never write the same temp file or delete logs the other's snapshot still needs
+    private final ReentrantLock checkpointing = new ReentrantLock();
+
+    private final ReentrantLock queueLock = new ReentrantLock();
+    private final Condition queued = queueLock.newCondition();
+    private final Condition durableChanged = queueLock.newCondition();
+    private List<byte[]> pending = new ArrayList<>();
+    private long appended; // sequence of the last queued record
+    private long durable; // sequence of the last record forced to disk
+    private IOException failure;
+    private boolean closed;
+
+    private volatile FileChannel log; // swapped by checkpoints while the writer is idle
+    private long generation;
+    private final Thread writer;
+    private ScheduledExecutorService checkpoints;
+
+    public UserJournal(Path directory) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        generation = Math.max(latest("snapshot-"), latest("log-")) + 1; // never append after a torn tail
+        log = openLog(generation);
+        writer = new Thread(this::writeLoop, "user-journal-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    // Users as of the last snapshot plus the log. Purchased book ids are kept as they are and
+    // looked up in books when asked for; see User.getPurchasedBooks.
+    public Map<String, User> recover(LongFunction<Book> books) throws IOException {
+        Map<String, User> users = new ConcurrentHashMap<>();
+        long snapshot = latest("snapshot-");
+        if (snapshot > 0) {
+            readSnapshot(directory.resolve("snapshot-" + snapshot), users);
+        }
+        for (long g = Math.max(snapshot, 1); g < generation; g++) {
+            Path file = directory.resolve("log-" + g);
+            if (Files.exists(file)) {
+                replay(file, users);
+            }
+        }
+        for (User user : users.values()) {
+            user.journal = this;
+            user.lookUpBooksIn(books);
+        }
+        return users;
+    }
+
+    void beginMutation() {
+        checkpointLock.readLock().lock();
+    }
+
+    void endMutation() {
+        checkpointLock.readLock().unlock();
+    }
+
+    // The log* methods queue a record and return its sequence for awaitDurable.
+    // Call them between beginMutation and endMutation, right after the change is applied.
+
+    long logRegister(User user) {
+        return append(REGISTER, out -> {
+            writeString(out, user.getUsername());
+            writeString(out, user.getPassword());
+            writeString(out, user.getEmail());
+            out.writeLong(user.getBalanceCents());
+        });
+    }
+
+    long logUpdate(String oldUsername, User user) {
+        return append(UPDATE, out -> {
+            writeString(out, oldUsername);
+            writeString(out, user.getUsername());
+            writeString(out, user.getPassword());
+            writeString(out, user.getEmail());
+        });
+    }
+
+    long logPurchase(User user, Book book, long priceCents) {
+        return append(PURCHASE, out -> {
+            writeString(out, user.getUsername());
+            out.writeLong(book.getId());
+            out.writeLong(priceCents);
+        });
+    }
+
+    long logTopUp(User user, long amountCents) {
+        return append(TOP_UP, out -> {
+            writeString(out, user.getUsername());
+            out.writeLong(amountCents);
+        });
+    }
+
+    // Blocks until the record with this sequence, and everything queued before it, is on disk
+    void awaitDurable(long sequence) {
+        queueLock.lock();
+        try {
+            while (durable < sequence) {
+                if (failure != null) {
+                    throw new UncheckedIOException("User journal write failed", failure);
+                }
+                durableChanged.awaitUninterruptibly();
+            }
+        } finally {
+            queueLock.unlock();
+        }
+    }
+
+    // Writes a compact snapshot of the given users and deletes the log files it replaces.
+    // Mutations only wait while the users are copied, not while the snapshot is written.
+    public void checkpoint(Collection<User> users) throws IOException {
+        checkpointing.lock();
+        try {
+            writeCheckpoint(users);
+        } finally {
+            checkpointing.unlock();
+        }
+    }
+
+    private void writeCheckpoint(Collection<User> users) throws IOException {
+        List<Object[]> copy = new ArrayList<>(users.size());
+        long covered;
+        checkpointLock.writeLock().lock();
+        try {
+            for (User user : users) {
+                long[] bookIds = user.purchasedBookIds();
+                copy.add(new Object[]{user.getUsername(), user.getPassword(), user.getEmail(), user.getBalanceCents(), bookIds});
+            }
+            awaitDurable(lastQueued()); // everything the copy reflects goes into the log being retired
+            covered = generation;
+            log.close();
+            log = openLog(++generation);
+        } finally {
+            checkpointLock.writeLock().unlock();
+        }
+
+        Path temp = directory.resolve("snapshot.tmp");
+        try (FileOutputStream file = new FileOutputStream(temp.toFile());
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file))) {
+            out.writeInt(copy.size());
+            for (Object[] user : copy) {
+                writeString(out, (String) user[0]);
+                writeString(out, (String) user[1]);
+                writeString(out, (String) user[2]);
+                out.writeLong((Long) user[3]);
+                long[] bookIds = (long[]) user[4];
+                out.writeInt(bookIds.length);
+                for (long id : bookIds) {
+                    out.writeLong(id);
+                }
+            }
+            out.flush();
+            file.getFD().sync();
+        }
+        Files.move(temp, directory.resolve("snapshot-" + (covered + 1)), StandardCopyOption.ATOMIC_MOVE);
+        // The rename, and the new log's creation, must be on disk before the logs it replaces are gone
+        FileSync.syncDirectory(directory);
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                long g = generationOf(file, "log-");
+                long s = generationOf(file, "snapshot-");
+                if ((g > 0 && g <= covered) || (s > 0 && s <= covered)) {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+
+    // Periodic compaction, on a daemon thread owned by the journal
+    public synchronized void scheduleCheckpoints(Supplier<Collection<User>> users, long period, TimeUnit unit) {
+        if (checkpoints == null) {
+            checkpoints = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "user-journal-checkpoint");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        checkpoints.scheduleAtFixedRate(() -> {
+            try {
+                checkpoint(users.get());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e); // stops this schedule, the log keeps growing but nothing is lost
+            }
+        }, period, period, unit);
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (checkpoints != null) {
+                checkpoints.shutdownNow();
+            }
+        }
+        queueLock.lock();
+        try {
+            closed = true;
+            queued.signal();
+        } finally {
+            queueLock.unlock();
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        log.close();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private interface RecordWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private long append(byte type, RecordWriter fields) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(0); // length, patched below
+            out.writeByte(type);
+            fields.write(out);
+            out.writeInt(0); // crc, patched below
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // can't happen on a byte array
+        }
+        ByteBuffer frame = ByteBuffer.wrap(bytes.toByteArray());
+        int length = frame.capacity() - 8;
+        CRC32 crc = new CRC32();
+        crc.update(frame.array(), 4, length);
+        frame.putInt(0, length);
+        frame.putInt(4 + length, (int) crc.getValue());
+
+        queueLock.lock();
+        try {
+            if (closed) {
+                throw new IllegalStateException("User journal is closed");
+            }
+            pending.add(frame.array());
+            queued.signal();
+            return ++appended;
+        } finally {
+            queueLock.unlock();
+        }
+    }
+
+    private long lastQueued() {
+        queueLock.lock();
+        try {
+            return appended;
+        } finally {
+            queueLock.unlock();
+        }
+    }
+
+    private void writeLoop() {
+        while (true) {
+            List<byte[]> batch;
+            long last;
+            queueLock.lock();
+            try {
+                while (pending.isEmpty() && !closed) {
+                    queued.awaitUninterruptibly();
+                }
+                if (pending.isEmpty()) {
+                    return; // closed and drained
+                }
+                batch = pending;
+                pending = new ArrayList<>();
+                last = appended;
+            } finally {
+                queueLock.unlock();
+            }
+
+            IOException error = null;
+            try {
+                ByteBuffer[] buffers = new ByteBuffer[batch.size()];
+                for (int i = 0; i < buffers.length; i++) {
+                    buffers[i] = ByteBuffer.wrap(batch.get(i));
+                }
+                while (buffers[buffers.length - 1].hasRemaining()) {
+                    log.write(buffers);
+                }
+                log.force(false); // one fsync for the whole batch
+            } catch (IOException e) {
+                error = e;
+            }
+
+            queueLock.lock();
+            try {
+                if (error != null) {
+                    failure = error;
+                } else {
+                    durable = last;
+                }
+                durableChanged.signalAll();
+            } finally {
+                queueLock.unlock();
+            }
+            if (error != null) {
+                return;
+            }
+        }
+    }
+
+    private void replay(Path file, Map<String, User> users) throws IOException {
+        byte[] content = Files.readAllBytes(file);
+        ByteBuffer buffer = ByteBuffer.wrap(content);
+        while (buffer.remaining() >= 8) {
+            int length = buffer.getInt(buffer.position());
+            if (length <= 0 || buffer.remaining() < length + 8) {
+                return; // torn tail
+            }
+            CRC32 crc = new CRC32();
+            crc.update(content, buffer.position() + 4, length);
+            if ((int) crc.getValue() != buffer.getInt(buffer.position() + 4 + length)) {
+                return; // corrupt record, nothing after it can be trusted
+            }
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(content, buffer.position() + 4, length));
+            apply(in, users);
+            buffer.position(buffer.position() + length + 8);
+        }
+    }
+
+    private static void apply(DataInputStream in, Map<String, User> users) throws IOException {
+        switch (in.readByte()) {
+            case REGISTER: {
+                String username = readString(in);
+                User user = new User(username, readString(in), readString(in));
+                user.setBalanceCents(in.readLong());
+                users.putIfAbsent(username, user);
+                break;
+            }
+            case UPDATE: {
+                User user = users.remove(readString(in));
+                if (user != null) {
+                    user.setUsername(readString(in));
+                    user.setPassword(readString(in));
+                    user.setEmail(readString(in));
+                    users.put(user.getUsername(), user);
+                }
+                break;
+            }
+            case PURCHASE: {
+                User user = users.get(readString(in));
+                long bookId = in.readLong();
+                long priceCents = in.readLong();
+                if (user != null) {
+                    user.setBalanceCents(user.getBalanceCents() - priceCents);
+                    user.addPurchasedBookId(bookId);
+                }
+                break;
+            }
+            case TOP_UP: {
+                User user = users.get(readString(in));
+                long amountCents = in.readLong();
+                if (user != null) {
+                    user.setBalanceCents(user.getBalanceCents() + amountCents);
+                }
+                break;
+            }
+            default:
+                throw new IOException("Unknown user journal record");
+        }
+    }
+
+    private static void readSnapshot(Path file, Map<String, User> users) throws IOException {
+        try (InputStream stream = Files.newInputStream(file);
+             DataInputStream in = new DataInputStream(new BufferedInputStream(stream))) {
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                User user = new User(readString(in), readString(in), readString(in));
+                user.setBalanceCents(in.readLong());
+                int purchased = in.readInt();
+                for (int j = 0; j < purchased; j++) {
+                    user.addPurchasedBookId(in.readLong());
+                }
+                users.put(user.getUsername(), user);
+            }
+        } catch (EOFException e) {
+            throw new IOException("Truncated user snapshot " + file, e);
+        }
+    }
+
+    private FileChannel openLog(long generation) throws IOException {
+        return FileChannel.open(directory.resolve("log-" + generation),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private long latest(String prefix) throws IOException {
+        long latest = 0;
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                latest = Math.max(latest, generationOf(file, prefix));
+            }
+        }
+        return latest;
+    }
+
+    private static long generationOf(Path file, String prefix) {
+        String name = file.getFileName().toString();
+        if (!name.startsWith(prefix)) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(name.substring(prefix.length()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
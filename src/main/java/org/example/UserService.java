@@ -1,53 +1,407 @@
 package org.example;
 
+import java.io.IOException;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongFunction;
 
 public class UserService {
+    private static final int LOCK_STRIPES = 64; // power of two, see lockIndex()
+
     // A simple map to simulate a database
     private Map<String, User> userDatabase = new HashMap<>();
+    // Register and rename are check-then-act, so writers on the same username share a stripe.
+    // Logins never take these locks.
+    private final Object[] locks = new Object[LOCK_STRIPES];
+    private UserJournal userJournal; // null keeps users in memory only
+    // Off-heap mode: users live here instead of userDatabase, see offHeap()
+    private OffHeapUserTable offHeapUsers;
+    private LongFunction<Book> books; // where users materialized from offHeapUsers look up their purchases
+    private volatile PasswordHasher passwordHasher; // null keeps passwords in plaintext
+    private volatile LoginCache loginCache;
+    private volatile String unknownUserHash; // checked for unknown usernames, so they cost as much as a wrong password
+    private volatile Metrics metrics = Metrics.DISABLED;
+    private volatile ChangeFeed changeFeed; // null publishes nothing
 
     public UserService() {
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    public UserService(Map<String, User> userDatabase) {
+        this();
+        this.userDatabase = userDatabase;
+    }
+
+    // Thread-safe mode: logins read a ConcurrentHashMap without blocking,
+    // register and rename are atomic per username.
+    public static UserService concurrent() {
+        return new UserService(new ConcurrentHashMap<>());
     }
 
-//    public UserService(Map<String, User> mockUserDatabase) {
-//    }
+    // Whether this service is safe to share between threads, see concurrent()
+    boolean isConcurrent() {
+        return offHeapUsers != null || userDatabase instanceof ConcurrentMap;
+    }
+
+    // Thread-safe mode for user bases too large to keep as User objects: users are kept in an
+    // OffHeapUserTable and materialized on login. The User a login returns is a view: purchases
+    // and top-ups through any view of a user land in the table. Its username, password and email
+    // are a copy, changed with updateUserProfile like in the other modes. Purchased books are
+    // looked up by id, e.g. with bookService::getBook. Users are in memory only, with no journal.
+    public static UserService offHeap(int expectedUsers, LongFunction<Book> books) {
+        UserService service = concurrent();
+        service.offHeapUsers = new OffHeapUserTable(expectedUsers);
+        service.books = books;
+        return service;
+    }
+
+    // Concurrent service that recovers its users from the journal and logs every later change to it.
+    // Purchased books are looked up by id, e.g. with bookService::getBook.
+    public static UserService open(UserJournal journal, LongFunction<Book> books) throws IOException {
+        UserService service = new UserService(journal.recover(books));
+        service.userJournal = journal;
+        return service;
+    }
+
+    // Snapshots the current users so recovery no longer has to replay the log up to here
+    public void checkpoint() throws IOException {
+        if (userJournal == null) {
+            throw new IllegalStateException("UserService has no journal");
+        }
+        userJournal.checkpoint(userDatabase.values());
+    }
+
+    public void scheduleCheckpoints(long period, TimeUnit unit) {
+        if (userJournal == null) {
+            throw new IllegalStateException("UserService has no journal");
+        }
+        userJournal.scheduleCheckpoints(userDatabase::values, period, unit);
+    }
+
+    // From now on passwords are stored as salted hashes and checked with the hasher. Users already
+    // registered keep their plaintext password until they change it. Recent successful logins are
+    // remembered for 5 minutes, up to 10,000 users, so repeat logins skip the slow hash.
+    public void setPasswordHasher(PasswordHasher passwordHasher) {
+        setPasswordHasher(passwordHasher, new LoginCache(10_000, 5, TimeUnit.MINUTES));
+    }
+
+    void setPasswordHasher(PasswordHasher passwordHasher, LoginCache loginCache) {
+        this.loginCache = loginCache;
+        this.unknownUserHash = passwordHasher.hash(UUID.randomUUID().toString());
+        this.passwordHasher = passwordHasher;
+    }
+
+    public void setMetrics(Metrics metrics) {
+        this.metrics = metrics;
+        metrics.gauge("users", () -> offHeapUsers == null ? userDatabase.size() : offHeapUsers.size());
+    }
+
+    // Publishes every later registration and profile update to the feed, while the username's
+    // stripe is held, so changes to one username reach the feed in order
+    public void setChangeFeed(ChangeFeed changeFeed) {
+        this.changeFeed = changeFeed;
+    }
 
     public boolean registerUser(User user) {
-        if (userDatabase.containsKey(user.getUsername())) {
-            return false; // User already exists
+        long start = metrics.start();
+        try {
+            // Before taking the stripe, the hash is the slow part. The user only gets it once registered.
+            String password = hashPassword(user.getPassword());
+            long logged = 0;
+            beginMutation();
+            try {
+                synchronized (locks[lockIndex(user.getUsername())]) {
+                    if (!store(user, password)) {
+                        return false; // User already exists
+                    }
+                    logged = logRegister(user);
+                    if (changeFeed != null) {
+                        publish(ChangeEvent.userRegistered(user));
+                    }
+                }
+            } finally {
+                endMutation();
+            }
+            awaitDurable(logged);
+            return true; // User registered successfully
+        } finally {
+            metrics.record(Metrics.Operation.REGISTER_USER, start);
         }
+    }
 
-        userDatabase.put(user.getUsername(), user);
-        return true; // User registered successfully
+    // Registers a whole batch in one pass. result[i] tells whether the i-th user was registered,
+    // false for nulls, usernames already taken and repeats within the batch.
+    // All stripes are held while the batch is checked and stored, so no single
+    // registration can slip in between, and putAll presizes the map once.
+    public boolean[] registerUsers(Collection<User> users) {
+        boolean[] result = new boolean[users.size()];
+        Map<String, User> accepted = new LinkedHashMap<>(BookService.capacityFor(users.size()));
+        long[] logged = new long[1];
+        Map<User, String> passwords = new IdentityHashMap<>(BookService.capacityFor(users.size()));
+        for (User user : users) {
+            if (user != null && !containsUser(user.getUsername())) { // usernames taken already aren't worth a hash
+                passwords.put(user, hashPassword(user.getPassword()));
+            }
+        }
+        beginMutation();
+        try {
+            lockAll(0, () -> {
+                int i = 0;
+                for (User user : users) {
+                    result[i++] = user != null
+                            && passwords.containsKey(user)
+                            && !containsUser(user.getUsername())
+                            && accepted.putIfAbsent(user.getUsername(), user) == null;
+                }
+                if (offHeapUsers == null) {
+                    for (User user : accepted.values()) {
+                        user.setPassword(passwords.get(user));
+                    }
+                    userDatabase.putAll(accepted);
+                } else {
+                    for (User user : accepted.values()) {
+                        store(user, passwords.get(user));
+                    }
+                }
+                for (User user : accepted.values()) {
+                    logged[0] = logRegister(user);
+                    if (changeFeed != null) {
+                        publish(ChangeEvent.userRegistered(user));
+                    }
+                }
+            });
+        } finally {
+            endMutation();
+        }
+        awaitDurable(logged[0]); // the whole batch shares one wait
+        return result;
     }
 
-    public User loginUser(String username, String password) {
+    // Adds funds to a registered user's balance, e.g. through Server's operator-only /topup; the
+    // server never lets a caller pick their own starting balance. false if there is no such user.
+    public boolean topUp(String username, long amountCents) {
+        if (amountCents <= 0) {
+            throw new IllegalArgumentException("amount must be positive");
+        }
+        if (offHeapUsers != null) {
+            return username != null && offHeapUsers.credit(username, amountCents) != OffHeapUserTable.NO_USER;
+        }
         User user = userDatabase.get(username);
-
         if (user == null) {
+            return false;
+        }
+        user.credit(amountCents);
+        return true;
+    }
+
+    public User loginUser(String username, String password) {
+        long start = metrics.start();
+        try {
+            return login(username, password);
+        } finally {
+            metrics.record(Metrics.Operation.LOGIN_USER, start);
+        }
+    }
+
+    private User login(String username, String password) {
+        User user = offHeapUsers == null ? userDatabase.get(username) : null;
+        String stored = offHeapUsers == null ? (user == null ? null : user.getPassword()) : offHeapUsers.password(username);
+
+        PasswordHasher hasher = passwordHasher;
+        if (stored == null) {
+            if (hasher != null && password != null) {
+                hasher.matches(password, unknownUserHash); // as slow as a wrong password, so timing can't tell the two apart
+            }
             return null; // User not found
         }
 
-        if (!user.getPassword().equals(password)) {
+        if (hasher == null) {
+            if (!stored.equals(password)) {
+                return null; // Wrong password
+            }
+            return loggedIn(user, username); // Login successful
+        }
+
+        if (password == null) {
             return null; // Wrong password
         }
+        if (loginCache.verified(username, stored, password)) {
+            return loggedIn(user, username); // Verified recently, no need to hash again
+        }
+        if (!hasher.matches(password, stored)) {
+            return null; // Wrong password
+        }
+        loginCache.put(username, stored, password);
+        return loggedIn(user, username); // Login successful
+    }
 
-        return user; // Login successful
+    // The heap user, or a fresh view of the off-heap one; null if it was renamed since the check
+    private User loggedIn(User user, String username) {
+        if (user != null) {
+            return user;
+        }
+        User view = offHeapUsers.getUser(username);
+        if (view != null) {
+            view.lookUpBooksIn(books);
+        }
+        return view;
     }
 
     public boolean updateUserProfile(User user, String newUsername, String newPassword, String newEmail) {
-        // logic to update user profile
-        if (userDatabase.containsKey(newUsername)) {
-            return false; // New username is already taken
-        }
+        String password = hashPassword(newPassword);
+        String oldUsername;
+        long logged = 0;
+        beginMutation();
+        try {
+            while (true) {
+                oldUsername = user.getUsername();
+                // Lock both usernames, always lower stripe first so two opposite renames cannot deadlock
+                int oldLock = lockIndex(oldUsername);
+                int newLock = lockIndex(newUsername);
+                synchronized (locks[Math.min(oldLock, newLock)]) {
+                    synchronized (locks[Math.max(oldLock, newLock)]) {
+                        if (!Objects.equals(user.getUsername(), oldUsername)) {
+                            continue; // renamed while we waited, its current name may be on another stripe
+                        }
+                        // The user's lock too, so a purchase logs either the old name before the
+                        // update record or the new one after it, and replay finds the user either way
+                        synchronized (user) {
+                            // logic to update user profile
+                            if (offHeapUsers != null) {
+                                if (!offHeapUsers.updateUser(oldUsername, newUsername, password, newEmail)) {
+                                    return false; // New username is already taken, or the user is gone
+                                }
+                            } else if (userDatabase.containsKey(newUsername)) {
+                                return false; // New username is already taken
+                            }
 
-        user.setUsername(newUsername);
-        user.setPassword(newPassword);
-        user.setEmail(newEmail);
+                            String oldEmail = user.getEmail();
+                            user.setUsername(newUsername);
+                            user.setPassword(password);
+                            user.setEmail(newEmail);
 
-        userDatabase.put(newUsername, user);
+                            if (offHeapUsers == null) {
+                                userDatabase.put(newUsername, user);
+                                if (oldUsername != null) {
+                                    userDatabase.remove(oldUsername, user); // Drop the old key so it doesn't linger as a stale entry
+                                }
+                            }
+                            if (userJournal != null) {
+                                logged = userJournal.logUpdate(oldUsername, user);
+                            }
+                            if (changeFeed != null) {
+                                publish(ChangeEvent.userUpdated(user, oldUsername, oldEmail));
+                            }
+                        }
+                        break;
+                    }
+                }
+            }
+        } finally {
+            endMutation();
+        }
+        if (loginCache != null) {
+            loginCache.invalidate(oldUsername); // would miss anyway, the stored hash changed
+        }
+        awaitDurable(logged);
         return true; // User profile updated successfully
     }
 
-}
\ No newline at end of file
+    private boolean containsUser(String username) {
+        return offHeapUsers == null ? userDatabase.containsKey(username) : offHeapUsers.containsUser(username);
+    }
+
+    // Stores a new user under the password as it is to be kept, false if the username is taken.
+    // Off the heap, the user becomes a view of the table.
+    private boolean store(User user, String password) {
+        if (offHeapUsers == null) {
+            if (userDatabase.containsKey(user.getUsername())) {
+                return false;
+            }
+            user.setPassword(password);
+            userDatabase.put(user.getUsername(), user);
+            return true;
+        }
+        if (!offHeapUsers.registerUser(user.getUsername(), password, user.getEmail(), user.getBalanceCents(), user.purchasedBookIds())) {
+            return false;
+        }
+        user.setPassword(password);
+        user.table = offHeapUsers;
+        user.lookUpBooksIn(books);
+        return true;
+    }
+
+    // Callers check changeFeed first, so without a feed no event is even built
+    private void publish(ChangeEvent event) {
+        ChangeFeed feed = changeFeed;
+        if (feed != null) {
+            feed.publish(event);
+        }
+    }
+
+    // Whatever the caller passes is a password, even if it looks like a hash; storing it verbatim
+    // would let a caller choose the stored hash.
+    private String hashPassword(String password) {
+        PasswordHasher hasher = passwordHasher;
+        if (hasher == null || password == null) {
+            return password; // plaintext mode
+        }
+        return hasher.hash(password);
+    }
+
+    // Journal hooks, no-ops without a journal.
+    // Records are queued while the stripe is held and waited for after it is released,
+    // so concurrent writers end up sharing one fsync.
+
+    private void beginMutation() {
+        if (userJournal != null) {
+            userJournal.beginMutation();
+        }
+    }
+
+    private void endMutation() {
+        if (userJournal != null) {
+            userJournal.endMutation();
+        }
+    }
+
+    private long logRegister(User user) {
+        if (userJournal == null) {
+            return 0;
+        }
+        user.journal = userJournal;
+        return userJournal.logRegister(user);
+    }
+
+    private void awaitDurable(long logged) {
+        if (userJournal != null && logged > 0) {
+            userJournal.awaitDurable(logged);
+        }
+    }
+
+    // Takes every stripe in index order, the same order updateUserProfile uses
+    private void lockAll(int stripe, Runnable action) {
+        if (stripe == locks.length) {
+            action.run();
+            return;
+        }
+        synchronized (locks[stripe]) {
+            lockAll(stripe + 1, action);
+        }
+    }
+
+    private static int lockIndex(String username) {
+        int h = Objects.hashCode(username);
+        return (h ^ (h >>> 16)) & (LOCK_STRIPES - 1);
+    }
+}
@@ -0,0 +1,43 @@
+package org.example;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.function.Function;
+
+// Hash index from the exact value of one Book field to the books holding it, in catalog order.
+// Written by one catalog writer at a time, read concurrently without locks.
+class ValueIndex {
+    private static final Object NO_VALUE = new Object(); // key for books whose field is null
+
+    private final Function<Book, String> field;
+    private final Map<Object, NavigableSet<Book>> books = new ConcurrentHashMap<>();
+
+    ValueIndex(Function<Book, String> field) {
+        this.field = field;
+    }
+
+    void add(Book book) {
+        books.computeIfAbsent(key(field.apply(book)), value -> new ConcurrentSkipListSet<>(BookIndex.BY_SEQUENCE)).add(book);
+    }
+
+    void remove(Book book) {
+        Object value = key(field.apply(book));
+        NavigableSet<Book> matches = books.get(value);
+        if (matches != null && matches.remove(book) && matches.isEmpty()) {
+            books.remove(value, matches);
+        }
+    }
+
+    List<Book> find(String value) {
+        NavigableSet<Book> matches = books.get(key(value));
+        return matches == null ? new ArrayList<>() : new ArrayList<>(matches);
+    }
+
+    private static Object key(String value) {
+        return value == null ? NO_VALUE : value;
+    }
+}
@@ -0,0 +1,30 @@
+package org.example;
+
+import java.util.Arrays;
+import java.util.Random;
+
+// Draws ranks 0..n-1 with P(rank k) proportional to 1 / (k + 1)^exponent, by binary search over
+// the cumulative distribution
+final class ZipfSampler {
+    private final double[] cumulative;
+
+    ZipfSampler(int n, double exponent) {
+        if (n < 1) {
+            throw new IllegalArgumentException("n must be positive");
+        }
+        cumulative = new double[n];
+        double sum = 0;
+        for (int k = 0; k < n; k++) {
+            sum += 1 / Math.pow(k + 1, exponent);
+            cumulative[k] = sum;
+        }
+        for (int k = 0; k < n; k++) {
+            cumulative[k] /= sum;
+        }
+    }
+
+    int sample(Random random) {
+        int found = Arrays.binarySearch(cumulative, random.nextDouble());
+        return Math.min(found >= 0 ? found : -found - 1, cumulative.length - 1);
+    }
+}
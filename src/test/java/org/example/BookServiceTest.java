@@ -1,26 +1,24 @@
 package org.example;
 
 import org.junit.jupiter.api.*;
-import org.mockito.InjectMocks;
-import org.mockito.Mock;
-import org.mockito.MockitoAnnotations;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
 import static org.junit.jupiter.api.Assertions.*;
-import static org.mockito.Mockito.*;
 
 @DisplayName("Testing BookService Class")
 public class BookServiceTest {
 
-    @Mock
-    private List<Book> bookDatabase;
-
-    @InjectMocks
     private BookService bookService;
 
     @BeforeEach
     public void setUp() {
-        MockitoAnnotations.initMocks(this);
+        // The catalog is a hash store keyed by book id, so every test starts from a fresh, real service.
+        bookService = new BookService();
     }
 
     @BeforeAll
@@ -39,6 +37,11 @@ public class BookServiceTest {
         bookService = null;
     }
 
+    // Adds the books through the service, so the search index picks them up
+    private void addToCatalog(List<Book> books) {
+        books.forEach(bookService::addBook);
+    }
+
     // Test searchBook()
     @Test
     @DisplayName("Search Book by Title - Positive Match")
@@ -48,7 +51,7 @@ public class BookServiceTest {
         List<Book> books = new ArrayList<>();
         books.add(book1);
         books.add(book2);
-        when(bookDatabase.stream()).thenReturn(books.stream());
+        addToCatalog(books);
 
         List<Book> results = bookService.searchBook("Book1");
         assertEquals(1, results.size());
@@ -63,7 +66,7 @@ public class BookServiceTest {
         List<Book> books = new ArrayList<>();
         books.add(book1);
         books.add(book2);
-        when(bookDatabase.stream()).thenReturn(books.stream());
+        addToCatalog(books);
 
         List<Book> results = bookService.searchBook("Author2");
         assertEquals(1, results.size());
@@ -78,7 +81,7 @@ public class BookServiceTest {
         List<Book> books = new ArrayList<>();
         books.add(book1);
         books.add(book2);
-        when(bookDatabase.stream()).thenReturn(books.stream());
+        addToCatalog(books);
 
         List<Book> results = bookService.searchBook("Mystery");
         assertEquals(1, results.size());
@@ -93,7 +96,7 @@ public class BookServiceTest {
         List<Book> books = new ArrayList<>();
         books.add(book1);
         books.add(book2);
-        when(bookDatabase.stream()).thenReturn(books.stream());
+        addToCatalog(books);
 
         List<Book> results = bookService.searchBook("Author1");
         assertEquals(1, results.size());
@@ -110,7 +113,7 @@ public class BookServiceTest {
         List<Book> books = new ArrayList<>();
         books.add(book1);
         books.add(book2);
-        when(bookDatabase.stream()).thenReturn(books.stream());
+        addToCatalog(books);
 
         // Searching books of Author1
         List<Book> results = bookService.searchBook("Author1");
@@ -128,7 +131,7 @@ public class BookServiceTest {
         List<Book> books = new ArrayList<>();
         books.add(book1);
         books.add(book2);
-        when(bookDatabase.stream()).thenReturn(books.stream());
+        addToCatalog(books);
 
         List<Book> searchResult = bookService.searchBook("Nonexistent Book");
         assertTrue(searchResult.isEmpty());
@@ -137,23 +140,189 @@ public class BookServiceTest {
     @Test
     @DisplayName("Search Book - Empty Database- Edge case")
     public void searchBookEmptyDatabase() {
-        List<Book> books = new ArrayList<>();
-        // Mock up empty database
-        when(bookDatabase.stream()).thenReturn(books.stream());
+        // No books are added, so the database is empty
 
         // searching empty DB, searchResult should be empty.
         List<Book> searchResult = bookService.searchBook("Mystery");
         assertTrue(searchResult.isEmpty());
     }
 
+    @Test
+    @DisplayName("Search Book - Substring Match")
+    public void searchBookSubstring() {
+        Book book1 = new Book("Nineteen Eighty-Four", "George Orwell", "Dystopian", 9.99);
+        Book book2 = new Book("Animal Farm", "George Orwell", "Satire", 7.99);
+        bookService.addBook(book1);
+        bookService.addBook(book2);
+
+        // "Eighty" is only part of a title word, "or" matches both authors, "Farm" only one title.
+        assertEquals(List.of(book1), bookService.searchBook("Eighty"));
+        assertEquals(List.of(book1, book2), bookService.searchBook("or"));
+        assertEquals(List.of(book2), bookService.searchBook("Farm"));
+        assertTrue(bookService.searchBook("Orwellian").isEmpty());
+    }
+
+    @Test
+    @DisplayName("Search Book - Keywords shorter than a trigram")
+    public void searchBookShortKeyword() {
+        Book book1 = new Book("It", "Stephen King", "Horror", 9.99);
+        Book book2 = new Book("Ulysses", null, "Fiction", 12.00);
+        Book book3 = new Book("Fire and Blood", "George R. R. Martin", "Fantasy", 10.00);
+        bookService.addBooks(List.of(book1, book2, book3));
+
+        // Too short for the trigram index, so the catalog is scanned; a null field just doesn't match.
+        assertEquals(List.of(book1), bookService.searchBook("It"));
+        assertEquals(List.of(book2, book3), bookService.searchBook("Fi"));
+        assertEquals(List.of(book3, book2), bookService.searchBook("Fi", 0, 10));
+        assertEquals(List.of(book2, book3), bookService.searchBookStream("Fi").collect(Collectors.toList()));
+        assertEquals(List.of(book1, book2, book3), bookService.searchBook("n"));
+    }
+
+    @Test
+    @DisplayName("Search Book - Index follows setters and removal")
+    public void searchBookAfterUpdate() {
+        Book book1 = new Book("Book1", "Author1", "Mystery", 22);
+        bookService.addBook(book1);
+
+        // Changing the title should drop the old title from the index and add the new one.
+        book1.setTitle("Renamed");
+        assertTrue(bookService.searchBook("Book1").isEmpty());
+        assertEquals(List.of(book1), bookService.searchBook("Renamed"));
+
+        // Once removed, the book should not be found anymore.
+        assertTrue(bookService.removeBook(book1));
+        assertTrue(bookService.searchBook("Renamed").isEmpty());
+    }
+
+    @Test
+    @DisplayName("Search Book - Ranked with offset and limit")
+    public void searchBookRanked() {
+        // "Fiction" shows up in a genre, an author and a title, added in that order.
+        Book genreMatch = new Book("Book1", "Author1", "Fiction", 10);
+        Book authorMatch = new Book("Book2", "Fiction Writer", "Mystery", 10);
+        Book titleMatch = new Book("Fiction Book", "Author3", "Fantasy", 10);
+        Book noMatch = new Book("Book4", "Author4", "Poetry", 10);
+        Book secondTitleMatch = new Book("More Fiction", "Author5", "Fiction", 10);
+        bookService.addBooks(List.of(genreMatch, authorMatch, titleMatch, noMatch, secondTitleMatch));
+
+        // Title matches rank first, then author, then genre, each in catalog order.
+        assertEquals(List.of(titleMatch, secondTitleMatch, authorMatch, genreMatch),
+                bookService.searchBook("Fiction", 0, 10));
+        assertEquals(List.of(titleMatch, secondTitleMatch), bookService.searchBook("Fiction", 0, 2));
+        assertEquals(List.of(authorMatch), bookService.searchBook("Fiction", 2, 1));
+        assertTrue(bookService.searchBook("Fiction", 4, 10).isEmpty());
+        // the empty keyword pages through the whole catalog
+        assertEquals(List.of(authorMatch, titleMatch), bookService.searchBook("", 1, 2));
+    }
+
+    @Test
+    @DisplayName("Search Book - Streamed results")
+    public void searchBookStream() {
+        Book book1 = new Book("Book1", "Author1", "Mystery", 22);
+        Book book2 = new Book("Mystery Book", "Author2", "Fantasy", 15);
+        Book book3 = new Book("Book3", "Mystery Writer", "Mystery", 15);
+        Book book4 = new Book("Book4", "Author4", "Poetry", 15);
+        bookService.addBooks(List.of(book1, book2, book3, book4));
+
+        // Every match once, in catalog order, even when a book matches in several fields.
+        assertEquals(List.of(book1, book2, book3), bookService.searchBookStream("Mystery").collect(Collectors.toList()));
+        assertEquals(bookService.searchBook("o"), bookService.searchBookStream("o").collect(Collectors.toList()));
+        // only pulls as much as asked for
+        Iterator<Book> matches = bookService.searchBookIterator("Book");
+        assertEquals(book1, matches.next());
+        assertEquals(book2, matches.next());
+        assertFalse(bookService.searchBookIterator("Nonexistent").hasNext());
+    }
+
+    @Test
+    @DisplayName("Search Book - Parallel scan on a dedicated pool")
+    public void searchBookParallel() {
+        // Big enough to be split into several segments.
+        List<Book> books = new ArrayList<>();
+        for (int i = 0; i < 100_000; i++) {
+            books.add(new Book("Book" + i, "Author" + (i % 97), i % 3 == 0 ? "Mystery" : "Fantasy", 10));
+        }
+        bookService.addBooks(books);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            bookService.setSearchPool(pool);
+            // Same results, in the same order, as the indexed search.
+            assertEquals(bookService.searchBook("Author42"), bookService.searchBookParallel("Author42"));
+            assertEquals(bookService.searchBook("99"), bookService.searchBookParallel("99"));
+            assertEquals(List.of(books.get(4), books.get(40_000)),
+                    bookService.filterBooks(book -> book.getTitle().equals("Book4") || book.getTitle().equals("Book40000")));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    @DisplayName("Search Book - Ignoring case and accents")
+    public void searchBookIgnoreCase() {
+        Book book1 = new Book("1984", "George Orwell", "Dystopian", 9.99);
+        Book book2 = new Book("Cien años de soledad", "Gabriel García Márquez", "Fiction", 11.00);
+        bookService.addBooks(List.of(book1, book2));
+
+        assertEquals(List.of(book1), bookService.searchBookIgnoreCase("orwell"));
+        assertEquals(List.of(book2), bookService.searchBookIgnoreCase("GARCIA MARQUEZ"));
+        assertEquals(List.of(book2), bookService.searchBookIgnoreCase("Años"));
+        assertTrue(bookService.searchBookIgnoreCase("tolstoy").isEmpty());
+        // the folded form follows the setters
+        book1.setAuthor("Éric Blair");
+        assertEquals(List.of(book1), bookService.searchBookIgnoreCase("eric"));
+        assertTrue(bookService.searchBookIgnoreCase("orwell").isEmpty());
+    }
+
+    @Test
+    @DisplayName("Find Books - By genre, author and price range")
+    public void findBooksSecondaryIndexes() {
+        Book book1 = new Book("1984", "George Orwell", "Dystopian", 9.99);
+        Book book2 = new Book("Animal Farm", "George Orwell", "Satire", 4.99);
+        Book book3 = new Book("Brave New World", "Aldous Huxley", "Dystopian", 15.00);
+        Book book4 = new Book("We", "Yevgeny Zamyatin", "Dystopian", 15.01);
+        bookService.addBooks(List.of(book1, book2, book3, book4));
+
+        assertEquals(List.of(book1, book3, book4), bookService.findBooksByGenre("Dystopian"));
+        assertEquals(List.of(book1, book2), bookService.findBooksByAuthor("George Orwell"));
+        // exact author only, unlike searchBook
+        assertTrue(bookService.findBooksByAuthor("Orwell").isEmpty());
+        // both ends are inclusive, cheapest first
+        assertEquals(List.of(book1, book3), bookService.findBooksByPrice(5, 15));
+
+        // Setters and removal keep every index up to date.
+        book2.setGenre("Dystopian");
+        book1.setPrice(20);
+        bookService.removeBook(book4);
+        assertEquals(List.of(book1, book2, book3), bookService.findBooksByGenre("Dystopian"));
+        assertEquals(List.of(book3), bookService.findBooksByPrice(5, 15));
+        assertEquals(List.of(book2, book3, book1), bookService.findBooksByPrice(0, 100));
+    }
+
+    @Test
+    @DisplayName("Find Books - Price range across many index chunks")
+    public void findBooksByPriceLargeCatalog() {
+        List<Book> books = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            books.add(new Book("Book" + i, "Author", "Genre", (i % 1000) / 10.0));
+        }
+        bookService.addBooks(books);
+        // Every 1000th book shares a price, so each price has 5 books.
+        List<Book> range = bookService.findBooksByPrice(10, 10.5);
+        assertEquals(30, range.size());
+        assertEquals(books.get(100), range.get(0));
+        assertEquals(books.get(4105), range.get(29));
+        bookService.removeBooks(books.subList(0, 2500));
+        assertEquals(12, bookService.findBooksByPrice(10, 10.5).size());
+    }
+
     // Testing purchaseBook()
 
     @Test
     public void purchaseBookPositive() {
         Book book1 = new Book("Book1", "author1", "Mystery", 20.00);
         User user = new User("user1", "abcd1234", "user1@gmail.com", 25);
-        // Setup mock behaviour to return book exists. and then purchase the book.
-        when(bookDatabase.contains(book1)).thenReturn(true);
+        // Add the book so it exists in the database, and then purchase the book.
+        bookService.addBook(book1);
         boolean result = bookService.purchaseBook(user, book1);
 
         // assert the book purchase is successful.
@@ -164,8 +333,7 @@ public class BookServiceTest {
     public void purchaseBookNegative() {
         Book book1 = new Book("Book1", "author1", "Mystery", 20.00);
         User user = new User("user1", "abcd1234", "user1@gmail.com", 30);
-        //   Setup mock behaviour to return book does not exists. and then show book purchase failed.
-        when(bookDatabase.contains(book1)).thenReturn(false);
+        //   The book is never added, so it does not exist and the book purchase should fail.
         boolean result = bookService.purchaseBook(user, book1);
         assertFalse(result);
     }
@@ -175,8 +343,8 @@ public class BookServiceTest {
     public void purchaseBookInsufficientFunds() {
         Book book1 = new Book("Book1", "author1", "Mystery", 20.00);
         User user = new User("user1", "abcd1234", "user1@gmail.com");
-        // Setup mock behavior to return book exists.
-        when(bookDatabase.contains(book1)).thenReturn(true);
+        // Add the book so it exists in the database.
+        bookService.addBook(book1);
         // Set user's balance to a lower value than the book price
         user.setBalance(10.00);
         boolean result = bookService.purchaseBook(user, book1);
@@ -185,34 +353,305 @@ public class BookServiceTest {
         assertFalse(result);
     }
 
+    @Test
+    @DisplayName("Purchase Book - Balance is debited and book recorded")
+    public void purchaseBookDebitsBalance() {
+        Book book1 = new Book("Book1", "author1", "Mystery", 20.00);
+        User user = new User("user1", "abcd1234", "user1@gmail.com", 45.50);
+        bookService.addBook(book1);
+
+        // Two purchases fit into the balance, the third one doesn't.
+        assertTrue(bookService.purchaseBook(user, book1));
+        assertTrue(bookService.purchaseBook(user, book1));
+        assertFalse(bookService.purchaseBook(user, book1));
+        assertEquals(550, user.getBalanceCents());
+        assertEquals(5.50, user.getBalance());
+        assertEquals(List.of(book1, book1), user.getPurchasedBooks()); // one entry per purchase
+    }
+
+    @Test
+    @DisplayName("Purchase Book - Concurrent purchases never overspend")
+    public void purchaseBookConcurrent() throws InterruptedException {
+        Book book1 = new Book("Book1", "author1", "Mystery", 1.00);
+        User user = new User("user1", "abcd1234", "user1@gmail.com", 50.00);
+        bookService.addBook(book1);
+
+        // 8 threads try 20 purchases each, but the balance only covers 50 of them.
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(() -> {
+                for (int j = 0; j < 20; j++) {
+                    bookService.purchaseBook(user, book1);
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(0, user.getBalanceCents());
+        assertEquals(Collections.nCopies(50, book1), user.getPurchasedBooks());
+    }
+
+    @Test
+    @DisplayName("Purchase Book - Purchased books can be read while purchases go on")
+    public void purchasedBooksReadDuringPurchases() throws InterruptedException {
+        List<Book> books = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) {
+            books.add(new Book("Book" + i, "author", "Mystery", 0.01));
+        }
+        User user = new User("user1", "abcd1234", "user1@gmail.com", 100.00);
+        bookService.addBooks(books);
+
+        Thread buyer = new Thread(() -> {
+            for (Book book : books) {
+                bookService.purchaseBook(user, book);
+            }
+        });
+        buyer.start();
+        // Every read is a copy, so iterating it never races with a purchase being recorded.
+        int last = 0;
+        while (buyer.isAlive()) {
+            List<Book> purchased = user.getPurchasedBooks();
+            assertEquals(books.subList(0, purchased.size()), purchased); // bought in catalog order
+            assertTrue(purchased.size() >= last);
+            last = purchased.size();
+        }
+        buyer.join();
+        assertEquals(books, user.getPurchasedBooks());
+
+        // The purchases are ids, looked up in the catalog, which keeps the books it sold.
+        bookService.removeBook(books.get(0));
+        assertEquals(books, user.getPurchasedBooks());
+    }
+
+    @Test
+    @DisplayName("Purchase Book - Purchases are listed in purchase order and outlive the book's removal")
+    public void purchasedBooksInPurchaseOrder() {
+        Book book1 = new Book("Book1", "author1", "Mystery", 1.00);
+        Book book2 = new Book("Book2", "author2", "Mystery", 1.00);
+        Book unsold = new Book("Book3", "author3", "Mystery", 1.00);
+        User user = new User("user1", "abcd1234", "user1@gmail.com", 10.00);
+        bookService.addBooks(List.of(book1, book2, unsold));
+
+        assertTrue(bookService.purchaseBook(user, book2));
+        assertTrue(bookService.purchaseBook(user, book1));
+        assertTrue(bookService.purchaseBook(user, book2));
+        assertEquals(List.of(book2, book1, book2), user.getPurchasedBooks());
+
+        // A removed book is listed as it was when it was removed.
+        book2.setTitle("Book2, 2nd edition");
+        assertTrue(bookService.removeBook(book2));
+        assertTrue(bookService.removeBook(unsold));
+        assertEquals(List.of(book2, book1, book2), user.getPurchasedBooks());
+        assertEquals("Book2, 2nd edition", user.getPurchasedBooks().get(0).getTitle());
+        assertNull(bookService.getBook(book2.getId()));
+
+        // Added back, it is listed from the catalog again.
+        assertTrue(bookService.addBook(book2));
+        assertEquals(List.of(book2, book1, book2), user.getPurchasedBooks());
+    }
+
+    @Test
+    @DisplayName("Search Book - Readers keep working while books are imported and removed")
+    public void searchBookDuringImport() throws InterruptedException {
+        List<Book> batch = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            batch.add(new Book("Book" + i, "author" + i, "Mystery", 1.00));
+        }
+        List<Throwable> failures = new ArrayList<>();
+
+        // The writer keeps importing and removing the batch while a reader streams the catalog.
+        Thread writer = new Thread(() -> {
+            for (int round = 0; round < 50; round++) {
+                bookService.addBooks(batch);
+                bookService.removeBooks(batch);
+            }
+        });
+        Thread reader = new Thread(() -> {
+            try {
+                while (writer.isAlive()) {
+                    // A scan sees a whole batch or none of it, never half an import.
+                    int size = bookService.searchBookStream("").collect(Collectors.toList()).size();
+                    assertTrue(size == 0 || size == batch.size(), "saw " + size + " books");
+                    bookService.searchBook("Book1", 0, 10);
+                }
+            } catch (Throwable e) {
+                synchronized (failures) {
+                    failures.add(e);
+                }
+            }
+        });
+        writer.start();
+        reader.start();
+        writer.join();
+        reader.join();
+        assertEquals(List.of(), failures);
+        assertEquals(List.of(), bookService.searchBook(""));
+    }
+
+    @Test
+    @DisplayName("Catalog Version - One new version per batch and per book change")
+    public void catalogVersion() {
+        Book book1 = new Book("Book1", "author1", "Mystery", 1.00);
+        Book book2 = new Book("Book2", "author2", "Fantasy", 2.00);
+        long version = bookService.getCatalogVersion();
+
+        bookService.addBooks(List.of(book1, book2));
+        assertEquals(version + 1, bookService.getCatalogVersion());
+
+        // A listing taken now is not affected by later removals.
+        Iterator<Book> listing = bookService.searchBookIterator("");
+        bookService.removeBook(book1);
+        book2.setTitle("Renamed");
+        assertEquals(version + 3, bookService.getCatalogVersion());
+        assertEquals(book1, listing.next());
+        assertEquals(book2, listing.next());
+        assertFalse(listing.hasNext());
+
+        // A removed book no longer reports its changes to the catalog.
+        book1.setTitle("Gone");
+        assertEquals(version + 3, bookService.getCatalogVersion());
+    }
+
+    @Test
+    @DisplayName("Book Setter - A failing store does not leave the catalog locked")
+    public void setterFailureReleasesLock() {
+        BookStore failingStore = new BookStore() {
+            @Override
+            public void add(Book book) {
+            }
+
+            @Override
+            public void update(Book book) {
+                throw new IllegalStateException("store unavailable");
+            }
+
+            @Override
+            public void remove(Book book) {
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public List<Book> load() {
+                return new ArrayList<>();
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        bookService = new BookService(failingStore);
+        Book book1 = new Book("Book1", "author1", "Mystery", 1.00);
+        bookService.addBook(book1);
+
+        assertThrows(IllegalStateException.class, () -> book1.setPrice(2.00));
+        // The store kept the old price, so the catalog does too.
+        assertEquals(1.00, book1.getPrice());
+        assertEquals(List.of(book1), bookService.findBooksByPrice(1.00, 1.00));
+        // Another thread can still write, so the lock was released.
+        Book book2 = new Book("Book2", "author2", "Fantasy", 2.00);
+        assertTimeoutPreemptively(Duration.ofSeconds(5), () -> assertTrue(bookService.addBook(book2)));
+        assertEquals(List.of(book1, book2), bookService.searchBook("Book"));
+    }
+
+    @Test
+    @DisplayName("Remove Book - Many single removals, with the catalog compacted along the way")
+    public void removeBookCompaction() {
+        List<Book> books = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            books.add(new Book("Book" + i, "Author", "Genre", 10));
+        }
+        bookService.addBooks(books);
+        Iterator<Book> listing = bookService.searchBookIterator("");
+
+        // Removing 4 of every 5 books leaves enough tombstones to compact the catalog more than once.
+        List<Book> kept = new ArrayList<>();
+        for (Book book : books) {
+            if (book.getTitle().endsWith("0") || book.getTitle().endsWith("5")) {
+                kept.add(book);
+            } else {
+                assertTrue(bookService.removeBook(book));
+            }
+        }
+        assertEquals(kept, bookService.searchBook(""));
+        assertEquals(kept, bookService.searchBookParallel("Book"));
+        assertEquals(kept.subList(10, 15), bookService.searchBook("", 10, 5));
+
+        // Books added after the compaction go to the end, and the old listing still has every book.
+        Book added = new Book("Added", "Author", "Genre", 10);
+        bookService.addBook(added);
+        assertEquals(added, bookService.searchBook("", kept.size(), 1).get(0));
+        int listed = 0;
+        while (listing.hasNext()) {
+            assertEquals(books.get(listed++), listing.next());
+        }
+        assertEquals(books.size(), listed);
+    }
+
     // Testing remove book function.
     @Test
     @DisplayName("Remove Book - Positive")
     public void removeBookPositive() {
         Book book1 = new Book("Book1", "author1", "Mystery", 20.00);
-        // Mock the behaviour to say that the book is in the DB
-        when(bookDatabase.remove(book1)).thenReturn(true);
+        // Add the book so that it is in the DB
+        bookService.addBook(book1);
 
         // Calling the removeBook() and passing the book to be removed.
         boolean result = bookService.removeBook(book1);
         // assert true means the book is removed successfully.
         assertTrue(result);
-        // Verify that the remove() method of the book DB was called with the book1 as an argument:
-        verify(bookDatabase).remove(book1);
+        // Verify that the book is no longer in the DB
+        assertFalse(bookService.containsBook(book1));
+    }
+
+    @Test
+    @DisplayName("Remove Book - a copy equal by id removes the catalog's own book")
+    public void removeBookCopy() {
+        ChangeFeed feed = new ChangeFeed(16);
+        bookService.setChangeFeed(feed);
+        Book book0 = new Book("Book0", "author0", "Mystery", 20.00);
+        Book book1 = new Book("Book1", "author1", "Mystery", 20.00);
+        Book book2 = new Book("Book2", "author2", "Fantasy", 20.00);
+        bookService.addBooks(List.of(book0, book1, book2));
+        ChangeFeed.Subscription subscription = feed.subscribe();
+
+        // The copies have none of the catalog's bookkeeping, e.g. their snapshot position is 0,
+        // which is book0's.
+        assertTrue(bookService.removeBook(new Book(book1.getId(), "Book1", "author1", "Mystery", 2000)));
+        assertArrayEquals(new boolean[]{true},
+                bookService.removeBooks(List.of(new Book(book2.getId(), "Book2", "author2", "Fantasy", 2000))));
+        assertEquals(List.of(book0), bookService.findBooksByGenre("Mystery"));
+        assertEquals(List.of(book0), bookService.searchBook("Book"));
+        assertEquals(List.of(book0), bookService.searchBookParallel("Book")); // scans the snapshot
+        assertTrue(bookService.findBooksByGenre("Fantasy").isEmpty());
+        assertTrue(bookService.containsBook(book0));
+        assertFalse(bookService.containsBook(book1));
+
+        // The removed book is no longer the catalog's, so a setter doesn't put it back in the index.
+        book1.setGenre("Fantasy");
+        assertTrue(bookService.findBooksByGenre("Fantasy").isEmpty());
+        List<ChangeEvent> events = new ArrayList<>();
+        subscription.poll(events::add);
+        assertEquals(2, events.size());
+        assertEquals("Book1", events.get(0).getBefore().getTitle());
+        assertEquals(book2.getId(), events.get(1).getBookId());
     }
 
     @Test
     @DisplayName("Remove Book - Negative")
     public void removeBookNegative() {
         Book book1 = new Book("Book1", "author1", "Mystery", 20.00);
-        // Mock the behaviour to show that the book is not in the DB
-        when(bookDatabase.remove(book1)).thenReturn(false);
+        // The book is never added, so it is not in the DB
         // Calling the removeBook() and passing the book to be removed.
         boolean result = bookService.removeBook(book1);
         //  // assert false means the book is not removed .
         assertFalse(result);
-        // Verify that the remove() method of the book DB was called with the book1 as an argument:
-        verify(bookDatabase).remove(book1);
+        // Verify that the book is still not in the DB
+        assertFalse(bookService.containsBook(book1));
     }
 
     @Test
@@ -223,8 +662,6 @@ public class BookServiceTest {
             boolean result = bookService.removeBook(null);
             // Assert false means the book is not removed.
             assertFalse(result);
-            // Verify that the remove() method of the book DB was not called with a non-null argument
-            verify(bookDatabase, never()).remove(isNotNull());
     }
 
 
@@ -234,28 +671,28 @@ public class BookServiceTest {
     @DisplayName("Add Book - Positive")
     public void addBookPositive() {
         Book book1 = new Book("Book1", "author1", "Mystery", 20.00);
-        //set up mock behavior for book database , the book1 doesn't exist already.
-        when(bookDatabase.contains(book1)).thenReturn(false);
+        // the book1 doesn't exist already in the book database.
+        assertFalse(bookService.containsBook(book1));
         // Calling the method with book1 as argument
         boolean result = bookService.addBook(book1);
         // assert true since the book is added successfully.
         assertTrue(result);
-        // verify if the add method is called with the book1 as argument only once.
-        verify(bookDatabase, times(1)).add(book1);
+        // verify the book1 is now in the database.
+        assertTrue(bookService.containsBook(book1));
     }
 
     @Test
     @DisplayName("Add Book - Negative")
     public void addBookNegative() {
         Book book1 = new Book("Book1", "author1", "Mystery", 20.00);
-        //set up mock behavior for book database , the book1 exist already.
-        when(bookDatabase.contains(book1)).thenReturn(true);
+        // add book1 first, so the book1 exist already.
+        bookService.addBook(book1);
         // Calling the method with book1 as argument
         boolean result = bookService.addBook(book1);
         // assert false since the book is not added.
         assertFalse(result);
-        // verify add() is not called with book1 as argument.
-        verify(bookDatabase, never()).add(book1);
+        // verify book1 is only in the database once.
+        assertEquals(List.of(book1), bookService.searchBook("Book1"));
     }
 
         @Test
@@ -264,14 +701,69 @@ public class BookServiceTest {
             // Same book but two different prices, so it can be added.
             Book existingBook = new Book("Book1", "author1", "Mystery", 15.00);
             Book newBookWithDifferentPrice = new Book("Book1", "author1", "Mystery", 25.00);
-            // Set up mock behavior for book database, indicating that the existing book already exists
-            when(bookDatabase.contains(existingBook)).thenReturn(true);
+            // Add the existing book to the database first
+            bookService.addBook(existingBook);
             // Calling the method with the new book that has a different price
             boolean result = bookService.addBook(newBookWithDifferentPrice);
             // Assert true since the book is added
             assertTrue(result);
-            // Verify that add() is called with the new book as an argument
-            verify(bookDatabase, times(1)).add(newBookWithDifferentPrice);
+            // Verify that the new book is in the database next to the existing one
+            assertTrue(bookService.containsBook(newBookWithDifferentPrice));
+            assertEquals(2, bookService.searchBook("Book1").size());
+        }
+
+        @Test
+        @DisplayName("Get Book - Lookup by id")
+        public void getBookById() {
+            Book book1 = new Book("Book1", "author1", "Mystery", 20.00);
+            Book book2 = new Book("Book1", "author1", "Mystery", 20.00);
+            bookService.addBook(book1);
+            // Every book gets its own id, so two books with the same details are still different books.
+            assertNotEquals(book1, book2);
+            assertSame(book1, bookService.getBook(book1.getId()));
+            assertNull(bookService.getBook(book2.getId()));
+        }
+
+        @Test
+        @DisplayName("Add Books - Bulk with duplicates")
+        public void addBooksBulk() {
+            Book book1 = new Book("Book1", "author1", "Mystery", 20.00);
+            Book book2 = new Book("Book2", "author2", "Fantasy", 15.00);
+            Book book3 = new Book("Book3", "author3", "Fiction", 10.00);
+            bookService.addBook(book1);
+
+            // book1 is already in the database and book2 appears twice in the batch.
+            boolean[] result = bookService.addBooks(List.of(book1, book2, book3, book2));
+            assertArrayEquals(new boolean[]{false, true, true, false}, result);
+            assertEquals(List.of(book1, book2, book3), bookService.searchBook("Book"));
+
+            // Removing in bulk reports which books were actually in the database.
+            assertArrayEquals(new boolean[]{true, false}, bookService.removeBooks(List.of(book2, book2)));
+            assertEquals(List.of(book1, book3), bookService.searchBook("Book"));
+        }
+
+        @Test
+        @DisplayName("Add Book - A book held by another catalog is rejected")
+        public void addBookHeldByAnotherService() {
+            Book book1 = new Book("Alpha Book", "author1", "Mystery", 20.00);
+            Book book2 = new Book("Beta Book", "author2", "Fantasy", 15.00);
+            Book book3 = new Book("Delta Book", "author3", "Fiction", 10.00);
+            bookService.addBooks(List.of(book1, book2));
+            BookService other = new BookService();
+
+            // Neither a single add nor a batch takes book2 from this catalog, and the batch adds nothing.
+            assertThrows(IllegalArgumentException.class, () -> other.addBook(book2));
+            assertThrows(IllegalArgumentException.class, () -> other.addBooks(List.of(book3, book2)));
+            assertFalse(other.containsBook(book3));
+            assertTrue(other.addBook(book3));
+            assertTrue(bookService.removeBook(book2));
+            assertEquals(List.of(book1), bookService.searchBook("Alpha"));
+
+            // Once removed here it can move, and the other catalog follows its setters.
+            assertTrue(other.addBook(book2));
+            book2.setTitle("Gamma Book");
+            assertEquals(List.of(book2), other.searchBook("Gamma"));
+            assertEquals(List.of(book1), bookService.searchBook("Book"));
         }
 
         // Testing addBookReview method
@@ -320,10 +812,99 @@ public class BookServiceTest {
         assertFalse(book.getReviews().contains(review)); // Verify that the empty review is not present in the book's reviews list
     }
 
+    @Test
+    @DisplayName("Add Book Review - Null Book")
+    public void addBookReviewNullBook() {
+        List<Book> purchasedBooks = new ArrayList<>();
+        purchasedBooks.add(new Book("Book1", "Author1", "Mystery", 25));
+        User user = new User("user1", "abcd1234", "user1@gmail.com", purchasedBooks);
 
+        // A null book was never purchased, so there is nothing to review.
+        assertFalse(bookService.addBookReview(user, null, "Good read!"));
+    }
 
+    @Test
+    @DisplayName("Add Book Review - Paginated reads and counts")
+    public void addBookReviewPaginated() {
+        Book book = new Book("Book1", "Author1", "Mystery", 5);
+        User user = new User("user1", "abcd1234", "user1@gmail.com", 10);
+        bookService.addBook(book);
+        bookService.purchaseBook(user, book);
+
+        for (int i = 0; i < 150; i++) {
+            assertTrue(bookService.addBookReview(user, book, "Review " + i));
+        }
+        // Pages are read straight from the review log, the last page is cut short.
+        assertEquals(150, bookService.getReviewCount(book));
+        assertEquals(List.of("Review 70", "Review 71"), bookService.getReviews(book, 70, 2));
+        assertEquals(List.of("Review 149"), bookService.getReviews(book, 149, 10));
+        assertTrue(bookService.getReviews(book, 150, 10).isEmpty());
+        assertEquals("Review 99", book.getReviews().get(99));
+    }
 
+    @Test
+    @DisplayName("Add Book Review - Reviews passed to a book are copied")
+    public void addBookReviewCopiesGivenReviews() {
+        List<String> reviews = new ArrayList<>(List.of("Review 0"));
+        Book book = new Book("Book1", "Author1", "Mystery", 5, reviews);
+        User user = new User("user1", "abcd1234", "user1@gmail.com", 10);
+        bookService.addBook(book);
+        bookService.purchaseBook(user, book);
+
+        // The book keeps its own copy: the caller's list and the book's reviews go separate ways.
+        reviews.add("Not seen by the book");
+        assertTrue(bookService.addBookReview(user, book, "Review 1"));
+        assertEquals(List.of("Review 0", "Not seen by the book"), reviews);
+        assertEquals(List.of("Review 0", "Review 1"), book.getReviews());
+
+        // getReviews() is the live list, adding to it appends a review.
+        book.getReviews().add("Review 2");
+        assertEquals(3, bookService.getReviewCount(book));
+
+        book.setReviews(null);
+        assertEquals(List.of(), book.getReviews());
+    }
 
+    @Test
+    @DisplayName("Add Book Review - Concurrent reviews are all kept")
+    public void addBookReviewConcurrent() throws InterruptedException {
+        Book book = new Book("Book1", "Author1", "Mystery", 5);
+        User user = new User("user1", "abcd1234", "user1@gmail.com", 10);
+        bookService.addBook(book);
+        bookService.purchaseBook(user, book);
+
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            int thread = t;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    bookService.addBookReview(user, book, thread + "-" + i);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        // No review may be lost or overwritten by another thread.
+        assertEquals(8000, bookService.getReviewCount(book));
+        assertEquals(8000, book.getReviews().stream().distinct().count());
+    }
 
+    @Test
+    @DisplayName("Add Book Review - Ownership check for a heavy buyer")
+    public void addBookReviewHeavyBuyer() {
+        List<Book> purchasedBooks = new ArrayList<>();
+        for (int i = 0; i < 20000; i++) {
+            purchasedBooks.add(new Book("Book" + i, "Author", "Mystery", 1));
+        }
+        User user = new User("user1", "abcd1234", "user1@gmail.com", purchasedBooks);
+        Book notPurchased = new Book("Other", "Author", "Mystery", 1);
 
+        // The ownership index answers both checks without walking the 20000 books.
+        assertTrue(bookService.addBookReview(user, purchasedBooks.get(12345), "Good read!"));
+        assertFalse(bookService.addBookReview(user, notPurchased, "Good read!"));
+        // purchases go through the service, the list handed out is read-only
+        assertThrows(UnsupportedOperationException.class, () -> user.getPurchasedBooks().add(notPurchased));
+    }
 }
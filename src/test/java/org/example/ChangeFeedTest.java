@@ -0,0 +1,197 @@
+package org.example;
+
+import org.junit.jupiter.api.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Testing ChangeFeed Class")
+public class ChangeFeedTest {
+
+    private ChangeFeed feed;
+    private BookService bookService;
+    private UserService userService;
+
+    @BeforeEach
+    public void setUp() {
+        feed = new ChangeFeed(1024);
+        bookService = new BookService();
+        userService = UserService.concurrent();
+        // Both services share one feed, so their changes come out in one order.
+        bookService.setChangeFeed(feed);
+        userService.setChangeFeed(feed);
+    }
+
+    @Test
+    @DisplayName("Every mutation is published in order with consecutive sequence numbers")
+    public void mutationsInOrder() {
+        ChangeFeed.Subscription subscription = feed.subscribe();
+        Book book1 = new Book("Book1", "author1", "Mystery", 5.00);
+        Book book2 = new Book("Book2", "author2", "Fantasy", 5.00);
+        User user = new User("user1", "abcd1234", "user1@gmail.com", 20.00);
+
+        bookService.addBook(book1);
+        bookService.addBooks(List.of(book2));
+        userService.registerUser(user);
+        bookService.purchaseBook(user, book1); // not a catalog or user table change, nothing published
+        bookService.addBookReview(user, book1, "Amazing book!");
+        book1.setTitle("Book1, revised");
+        userService.updateUserProfile(user, "user2", "abcd1234", "user2@gmail.com");
+        bookService.removeBook(book2);
+        bookService.addBook(book1); // already there, nothing published
+
+        List<ChangeEvent> events = new ArrayList<>();
+        assertEquals(7, subscription.poll(events::add));
+        assertEquals(0, subscription.poll(events::add));
+        assertEquals("0 BOOK_ADDED book=" + book1.getId(), events.get(0).toString());
+        assertEquals(ChangeEvent.Type.BOOK_ADDED, events.get(1).getType());
+        assertEquals(ChangeEvent.Type.USER_REGISTERED, events.get(2).getType());
+        assertEquals("Amazing book!", events.get(3).getReview());
+        assertEquals("user1", events.get(3).getUsername());
+        // Events carry the values at the time of the change, although book1 and user changed since.
+        assertEquals("Book1", events.get(0).getAfter().getTitle());
+        assertNull(events.get(0).getBefore());
+        assertEquals(ChangeEvent.Type.BOOK_UPDATED, events.get(4).getType());
+        assertEquals("Book1", events.get(4).getBefore().getTitle());
+        assertEquals("Book1, revised", events.get(4).getAfter().getTitle());
+        assertEquals(500, events.get(4).getAfter().getPriceCents()); // unchanged fields come along too
+        assertEquals("user1", events.get(2).getUsername());
+        assertEquals("user1@gmail.com", events.get(2).getEmail());
+        assertEquals("user1", events.get(5).getPreviousUsername());
+        assertEquals("user1@gmail.com", events.get(5).getPreviousEmail());
+        assertEquals("user2", events.get(5).getUsername());
+        assertEquals("user2@gmail.com", events.get(5).getEmail());
+        assertEquals(ChangeEvent.Type.BOOK_REMOVED, events.get(6).getType());
+        assertEquals(book2.getId(), events.get(6).getBookId());
+        assertEquals("Book2", events.get(6).getBefore().getTitle());
+        assertNull(events.get(6).getAfter());
+        for (int i = 0; i < events.size(); i++) {
+            assertEquals(i, events.get(i).getSequence());
+        }
+        assertEquals(0, subscription.lag());
+    }
+
+    @Test
+    @DisplayName("A subscriber keeps a derived view in step with the catalog")
+    public void derivedView() throws InterruptedException {
+        // About 670 events go through a 64 slot ring, so it wraps around ten times.
+        ChangeFeed ring = new ChangeFeed(64);
+        bookService.setChangeFeed(ring);
+        ChangeFeed.Subscription subscription = ring.subscribe();
+        AtomicLong polled = new AtomicLong(); // sequence the subscriber has read up to, for the writer
+        Map<String, Integer> booksPerGenre = new HashMap<>(); // the derived view
+
+        Thread writer = new Thread(() -> {
+            List<Book> books = new ArrayList<>();
+            for (int i = 0; i < 500; i++) {
+                // A subscriber keeping up is at most half a ring behind
+                while (ring.nextSequence() - polled.get() > 32) {
+                    Thread.onSpinWait();
+                }
+                Book book = new Book("Book" + i, "author", i % 2 == 0 ? "Mystery" : "Fantasy", 5.00);
+                books.add(book);
+                bookService.addBook(book);
+                if (i % 5 == 0) {
+                    book.setGenre("Poetry");
+                }
+                if (i % 7 == 0) {
+                    bookService.removeBook(books.get(i / 2));
+                }
+            }
+        });
+        writer.start();
+        // Polling while the writer runs: the ring is much smaller than the stream, so this also
+        // checks that a subscriber keeping up never loses an event.
+        while (writer.isAlive() || subscription.lag() > 0) {
+            // Each event says what the book was before and after, so the view needs no state of its own.
+            subscription.poll(event -> {
+                if (event.getBefore() != null) {
+                    booksPerGenre.merge(event.getBefore().getGenre(), -1, Integer::sum);
+                }
+                if (event.getAfter() != null) {
+                    booksPerGenre.merge(event.getAfter().getGenre(), 1, Integer::sum);
+                }
+            });
+            polled.set(subscription.position());
+        }
+        writer.join();
+        for (String genre : List.of("Mystery", "Fantasy", "Poetry")) {
+            assertEquals(bookService.findBooksByGenre(genre).size(), booksPerGenre.getOrDefault(genre, 0), genre);
+        }
+    }
+
+    @Test
+    @DisplayName("Concurrent publishers: no gaps, no duplicates")
+    public void concurrentPublishers() throws InterruptedException {
+        ChangeFeed big = new ChangeFeed(1 << 14);
+        ChangeFeed.Subscription subscription = big.subscribe();
+        Book book = new Book("Book1", "author1", "Mystery", 5.00);
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 2_000; i++) {
+                    big.publish(ChangeEvent.bookAdded(book));
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long[] expected = {0};
+        assertEquals(8_000, subscription.poll(event -> assertEquals(expected[0]++, event.getSequence())));
+    }
+
+    @Test
+    @DisplayName("Concurrent reviews of one book are published in the order of its reviews")
+    public void concurrentReviewsInLogOrder() throws InterruptedException {
+        ChangeFeed big = new ChangeFeed(1 << 14);
+        bookService.setChangeFeed(big);
+        ChangeFeed.Subscription subscription = big.subscribe();
+        Book book = new Book("Book1", "author1", "Mystery", 1.00);
+        User user = new User("user1", "abcd1234", "user1@gmail.com", 10.00);
+        bookService.addBook(book);
+        bookService.purchaseBook(user, book);
+        subscription.poll(event -> { }); // the book being added
+
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            int thread = t;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 2_000; i++) {
+                    bookService.addBookReview(user, book, thread + "-" + i);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        // A subscriber replaying the reviews ends up with the book's list, in the same order.
+        List<String> replayed = new ArrayList<>();
+        subscription.poll(event -> replayed.add(event.getReview()));
+        assertEquals(book.getReviews(), replayed);
+    }
+
+    @Test
+    @DisplayName("A subscriber that falls a whole ring behind is told so")
+    public void overrun() {
+        ChangeFeed small = new ChangeFeed(4);
+        ChangeFeed.Subscription subscription = small.subscribe();
+        Book book = new Book("Book1", "author1", "Mystery", 5.00);
+        for (int i = 0; i < 5; i++) {
+            small.publish(ChangeEvent.bookAdded(book));
+        }
+        assertThrows(IllegalStateException.class, () -> subscription.poll(event -> { }));
+
+        // Resubscribing starts from the next event.
+        ChangeFeed.Subscription fresh = small.subscribe();
+        assertEquals(5, fresh.position());
+        assertThrows(IllegalArgumentException.class, () -> new ChangeFeed(3));
+    }
+}
@@ -0,0 +1,174 @@
+package org.example;
+
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Testing LoadGenerator Class")
+public class LoadGeneratorTest {
+
+    @TempDir
+    Path directory;
+
+    private static LoadGenerator.Config config(String... args) {
+        return LoadGenerator.Config.parse(args);
+    }
+
+    @Test
+    @DisplayName("Workloads follow the rate and the mix, and are reproducible from the seed")
+    public void generate() {
+        LoadGenerator.Config config = config("--rate=10000", "--seconds=2", "--mix=50,50,0,0", "--books=100", "--users=10");
+        List<LoadGenerator.Operation> operations = LoadGenerator.generate(config).collect(Collectors.toList());
+
+        // Poisson arrivals at 10k/s for 2s, so close to 20k operations.
+        assertEquals(20_000, operations.size(), 600);
+        long searches = operations.stream().filter(op -> op.type == LoadGenerator.Type.SEARCH).count();
+        assertEquals(operations.size() / 2.0, searches, operations.size() * 0.03);
+        assertTrue(operations.stream().noneMatch(op -> op.type == LoadGenerator.Type.REVIEW));
+        for (int i = 1; i < operations.size(); i++) {
+            assertTrue(operations.get(i).atNanos >= operations.get(i - 1).atNanos);
+        }
+
+        List<LoadGenerator.Operation> again = LoadGenerator.generate(config).collect(Collectors.toList());
+        assertEquals(operations.get(1234).atNanos, again.get(1234).atNanos);
+        assertEquals(operations.get(1234).book, again.get(1234).book);
+    }
+
+    @Test
+    @DisplayName("Workloads are drawn lazily, so their size is not bounded by memory")
+    public void generateLazily() {
+        // A billion operations an hour: building the schedule up front would never fit in the heap.
+        LoadGenerator.Config config = config("--rate=1000000", "--seconds=3600", "--books=100", "--users=10");
+        assertEquals(1000, LoadGenerator.generate(config).limit(1000).count());
+    }
+
+    @Test
+    @DisplayName("Zipf popularity: the top rank dominates")
+    public void zipf() {
+        ZipfSampler sampler = new ZipfSampler(1000, 1.0);
+        Random random = new Random(1);
+        int[] hits = new int[1000];
+        for (int i = 0; i < 100_000; i++) {
+            hits[sampler.sample(random)]++;
+        }
+        // With exponent 1, rank 1 is drawn about 1 / H(1000) = 13% of the time and twice as often as rank 2.
+        assertEquals(13_400, hits[0], 1_000);
+        assertEquals(2.0, hits[0] / (double) hits[1], 0.2);
+        assertEquals(0, new ZipfSampler(1, 1.0).sample(random));
+    }
+
+    @Test
+    @DisplayName("A recorded log replays the same operations")
+    public void recordAndReplay() throws Exception {
+        LoadGenerator.Config config = config("--rate=2000", "--seconds=1", "--books=500", "--users=50");
+        List<LoadGenerator.Operation> operations = LoadGenerator.generate(config).collect(Collectors.toList());
+        Path log = directory.resolve("operations.log");
+        LoadGenerator.write(log, config, LoadGenerator.generate(config));
+
+        LoadGenerator.Config replayed = new LoadGenerator.Config();
+        List<LoadGenerator.Operation> read;
+        try (Stream<LoadGenerator.Operation> lines = LoadGenerator.read(log, replayed)) {
+            read = lines.collect(Collectors.toList());
+        }
+        assertEquals(500, replayed.books);
+        assertEquals(50, replayed.users);
+        assertEquals(operations.size(), read.size());
+        for (int i = 0; i < read.size(); i++) {
+            assertEquals(operations.get(i).atNanos, read.get(i).atNanos);
+            assertEquals(operations.get(i).type, read.get(i).type);
+            assertEquals(operations.get(i).keyword, read.get(i).keyword);
+            assertEquals(operations.get(i).user, read.get(i).user);
+            assertEquals(operations.get(i).book, read.get(i).book);
+        }
+        // Stable names and ids, not positions in this process's lists
+        assertTrue(read.stream().allMatch(op -> op.user.startsWith("user") && op.book >= 1 && op.book <= 500));
+
+        // Replayed four times as fast, every operation still runs and is reported.
+        LoadGenerator.Report report;
+        try (Stream<LoadGenerator.Operation> lines = LoadGenerator.read(log, replayed)) {
+            report = new LoadGenerator(replayed.books, replayed.users).run(lines, 4.0, LoadGenerator.DEFAULT_THREADS, LoadGenerator.DEFAULT_QUEUE);
+        }
+        long total = 0;
+        for (LoadGenerator.Type type : LoadGenerator.Type.values()) {
+            total += report.count(type) + report.skipped(type);
+        }
+        assertEquals(read.size(), total);
+        assertEquals(0, report.dropped(LoadGenerator.Type.SEARCH)); // 8000 ops/s never fill the queue
+        assertEquals(0, report.failures(LoadGenerator.Type.SEARCH)); // every keyword matches a title or author
+        assertEquals(0, report.failures(LoadGenerator.Type.LOGIN));
+        assertTrue(report.percentile(LoadGenerator.Type.SEARCH, 0.99) > 0);
+        assertTrue(report.toString().contains("ops/s"));
+    }
+
+    @Test
+    @DisplayName("Operations due while the queue is full are dropped and reported")
+    public void dropAtThreadCap() throws Exception {
+        LoadGenerator.Config config = config("--rate=2000", "--seconds=1", "--books=500", "--users=50");
+        long scheduled = LoadGenerator.generate(config).count();
+
+        // Replayed as one burst on a single worker with room for one more, most operations find the queue full.
+        LoadGenerator.Report report = new LoadGenerator(config.books, config.users)
+                .run(LoadGenerator.generate(config), 1e9, 1, 1);
+        long ran = 0;
+        long dropped = 0;
+        for (LoadGenerator.Type type : LoadGenerator.Type.values()) {
+            ran += report.count(type) + report.skipped(type);
+            dropped += report.dropped(type);
+        }
+        assertTrue(dropped > 0);
+        assertEquals(scheduled, ran + dropped);
+        assertTrue(report.toString().contains("dropped="));
+    }
+
+    @Test
+    @DisplayName("Reviews follow a purchase and only count once it has completed")
+    public void reviewsFollowPurchases() throws Exception {
+        LoadGenerator.Config config = config("--rate=5000", "--seconds=1", "--books=500", "--users=50");
+        Map<String, Long> lastPurchase = new HashMap<>();
+        long reviews = 0;
+        for (LoadGenerator.Operation operation : LoadGenerator.generate(config).collect(Collectors.toList())) {
+            if (operation.type == LoadGenerator.Type.PURCHASE) {
+                lastPurchase.put(operation.user, operation.book);
+            } else if (operation.type == LoadGenerator.Type.REVIEW) {
+                assertEquals(lastPurchase.get(operation.user), operation.book);
+                reviews++;
+            }
+        }
+        assertTrue(reviews > 0);
+
+        // Open loop, a review can come due before its purchase ran. It is skipped, not counted as
+        // a failure; once the purchase is done, the same review goes through.
+        List<LoadGenerator.Operation> operations = List.of(
+                new LoadGenerator.Operation(0, LoadGenerator.Type.REVIEW, "user0", 1, null),
+                new LoadGenerator.Operation(100_000_000, LoadGenerator.Type.PURCHASE, "user0", 1, null),
+                new LoadGenerator.Operation(300_000_000, LoadGenerator.Type.REVIEW, "user0", 1, null));
+        LoadGenerator.Report report = new LoadGenerator(10, 10).run(operations.stream());
+        assertEquals(1, report.skipped(LoadGenerator.Type.REVIEW));
+        assertEquals(1, report.count(LoadGenerator.Type.REVIEW));
+        assertEquals(0, report.failures(LoadGenerator.Type.REVIEW));
+        assertEquals(1, report.count(LoadGenerator.Type.PURCHASE));
+    }
+
+    @Test
+    @DisplayName("Operations naming users or books the services don't have fail")
+    public void unknownUsersAndBooks() throws Exception {
+        List<LoadGenerator.Operation> operations = List.of(
+                new LoadGenerator.Operation(0, LoadGenerator.Type.PURCHASE, "stranger", 1, null),
+                new LoadGenerator.Operation(0, LoadGenerator.Type.PURCHASE, "user0", 999, null),
+                new LoadGenerator.Operation(0, LoadGenerator.Type.LOGIN, "stranger", 1, null),
+                new LoadGenerator.Operation(0, LoadGenerator.Type.LOGIN, "user3", 1, null));
+        LoadGenerator.Report report = new LoadGenerator(10, 10).run(operations.stream());
+        assertEquals(2, report.failures(LoadGenerator.Type.PURCHASE));
+        assertEquals(1, report.failures(LoadGenerator.Type.LOGIN));
+        assertEquals(2, report.count(LoadGenerator.Type.LOGIN));
+    }
+}
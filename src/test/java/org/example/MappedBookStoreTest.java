@@ -0,0 +1,216 @@
+package org.example;
+
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Testing MappedBookStore Class")
+public class MappedBookStoreTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    @DisplayName("Catalog survives a restart")
+    public void reloadAfterRestart() throws IOException {
+        Path file = directory.resolve("books.db");
+        Book book1 = new Book("1984", "George Orwell", "Dystopian", 9.99);
+        Book book2 = new Book("To Kill a Mockingbird", "Harper Lee", "Fiction", 14.99);
+        Book book3 = new Book("Animal Farm", "George Orwell", "Satire", 7.99);
+
+        try (MappedBookStore store = new MappedBookStore(file)) {
+            BookService bookService = new BookService(store);
+            bookService.addBooks(List.of(book1, book2, book3));
+            bookService.removeBook(book2);
+            // the setter should be written through to the store as well
+            book3.setTitle("Animal Farm: A Fairy Story");
+        }
+
+        // Opening the same file again should give back the same live books, with the same ids.
+        try (MappedBookStore store = new MappedBookStore(file)) {
+            BookService bookService = new BookService(store);
+            List<Book> books = bookService.searchBook("");
+            assertEquals(List.of(book1, book3), books);
+            assertEquals("Animal Farm: A Fairy Story", books.get(1).getTitle());
+            assertEquals(7.99, books.get(1).getPrice());
+            assertEquals(List.of(book1, book3), bookService.searchBook("Orwell"));
+            assertEquals(2, store.size());
+        }
+    }
+
+    @Test
+    @DisplayName("Search and lookup read records in place")
+    public void searchAndReadFromRecords() throws IOException {
+        try (MappedBookStore store = new MappedBookStore(directory.resolve("books.db"))) {
+            Book book1 = new Book("Crime and Punishment", "Fyodor Dostoevsky", "Fiction", 12.50);
+            Book book2 = new Book("Cien años de soledad", "Gabriel García Márquez", "Fiction", 11.00);
+            store.add(book1);
+            store.add(book2);
+
+            assertEquals(List.of(book2.getId()), store.searchIds("García"));
+            assertEquals(List.of(book1.getId(), book2.getId()), store.searchIds("Fiction"));
+            assertTrue(store.searchIds("Tolstoy").isEmpty());
+            assertEquals("Cien años de soledad", store.read(book2.getId()).getTitle());
+        }
+    }
+
+    @Test
+    @DisplayName("Records take as much space as their text, across region boundaries")
+    public void storeLongText() throws IOException {
+        Path file = directory.resolve("books.db");
+        Book book1 = new Book("A".repeat(1000), "Author", "Genre", 1);
+        Book book2 = new Book("B".repeat(3 << 20), "Author", "Genre", 2); // doesn't fit after book3, starts a region
+        Book book3 = new Book("C".repeat(2 << 20), null, "Genre", 3);
+        try (MappedBookStore store = new MappedBookStore(file)) {
+            BookService bookService = new BookService(store);
+            bookService.addBooks(List.of(book1, book3, book2));
+            book1.setTitle("A".repeat(2000));
+        }
+
+        try (MappedBookStore store = new MappedBookStore(file)) {
+            assertEquals(List.of(book3, book2, book1), store.load());
+            store.compact();
+            BookService bookService = new BookService(store);
+            assertEquals("A".repeat(2000), bookService.getBook(book1.getId()).getTitle());
+            assertEquals("B".repeat(3 << 20), bookService.getBook(book2.getId()).getTitle());
+            assertNull(bookService.getBook(book3.getId()).getAuthor());
+            assertEquals(3, store.records());
+        }
+    }
+
+    @Test
+    @DisplayName("Reloaded books read their text from the store until they change or leave")
+    public void reloadedBooksReadFromStore() throws IOException, InterruptedException {
+        Path file = directory.resolve("books.db");
+        Book book1 = new Book("1984", "George Orwell", "Dystopian", 9.99);
+        Book book2 = new Book("Animal Farm", "George Orwell", "Satire", 7.99);
+        try (MappedBookStore store = new MappedBookStore(file)) {
+            new BookService(store).addBooks(List.of(book1, book2));
+        }
+
+        try (MappedBookStore store = new MappedBookStore(file)) {
+            BookService bookService = new BookService(store);
+            // The indexes may still be building: searches scan until they are done, with the same results
+            assertEquals(List.of(book1, book2), bookService.searchBook("Orwell"));
+            assertEquals(List.of(book2), bookService.findBooksByGenre("Satire"));
+            bookService.awaitIndexed();
+            assertEquals(List.of(book1, book2), bookService.searchBook("Orwell"));
+            assertEquals(List.of(book2), bookService.findBooksByGenre("Satire"));
+            assertEquals(List.of(book2, book1), bookService.findBooksByPrice(0, 10));
+
+            Book reloaded1 = bookService.getBook(book1.getId());
+            Book reloaded2 = bookService.getBook(book2.getId());
+            reloaded1.setTitle("Nineteen Eighty-Four");
+            assertEquals("Nineteen Eighty-Four", reloaded1.getTitle());
+            assertEquals("George Orwell", reloaded1.getAuthor());
+            assertEquals(List.of(reloaded1), bookService.searchBook("Eighty"));
+
+            // A removed book keeps its text, though the store no longer has it
+            bookService.removeBook(reloaded2);
+            assertNull(store.read(book2.getId()));
+            assertEquals("Animal Farm", reloaded2.getTitle());
+            assertEquals("Satire", reloaded2.getGenre());
+        }
+    }
+
+    @Test
+    @DisplayName("Oversized book is rejected without touching the catalog")
+    public void rejectOversizedBook() throws IOException {
+        try (MappedBookStore store = new MappedBookStore(directory.resolve("books.db"))) {
+            BookService bookService = new BookService(store);
+            Book book = new Book("x".repeat(MappedBookStore.MAX_TEXT_BYTES), "Author", "Genre", 1);
+            assertThrows(IllegalArgumentException.class, () -> bookService.addBook(book));
+            assertFalse(bookService.containsBook(book));
+            assertEquals(0, store.size());
+        }
+    }
+
+    @Test
+    @DisplayName("Setter the store rejects leaves the book as it was")
+    public void rejectOversizedUpdate() throws IOException {
+        Path file = directory.resolve("books.db");
+        Book book = new Book("Dune", "Frank Herbert", "Science Fiction", 9.99);
+        try (MappedBookStore store = new MappedBookStore(file)) {
+            BookService bookService = new BookService(store);
+            bookService.addBook(book);
+            String tooLong = "x".repeat(MappedBookStore.MAX_TEXT_BYTES);
+            assertThrows(IllegalArgumentException.class, () -> book.setTitle(tooLong));
+
+            // The title is rolled back in memory and in the indexes, matching what the store kept.
+            assertEquals("Dune", book.getTitle());
+            assertEquals(List.of(book), bookService.searchBook("Dune"));
+            assertTrue(bookService.searchBook("xxx").isEmpty());
+        }
+
+        try (MappedBookStore store = new MappedBookStore(file)) {
+            assertEquals("Dune", new BookService(store).getBook(book.getId()).getTitle());
+        }
+    }
+
+    @Test
+    @DisplayName("Update interrupted before the old record is dropped keeps the new one")
+    public void reloadInterruptedUpdate() throws IOException {
+        Path file = directory.resolve("books.db");
+        Book book = new Book("Dune", "Frank Herbert", "Science Fiction", 9.99);
+        try (MappedBookStore store = new MappedBookStore(file)) {
+            store.add(book);
+            // An update writes the new record first; a crash right after it leaves both records live.
+            book.setTitle("Dune Messiah");
+            store.add(book);
+        }
+
+        try (MappedBookStore store = new MappedBookStore(file)) {
+            List<Book> books = store.load();
+            assertEquals(1, books.size());
+            assertEquals("Dune Messiah", books.get(0).getTitle());
+            assertEquals(1, store.size());
+        }
+    }
+
+    @Test
+    @DisplayName("Compaction drops deleted records and keeps the live books in order")
+    public void compactDropsDeletedRecords() throws IOException {
+        Path file = directory.resolve("books.db");
+        Book book1 = new Book("1984", "George Orwell", "Dystopian", 9.99);
+        Book book2 = new Book("To Kill a Mockingbird", "Harper Lee", "Fiction", 14.99);
+        Book book3 = new Book("Animal Farm", "George Orwell", "Satire", 7.99);
+        try (MappedBookStore store = new MappedBookStore(file)) {
+            BookService bookService = new BookService(store);
+            bookService.addBooks(List.of(book1, book2, book3));
+            for (int i = 0; i < 10; i++) {
+                book1.setPrice(10 + i); // every change appends a record and deletes the previous one
+            }
+            bookService.removeBook(book2);
+            assertEquals(13, store.records());
+
+            store.compact();
+            assertEquals(2, store.records());
+            assertEquals(List.of(book3, book1), store.load()); // book1 was stored last
+            assertEquals(19.00, store.read(book1.getId()).getPrice());
+
+            // The compacted file takes new writes like any other.
+            book3.setTitle("Animal Farm: A Fairy Story");
+            assertFalse(Files.exists(directory.resolve("books.db.compact")));
+        }
+
+        try (MappedBookStore store = new MappedBookStore(file)) {
+            assertEquals(List.of(book1, book3), store.load());
+            assertEquals("Animal Farm: A Fairy Story", store.read(book3.getId()).getTitle());
+            assertEquals(2, store.size());
+        }
+    }
+
+    @Test
+    @DisplayName("Other files are not opened as a store")
+    public void rejectForeignFile() throws IOException {
+        Path file = directory.resolve("other.txt");
+        Files.writeString(file, "not a book store");
+        assertThrows(IOException.class, () -> new MappedBookStore(file));
+    }
+}
@@ -0,0 +1,77 @@
+package org.example;
+
+import org.junit.jupiter.api.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Testing Metrics Class")
+public class MetricsTest {
+
+    @Test
+    @DisplayName("Histogram percentiles stay within 3% of the exact value")
+    public void histogramPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram(4);
+        for (long nanos = 1; nanos <= 1_000_000; nanos++) {
+            histogram.record(nanos);
+        }
+        long[] counts = histogram.counts();
+        assertEquals(500_000, LatencyHistogram.percentile(counts, 0.50), 500_000 * 0.03);
+        assertEquals(990_000, LatencyHistogram.percentile(counts, 0.99), 990_000 * 0.03);
+        assertEquals(999_000, LatencyHistogram.percentile(counts, 0.999), 999_000 * 0.03);
+
+        // Buckets cover every long without gaps or overlaps.
+        for (int bucket = 1; bucket < LatencyHistogram.BUCKETS; bucket++) {
+            assertEquals(bucket, LatencyHistogram.bucket(LatencyHistogram.highestValue(bucket - 1) + 1));
+        }
+        assertEquals(LatencyHistogram.BUCKETS - 1, LatencyHistogram.bucket(Long.MAX_VALUE));
+    }
+
+    @Test
+    @DisplayName("Service calls are counted and timed")
+    public void serviceMetrics() {
+        Metrics metrics = new Metrics();
+        BookService bookService = new BookService();
+        UserService userService = UserService.concurrent();
+        bookService.setMetrics(metrics);
+        userService.setMetrics(metrics);
+
+        Book book = new Book("1984", "George Orwell", "Dystopian", 9.99);
+        bookService.addBook(book);
+        User user = new User("user1", "abcd1234", "user1@gmail.com", 45.00);
+        userService.registerUser(user);
+        userService.loginUser("user1", "abcd1234");
+        userService.loginUser("user1", "wrong");
+        bookService.searchBook("1984");
+        bookService.searchBook("Nonexistent", 0, 10);
+        bookService.purchaseBook(user, book);
+        bookService.addBookReview(user, book, "Amazing book!");
+
+        Metrics.Snapshot snapshot = metrics.snapshot();
+        assertEquals(2, snapshot.count(Metrics.Operation.SEARCH_BOOK));
+        assertEquals(1, snapshot.count(Metrics.Operation.PURCHASE_BOOK));
+        assertEquals(1, snapshot.count(Metrics.Operation.ADD_BOOK_REVIEW));
+        assertEquals(1, snapshot.count(Metrics.Operation.REGISTER_USER));
+        assertEquals(2, snapshot.count(Metrics.Operation.LOGIN_USER));
+        assertEquals(1, snapshot.getSearchHits());
+        assertEquals(1, snapshot.getSearchMisses());
+        assertTrue(snapshot.p999(Metrics.Operation.SEARCH_BOOK) >= snapshot.p50(Metrics.Operation.SEARCH_BOOK));
+        assertTrue(snapshot.p50(Metrics.Operation.SEARCH_BOOK) > 0);
+        assertEquals(1L, snapshot.getGauges().get("catalog.books"));
+        assertEquals(1L, snapshot.getGauges().get("users"));
+        assertTrue(snapshot.toString().contains("LOGIN_USER"));
+    }
+
+    @Test
+    @DisplayName("Disabled metrics record nothing")
+    public void disabled() {
+        BookService bookService = new BookService();
+        bookService.setMetrics(Metrics.DISABLED);
+        bookService.searchBook("anything");
+
+        Metrics.Snapshot snapshot = Metrics.DISABLED.snapshot();
+        assertEquals(0, snapshot.count(Metrics.Operation.SEARCH_BOOK));
+        assertEquals(0, snapshot.getSearchMisses());
+        assertEquals(0, snapshot.p99(Metrics.Operation.SEARCH_BOOK));
+        assertTrue(snapshot.getGauges().isEmpty());
+    }
+}
@@ -0,0 +1,145 @@
+package org.example;
+
+import org.junit.jupiter.api.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Testing OffHeapUserTable Class")
+public class OffHeapUserTableTest {
+
+    @Test
+    @DisplayName("Register and login without User objects")
+    public void registerAndLogin() {
+        OffHeapUserTable table = new OffHeapUserTable(10);
+        assertTrue(table.registerUser(new User("user1", "abcd1234", "user1@gmail.com", 45.00)));
+        assertTrue(table.registerUser("Jürgen", "pässwörd", null, 0));
+        assertTrue(table.registerUser("ユーザー", "パスワード", "user3@gmail.com", 0));
+        assertFalse(table.registerUser("user1", "other", "other@gmail.com", 0)); // username taken
+
+        assertTrue(table.authenticate("user1", "abcd1234"));
+        assertTrue(table.authenticate("Jürgen", "pässwörd"));
+        assertTrue(table.authenticate("ユーザー", "パスワード"));
+        assertFalse(table.authenticate("user1", "abcd123"));
+        assertFalse(table.authenticate("user1", null));
+        assertFalse(table.authenticate("nobody", "abcd1234"));
+        assertEquals(3, table.size());
+    }
+
+    @Test
+    @DisplayName("Users are materialized on demand")
+    public void getUser() {
+        OffHeapUserTable table = new OffHeapUserTable(10);
+        table.registerUser(new User("user1", "abcd1234", "user1@gmail.com", 45.00));
+        table.registerUser("user2", "pwd", null, 0);
+
+        User user = table.loginUser("user1", "abcd1234");
+        assertEquals("user1", user.getUsername());
+        assertEquals("user1@gmail.com", user.getEmail());
+        assertEquals(4500, user.getBalanceCents());
+        assertNull(table.getUser("user2").getEmail());
+        assertNull(table.loginUser("user1", "wrong"));
+        assertNull(table.getUser("nobody"));
+    }
+
+    @Test
+    @DisplayName("The slot table grows past its expected size")
+    public void growth() {
+        OffHeapUserTable table = new OffHeapUserTable(1);
+        for (int i = 0; i < 100_000; i++) {
+            assertTrue(table.registerUser("user" + i, "password" + i, null, i));
+        }
+        for (int i = 0; i < 100_000; i += 997) {
+            assertTrue(table.authenticate("user" + i, "password" + i));
+            assertEquals(i, table.getUser("user" + i).getBalanceCents());
+        }
+        assertTrue(table.containsUser("user99999"));
+        assertFalse(table.containsUser("user100000"));
+        assertTrue(table.offHeapBytes() > 0);
+    }
+
+    @Test
+    @DisplayName("Renames and removals free the old name, tombstones are reused")
+    public void updateAndRemove() {
+        OffHeapUserTable table = new OffHeapUserTable(1);
+        for (int i = 0; i < 1_000; i++) {
+            table.registerUser("user" + i, "password" + i, null, i);
+        }
+        for (int i = 0; i < 1_000; i += 2) {
+            assertTrue(table.updateUser("user" + i, "renamed" + i, "new" + i, "user" + i + "@gmail.com"));
+            assertTrue(table.removeUser("user" + (i + 1)));
+        }
+        assertFalse(table.updateUser("user0", "x", "x", null)); // gone
+        assertFalse(table.updateUser("renamed0", "renamed2", "x", null)); // taken
+        assertFalse(table.removeUser("user1"));
+        assertEquals(500, table.size());
+        for (int i = 0; i < 1_000; i += 2) {
+            assertFalse(table.containsUser("user" + i));
+            assertTrue(table.authenticate("renamed" + i, "new" + i));
+            assertEquals(i, table.getUser("renamed" + i).getBalanceCents());
+        }
+        for (int i = 0; i < 1_000; i++) {
+            assertTrue(table.registerUser("user" + i, "again", null, 0));
+        }
+        assertEquals(1_500, table.size());
+    }
+
+    @Test
+    @DisplayName("Purchases are kept in order and a view reads them from the table")
+    public void purchases() {
+        OffHeapUserTable table = new OffHeapUserTable(10);
+        table.registerUser("user1", "pwd", null, 100);
+        for (long id = 1; id <= 10; id++) {
+            assertEquals(100 - 10 * id, table.purchase("user1", 10, id % 3));
+        }
+        assertEquals(-1, table.purchase("user1", 10, 1)); // insufficient funds
+        assertArrayEquals(new long[]{1, 2, 0, 1, 2, 0, 1, 2, 0, 1}, table.purchasedBookIds("user1"));
+        assertEquals(0, table.getUser("user1").getBalanceCents());
+        assertEquals(OffHeapUserTable.NO_USER, table.credit("nobody", 10));
+    }
+
+    @Test
+    @DisplayName("Hashed passwords")
+    public void hashedPasswords() {
+        OffHeapUserTable table = new OffHeapUserTable(10);
+        table.setPasswordHasher(new PasswordHasher(1_000));
+        table.registerUser("user1", "abcd1234", "user1@gmail.com", 0);
+        assertTrue(table.getUser("user1").getPassword().startsWith("pbkdf2-sha256$"));
+        assertTrue(table.authenticate("user1", "abcd1234"));
+        assertFalse(table.authenticate("user1", "wrong"));
+    }
+
+    @Test
+    @DisplayName("Logins keep working while users register and the table resizes")
+    public void concurrentReadsDuringRegistration() throws InterruptedException {
+        OffHeapUserTable table = new OffHeapUserTable(1);
+        table.registerUser("user0", "password0", null, 0);
+        List<Throwable> failures = new ArrayList<>();
+
+        Thread writer = new Thread(() -> {
+            for (int i = 1; i < 50_000; i++) {
+                table.registerUser("user" + i, "password" + i, null, i);
+            }
+        });
+        Thread reader = new Thread(() -> {
+            try {
+                while (writer.isAlive()) {
+                    assertTrue(table.authenticate("user0", "password0"));
+                    assertFalse(table.authenticate("user0", "password1"));
+                }
+            } catch (Throwable e) {
+                synchronized (failures) {
+                    failures.add(e);
+                }
+            }
+        });
+        writer.start();
+        reader.start();
+        writer.join();
+        reader.join();
+        assertEquals(List.of(), failures);
+        assertEquals(50_000, table.size());
+    }
+}
@@ -0,0 +1,69 @@
+package org.example;
+
+import org.junit.jupiter.api.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PrimitiveIterator;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Testing PostingList Class")
+public class PostingListTest {
+
+    @Test
+    @DisplayName("Random adds and removals match a TreeSet")
+    public void matchesTreeSet() {
+        Random random = new Random(42);
+        TreeSet<Long> expected = new TreeSet<>();
+        PostingList posting = PostingList.EMPTY;
+        for (int i = 0; i < 50_000; i++) {
+            // Mostly appends above the maximum, like catalog sequences, with inserts and removals anywhere.
+            long value = random.nextInt(4) == 0 ? random.nextInt(i + 1) : i;
+            if (random.nextInt(3) == 0) {
+                expected.remove(value);
+                posting = posting.without(value);
+            } else {
+                expected.add(value);
+                posting = posting.with(value);
+            }
+            assertEquals(expected.size(), posting.size());
+        }
+        assertEquals(new ArrayList<>(expected), values(posting));
+
+        // Emptying the list from both ends
+        for (Long value : new ArrayList<>(expected)) {
+            posting = posting.without(value);
+        }
+        assertTrue(posting.isEmpty());
+        assertEquals(List.of(), values(posting));
+    }
+
+    @Test
+    @DisplayName("Old versions are not changed by later writes")
+    public void versionsAreImmutable() {
+        PostingList posting = PostingList.EMPTY;
+        for (long value = 0; value < 1000; value++) {
+            posting = posting.with(value);
+        }
+        PostingList before = posting;
+        posting = posting.without(500).with(2000);
+
+        assertEquals(1000, values(before).size());
+        assertTrue(values(before).contains(500L));
+        assertFalse(values(posting).contains(500L));
+        assertSame(posting, posting.with(2000)); // already there
+        assertSame(posting, posting.without(500)); // not there
+    }
+
+    private static List<Long> values(PostingList posting) {
+        List<Long> values = new ArrayList<>();
+        PrimitiveIterator.OfLong iterator = posting.iterator();
+        while (iterator.hasNext()) {
+            values.add(iterator.nextLong());
+        }
+        return values;
+    }
+}
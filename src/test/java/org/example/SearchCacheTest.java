@@ -0,0 +1,81 @@
+package org.example;
+
+import org.junit.jupiter.api.*;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Testing SearchCache Class")
+public class SearchCacheTest {
+
+    private BookService bookService;
+    private Book book1;
+    private Book book2;
+
+    @BeforeEach
+    public void setUp() {
+        bookService = new BookService();
+        bookService.setSearchCache(1_000);
+        book1 = new Book("Book1", "author1", "Mystery", 20.00);
+        book2 = new Book("Book2", "author2", "Fantasy", 15.00);
+        bookService.addBooks(List.of(book1, book2));
+    }
+
+    @Test
+    @DisplayName("Repeated searches are served from the cache")
+    public void cachedSearch() {
+        List<Book> first = bookService.searchBook("Book");
+        assertEquals(List.of(book1, book2), first);
+        assertSame(first, bookService.searchBook("Book"));
+        assertThrows(UnsupportedOperationException.class, () -> first.add(book1));
+    }
+
+    @Test
+    @DisplayName("Adding, removing or changing a book invalidates cached results")
+    public void invalidation() {
+        assertEquals(List.of(book1, book2), bookService.searchBook("Book"));
+
+        Book book3 = new Book("Book3", "author3", "Fiction", 10.00);
+        bookService.addBook(book3);
+        assertEquals(List.of(book1, book2, book3), bookService.searchBook("Book"));
+
+        bookService.removeBook(book1);
+        assertEquals(List.of(book2, book3), bookService.searchBook("Book"));
+
+        book2.setTitle("Renamed");
+        assertEquals(List.of(book3), bookService.searchBook("Book"));
+        assertEquals(List.of(book2), bookService.searchBook("Renamed"));
+    }
+
+    @Test
+    @DisplayName("Hot keywords survive a flood of one-off keywords")
+    public void frequencyBasedEviction() {
+        SearchCache cache = new SearchCache(100);
+        List<Book> result = List.of(book1);
+        for (int i = 0; i < 20; i++) {
+            if (cache.get("hot", 0) == null) {
+                cache.put("hot", 0, result);
+            }
+        }
+        // Each one-off keyword is looked up and cached once, far more than the cache can hold.
+        for (int i = 0; i < 1_000; i++) {
+            String keyword = "once" + i;
+            assertNull(cache.get(keyword, 0));
+            cache.put(keyword, 0, result);
+        }
+        assertSame(result, cache.get("hot", 0));
+        assertTrue(cache.weight() <= 100);
+    }
+
+    @Test
+    @DisplayName("Size-aware: big results count for their books")
+    public void weightBound() {
+        SearchCache cache = new SearchCache(10);
+        cache.put("big", 0, List.of(book1, book1, book1, book1, book1, book1, book1, book1, book1, book1));
+        assertNull(cache.get("big", 0)); // 10 books plus the keyword is over the bound
+        cache.put("small", 0, List.of(book1));
+        assertEquals(1, cache.size());
+        assertNull(cache.get("small", 1)); // computed at an older version
+    }
+}
@@ -0,0 +1,267 @@
+package org.example;
+
+import org.junit.jupiter.api.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Testing Server Class")
+public class ServerTest {
+
+    private final HttpClient client = HttpClient.newHttpClient();
+    private BookService bookService;
+    private Server server;
+    private String base;
+    private Book book;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        bookService = new BookService();
+        book = new Book("1984", "George Orwell", "Dystopian", 9.99);
+        bookService.addBook(book);
+        UserService userService = UserService.concurrent();
+        server = new Server(bookService, userService, new SessionManager(userService, 30, TimeUnit.MINUTES));
+        server.setOperatorKey("operator-secret");
+        base = "http://localhost:" + server.start(0).getPort();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        server.close();
+    }
+
+    @Test
+    @DisplayName("Register, login, search, purchase and review over HTTP")
+    public void endToEnd() throws Exception {
+        assertEquals(201, post("/register", "username=user1&password=abcd1234&email=user1%40gmail.com").statusCode());
+        assertEquals(409, post("/register", "username=user1&password=other").statusCode());
+        assertEquals(200, post("/topup", "key=operator-secret&username=user1&amount=15").statusCode());
+        assertEquals(401, post("/login", "username=user1&password=wrong").statusCode());
+        String token = post("/login", "username=user1&password=abcd1234").body();
+
+        HttpResponse<String> search = get("/search?q=" + URLEncoder.encode("Orwell", StandardCharsets.UTF_8));
+        assertEquals(200, search.statusCode());
+        assertEquals(book.getId() + "\t1984\tGeorge Orwell\tDystopian\t9.99\n", search.body());
+
+        assertEquals(403, post("/review", "token=" + token + "&bookId=" + book.getId() + "&review=Great").statusCode());
+        assertEquals(200, post("/purchase", "token=" + token + "&bookId=" + book.getId()).statusCode());
+        assertEquals(402, post("/purchase", "token=" + token + "&bookId=" + book.getId()).statusCode()); // 5.01 left
+        assertEquals(200, post("/review", "token=" + token + "&bookId=" + book.getId() + "&review=Great+read").statusCode());
+        assertEquals(List.of("Great read"), book.getReviews());
+    }
+
+    @Test
+    @DisplayName("Bad requests get 4xx answers")
+    public void badRequests() throws Exception {
+        assertEquals(401, post("/purchase", "token=nope&bookId=" + book.getId()).statusCode());
+        assertEquals(400, post("/purchase", "bookId=" + book.getId()).statusCode()); // no token
+        assertEquals(400, get("/search?q=1984&limit=-1").statusCode());
+        assertEquals(405, get("/login?username=user1&password=abcd1234").statusCode());
+        assertEquals(400, post("/topup", "key=operator-secret&username=user1&amount=-5").statusCode());
+        assertEquals(400, post("/topup", "key=operator-secret&username=user1&amount=NaN").statusCode());
+        assertEquals(400, post("/topup", "key=operator-secret&username=user1&amount=Infinity").statusCode());
+        assertEquals(404, post("/topup", "key=operator-secret&username=nobody&amount=5").statusCode());
+
+        post("/register", "username=user1&password=abcd1234");
+        String token = post("/login", "username=user1&password=abcd1234").body();
+        assertEquals(404, post("/purchase", "token=" + token + "&bookId=-1").statusCode());
+        assertEquals(400, post("/purchase", "token=" + token + "&bookId=abc").statusCode());
+    }
+
+    @Test
+    @DisplayName("Only the operator can add funds")
+    public void topUpNeedsOperatorKey() throws Exception {
+        // A balance sent with the registration is ignored, the account starts empty.
+        post("/register", "username=user1&password=abcd1234&balance=1e12");
+        String token = post("/login", "username=user1&password=abcd1234").body();
+        assertEquals(402, post("/purchase", "token=" + token + "&bookId=" + book.getId()).statusCode());
+
+        assertEquals(403, post("/topup", "username=user1&amount=1e12").statusCode());
+        assertEquals(403, post("/topup", "key=guess&username=user1&amount=1e12").statusCode());
+        assertEquals(402, post("/purchase", "token=" + token + "&bookId=" + book.getId()).statusCode());
+
+        assertEquals(200, post("/topup", "key=operator-secret&username=user1&amount=9.99").statusCode());
+        assertEquals(200, post("/purchase", "token=" + token + "&bookId=" + book.getId()).statusCode());
+    }
+
+    @Test
+    @DisplayName("A UserService that is not thread-safe is refused")
+    public void requiresConcurrentUserService() {
+        UserService userService = new UserService();
+        assertThrows(IllegalArgumentException.class,
+                () -> new Server(bookService, userService, new SessionManager(userService, 30, TimeUnit.MINUTES)));
+    }
+
+    @Test
+    @DisplayName("A request beyond the thread cap gets 503 at once")
+    public void busyAtThreadCap() throws Exception {
+        CountDownLatch searching = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1); // the first search holds the only request thread
+        UserService userService = UserService.concurrent();
+        try (Server small = new Server(blockingSearches(searching, release), userService, new SessionManager(userService, 30, TimeUnit.MINUTES), 1, 1, Server.VIRTUAL_THREADS)) {
+            String smallBase = "http://localhost:" + small.start(0).getPort();
+            CompletableFuture<HttpResponse<String>> held = client.sendAsync(
+                    HttpRequest.newBuilder(URI.create(smallBase + "/search?q=x")).GET().build(), HttpResponse.BodyHandlers.ofString());
+            searching.await();
+
+            HttpResponse<String> busy = client.send(HttpRequest.newBuilder(URI.create(smallBase + "/search?q=y")).GET().build(),
+                    HttpResponse.BodyHandlers.ofString());
+            assertEquals(503, busy.statusCode());
+            assertEquals("1", busy.headers().firstValue("Retry-After").orElse(null));
+
+            release.countDown();
+            assertEquals(200, held.get().statusCode());
+        }
+    }
+
+    @Test
+    @DisplayName("With the busy threads taken too, a connection is closed, never served on the dispatcher")
+    public void closedWhenBusyThreadsAreTaken() throws Exception {
+        CountDownLatch searching = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        UserService userService = UserService.concurrent();
+        try (Server small = new Server(blockingSearches(searching, release), userService,
+                new SessionManager(userService, 30, TimeUnit.MINUTES), 1, 1, Server.VIRTUAL_THREADS)) {
+            int port = small.start(0).getPort();
+            try (Socket held = send(port, "GET /search?q=x HTTP/1.1\r\nHost: localhost\r\n\r\n");
+                 Socket slow503 = send(port, "GET /search?q=y HTTP/1.1\r\n")) { // never finishes its headers
+                searching.await();
+                Thread.sleep(200); // for the dispatcher to hand slow503 to the busy thread
+
+                // Another slow client is turned away at once, and so is the request after it: the
+                // dispatcher is not stuck waiting for the slow client's headers.
+                try (Socket slow = send(port, "GET /search?q=z HTTP/1.1\r\n");
+                     Socket next = send(port, "GET /search?q=z HTTP/1.1\r\nHost: localhost\r\n\r\n")) {
+                    assertClosedWithoutAnswer(slow);
+                    assertClosedWithoutAnswer(next);
+                }
+
+                release.countDown();
+                assertEquals("HTTP/1.1 200 OK", statusLine(held));
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Thousands of requests in flight at once, each on a virtual thread")
+    public void manyConcurrentRequests() throws Exception {
+        // JDK 21 will do: every request sends its headers at once, so none stays pinned.
+        Assumptions.assumeTrue(ThreadPerTaskExecutor.virtualThreadsAvailable(), "needs JDK 21 or later");
+        int requests = 2 * Server.MAX_THREADS; // more than platform threads would be allowed
+        CountDownLatch searching = new CountDownLatch(requests);
+        CountDownLatch release = new CountDownLatch(1);
+        UserService userService = UserService.concurrent();
+        try (Server large = new Server(blockingSearches(searching, release), userService,
+                new SessionManager(userService, 30, TimeUnit.MINUTES), Server.MAX_VIRTUAL_THREADS, 1, true)) {
+            int port = large.start(0).getPort();
+            List<Socket> sockets = new ArrayList<>(requests);
+            try {
+                for (int i = 0; i < requests; i++) {
+                    sockets.add(send(port, "GET /search?q=x HTTP/1.1\r\nHost: localhost\r\n\r\n"));
+                }
+                assertTrue(searching.await(60, TimeUnit.SECONDS)); // all of them running at once
+                release.countDown();
+                for (Socket socket : sockets) {
+                    assertEquals("HTTP/1.1 200 OK", statusLine(socket));
+                }
+            } finally {
+                for (Socket socket : sockets) {
+                    socket.close();
+                }
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Concurrent purchases over HTTP never overspend")
+    public void concurrentPurchases() throws Exception {
+        post("/register", "username=user1&password=abcd1234");
+        post("/topup", "key=operator-secret&username=user1&amount=99.90"); // exactly 10 copies
+        String token = post("/login", "username=user1&password=abcd1234").body();
+
+        List<CompletableFuture<HttpResponse<String>>> responses = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            responses.add(client.sendAsync(request("/purchase").POST(
+                    HttpRequest.BodyPublishers.ofString("token=" + token + "&bookId=" + book.getId())).build(),
+                    HttpResponse.BodyHandlers.ofString()));
+        }
+        int purchased = 0;
+        for (CompletableFuture<HttpResponse<String>> response : responses) {
+            if (response.get().statusCode() == 200) {
+                purchased++;
+            }
+        }
+        assertEquals(10, purchased);
+    }
+
+    // Searches that wait for release, counting down searching as each one starts
+    private static BookService blockingSearches(CountDownLatch searching, CountDownLatch release) {
+        return new BookService() {
+            @Override
+            public List<Book> searchBook(String keyword, int offset, int limit) {
+                searching.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.searchBook(keyword, offset, limit);
+            }
+        };
+    }
+
+    // Raw sockets, so a test can send half a request or hold thousands of connections
+    private static Socket send(int port, String request) throws IOException {
+        Socket socket = new Socket("localhost", port);
+        socket.setSoTimeout(30_000);
+        socket.getOutputStream().write(request.getBytes(StandardCharsets.US_ASCII));
+        socket.getOutputStream().flush();
+        return socket;
+    }
+
+    private static String statusLine(Socket socket) throws IOException {
+        StringBuilder line = new StringBuilder();
+        InputStream in = socket.getInputStream();
+        for (int c = in.read(); c != '\r' && c != -1; c = in.read()) {
+            line.append((char) c);
+        }
+        return line.toString();
+    }
+
+    private static void assertClosedWithoutAnswer(Socket socket) throws IOException {
+        socket.setSoTimeout(5_000); // a hung dispatcher shows up as SocketTimeoutException
+        try {
+            assertEquals(-1, socket.getInputStream().read());
+        } catch (SocketException e) {
+            // reset: closed with the request still unread
+        }
+    }
+
+    private HttpRequest.Builder request(String path) {
+        return HttpRequest.newBuilder(URI.create(base + path));
+    }
+
+    private HttpResponse<String> get(String path) throws Exception {
+        return client.send(request(path).GET().build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private HttpResponse<String> post(String path, String form) throws Exception {
+        return client.send(request(path).header("Content-Type", "application/x-www-form-urlencoded")
+                .POST(HttpRequest.BodyPublishers.ofString(form)).build(), HttpResponse.BodyHandlers.ofString());
+    }
+}
@@ -0,0 +1,79 @@
+package org.example;
+
+import org.junit.jupiter.api.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Testing SessionManager Class")
+public class SessionManagerTest {
+
+    private final AtomicLong now = new AtomicLong();
+    private UserService userService;
+    private SessionManager sessions;
+    private User user;
+
+    @BeforeEach
+    public void setUp() {
+        userService = UserService.concurrent();
+        user = new User("user1", "abcd1234", "user1@gmail.com");
+        userService.registerUser(user);
+        // The clock only moves when a test moves it.
+        sessions = new SessionManager(userService, 30, TimeUnit.MINUTES, now::get);
+    }
+
+    @Test
+    @DisplayName("Login issues a token that resolves to the user")
+    public void loginAndResolve() {
+        String token = sessions.login("user1", "abcd1234");
+        assertNotNull(token);
+        assertEquals(22, token.length()); // 128 bits, URL-safe base64 without padding
+        assertSame(user, sessions.resolve(token));
+
+        // Every login gets its own token, and bad credentials get none.
+        assertNotEquals(token, sessions.login("user1", "abcd1234"));
+        assertNull(sessions.login("user1", "wrong"));
+        assertNull(sessions.resolve("not-a-token"));
+        assertNull(sessions.resolve(null));
+    }
+
+    @Test
+    @DisplayName("Sessions expire after the ttl and are swept by the timer wheel")
+    public void expiry() {
+        String token = sessions.login("user1", "abcd1234");
+        now.addAndGet(TimeUnit.MINUTES.toNanos(29));
+        assertSame(user, sessions.resolve(token));
+
+        now.addAndGet(TimeUnit.MINUTES.toNanos(1));
+        assertNull(sessions.resolve(token));
+
+        // A session nobody asks about again is still dropped once the wheel passes it.
+        sessions.login("user1", "abcd1234");
+        assertEquals(1, sessions.sessionCount());
+        now.addAndGet(TimeUnit.HOURS.toNanos(2));
+        sessions.resolve("not-a-token");
+        assertEquals(0, sessions.sessionCount());
+    }
+
+    @Test
+    @DisplayName("Revoking one session or all of a user's sessions")
+    public void revoke() {
+        String token1 = sessions.login("user1", "abcd1234");
+        String token2 = sessions.login("user1", "abcd1234");
+        String token3 = sessions.login("user1", "abcd1234");
+
+        assertTrue(sessions.revoke(token1));
+        assertFalse(sessions.revoke(token1));
+        assertNull(sessions.resolve(token1));
+        assertSame(user, sessions.resolve(token2));
+
+        // e.g. after a password change
+        assertEquals(2, sessions.revokeAll(user));
+        assertNull(sessions.resolve(token2));
+        assertNull(sessions.resolve(token3));
+        assertEquals(0, sessions.revokeAll(user));
+        assertEquals(0, sessions.sessionCount());
+    }
+}
@@ -0,0 +1,71 @@
+package org.example;
+
+import org.junit.jupiter.api.*;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Testing ThreadPerTaskExecutor Class")
+public class ThreadPerTaskExecutorTest {
+
+    @Test
+    @DisplayName("Every task runs on a new thread, at most maxThreads at a time")
+    public void newThreadPerTaskUpToTheCap() throws InterruptedException {
+        ThreadPerTaskExecutor executor = new ThreadPerTaskExecutor("test", 2);
+        Set<Thread> threads = ConcurrentHashMap.newKeySet();
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(2);
+        for (int i = 0; i < 2; i++) {
+            executor.execute(() -> {
+                threads.add(Thread.currentThread());
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        // Both threads are busy, so a third task is refused rather than queued.
+        assertFalse(executor.tryExecute(() -> fail("ran past the cap")));
+        release.countDown();
+
+        CountDownLatch third = new CountDownLatch(1);
+        executor.execute(() -> {
+            threads.add(Thread.currentThread());
+            third.countDown();
+        });
+        assertTrue(third.await(5, TimeUnit.SECONDS));
+        assertEquals(3, threads.size()); // no thread ran two tasks
+
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        assertThrows(RejectedExecutionException.class, () -> executor.execute(() -> { }));
+    }
+
+    @Test
+    @DisplayName("Virtual threads where asked for and the JDK has them")
+    public void virtualThreads() throws InterruptedException {
+        ThreadPerTaskExecutor executor = new ThreadPerTaskExecutor("test", 1, true);
+        assertEquals(ThreadPerTaskExecutor.virtualThreadsAvailable(), executor.isVirtual());
+        assertFalse(new ThreadPerTaskExecutor("test", 1).isVirtual());
+
+        // Platform threads stand in before JDK 21; either way the thread is named and a daemon.
+        CountDownLatch ran = new CountDownLatch(1);
+        executor.execute(() -> {
+            assertEquals("test-1", Thread.currentThread().getName());
+            assertTrue(Thread.currentThread().isDaemon());
+            ran.countDown();
+        });
+        assertTrue(ran.await(5, TimeUnit.SECONDS));
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,162 @@
+package org.example;
+
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Testing UserJournal Class")
+public class UserJournalTest {
+
+    @TempDir
+    Path directory;
+
+    private BookService bookService;
+    private Book book;
+
+    @BeforeEach
+    public void setUp() {
+        bookService = new BookService();
+        book = new Book("1984", "George Orwell", "Dystopian", 9.99);
+        bookService.addBook(book);
+    }
+
+    @Test
+    @DisplayName("Register, purchase, update and top-up are recovered from the log")
+    public void recoverFromLog() throws IOException {
+        try (UserJournal journal = new UserJournal(directory)) {
+            UserService userService = UserService.open(journal, bookService::getBook);
+            User user = new User("user1", "abcd1234", "user1@gmail.com", 45);
+            assertTrue(userService.registerUser(user));
+            assertTrue(bookService.purchaseBook(user, book));
+            assertTrue(userService.updateUserProfile(user, "user2", "1234abcd", "user2@gmail.com"));
+            assertTrue(userService.topUp("user2", 100));
+        }
+
+        // A fresh service on the same directory should see the state as it was before the restart.
+        try (UserJournal journal = new UserJournal(directory)) {
+            UserService userService = UserService.open(journal, bookService::getBook);
+            assertNull(userService.loginUser("user1", "abcd1234"));
+            User user = userService.loginUser("user2", "1234abcd");
+            assertNotNull(user);
+            assertEquals("user2@gmail.com", user.getEmail());
+            assertEquals(3601, user.getBalanceCents());
+            assertEquals(List.of(book), user.getPurchasedBooks());
+        }
+    }
+
+    @Test
+    @DisplayName("Checkpoint replaces the log with a snapshot")
+    public void recoverFromSnapshotAndLogTail() throws IOException {
+        try (UserJournal journal = new UserJournal(directory)) {
+            UserService userService = UserService.open(journal, bookService::getBook);
+            User user = new User("user1", "abcd1234", "user1@gmail.com", 20);
+            userService.registerUser(user);
+            bookService.purchaseBook(user, book);
+            userService.checkpoint();
+            // these changes only live in the log written after the snapshot
+            userService.registerUser(new User("user2", "pwd", "user2@gmail.com"));
+            bookService.purchaseBook(user, book);
+        }
+
+        // Only the snapshot and the newest log should be left.
+        try (Stream<Path> files = Files.list(directory)) {
+            assertEquals(List.of("log-2", "snapshot-2"), files.map(file -> file.getFileName().toString()).sorted().toList());
+        }
+
+        try (UserJournal journal = new UserJournal(directory)) {
+            UserService userService = UserService.open(journal, bookService::getBook);
+            User user = userService.loginUser("user1", "abcd1234");
+            assertEquals(List.of(book, book), user.getPurchasedBooks()); // bought twice, listed twice
+            assertEquals(2000 - 2 * 999, user.getBalanceCents());
+            assertNotNull(userService.loginUser("user2", "pwd"));
+        }
+    }
+
+    @Test
+    @DisplayName("Torn record at the end of the log is ignored")
+    public void ignoreTornTail() throws IOException {
+        try (UserJournal journal = new UserJournal(directory)) {
+            UserService userService = UserService.open(journal, bookService::getBook);
+            userService.registerUser(new User("user1", "abcd1234", "user1@gmail.com"));
+        }
+        // Simulate a crash in the middle of writing the next record.
+        Files.write(directory.resolve("log-1"), new byte[]{0, 0, 0, 40, 1, 1}, StandardOpenOption.APPEND);
+
+        try (UserJournal journal = new UserJournal(directory)) {
+            UserService userService = UserService.open(journal, bookService::getBook);
+            assertNotNull(userService.loginUser("user1", "abcd1234"));
+            // new records go to a fresh log, so they can't end up behind the torn one
+            assertTrue(userService.registerUser(new User("user2", "pwd", "user2@gmail.com")));
+        }
+        try (UserJournal journal = new UserJournal(directory)) {
+            assertEquals(2, journal.recover(bookService::getBook).size());
+        }
+    }
+
+    @Test
+    @DisplayName("Purchases racing renames are replayed on the renamed user")
+    public void recoverPurchasesDuringRenames() throws Exception {
+        List<Book> books = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            books.add(new Book("Book" + i, "Author", "Fiction", 0.01));
+        }
+        bookService.addBooks(books);
+        try (UserJournal journal = new UserJournal(directory)) {
+            UserService userService = UserService.open(journal, bookService::getBook);
+            User user = new User("user0", "pwd", "user@gmail.com", 100);
+            userService.registerUser(user);
+            Thread renames = new Thread(() -> {
+                for (int i = 1; i <= 500; i++) {
+                    userService.updateUserProfile(user, "user" + i, "pwd", "user@gmail.com");
+                }
+            });
+            renames.start();
+            for (Book book : books) {
+                assertTrue(bookService.purchaseBook(user, book));
+            }
+            renames.join();
+        }
+
+        // Every purchase lands on the user, whatever name it was logged under.
+        try (UserJournal journal = new UserJournal(directory)) {
+            UserService userService = UserService.open(journal, bookService::getBook);
+            User user = userService.loginUser("user500", "pwd");
+            assertEquals(10000 - 500, user.getBalanceCents());
+            assertEquals(books, user.getPurchasedBooks());
+        }
+    }
+
+    @Test
+    @DisplayName("Concurrent registrations are all durable")
+    public void concurrentRegistrations() throws Exception {
+        try (UserJournal journal = new UserJournal(directory)) {
+            UserService userService = UserService.open(journal, bookService::getBook);
+            Thread[] threads = new Thread[8];
+            for (int t = 0; t < threads.length; t++) {
+                int thread = t;
+                threads[t] = new Thread(() -> {
+                    for (int i = 0; i < 100; i++) {
+                        userService.registerUser(new User("user" + thread + "-" + i, "pwd", "user@gmail.com"));
+                    }
+                });
+                threads[t].start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        }
+
+        try (UserJournal journal = new UserJournal(directory)) {
+            assertEquals(800, journal.recover(bookService::getBook).size());
+        }
+    }
+}
@@ -2,12 +2,22 @@ package org.example;
 
 import org.junit.jupiter.api.*;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.mockito.junit.jupiter.MockitoExtension;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
@@ -173,4 +183,263 @@ public class UserServiceTest {
         // check to see the put() is not called with any arguments.
         verify(userDatabase, never()).put(anyString(), any(User.class));
     }
+
+    @Test
+    @DisplayName("Update user profile - old username is released")
+    public void updateProfileReleasesOldUsername() {
+        // Using a real service here, the stale key is only visible in the actual map.
+        UserService service = new UserService();
+        User user = new User("user1", "abcd1234", "user1@gmail.com");
+        assertTrue(service.registerUser(user));
+
+        assertTrue(service.updateUserProfile(user, "user2", "1234abcd", "user2@gmail.com"));
+        // the old username should no longer log in, and should be free to register again.
+        assertNull(service.loginUser("user1", "1234abcd"));
+        assertEquals(user, service.loginUser("user2", "1234abcd"));
+        assertTrue(service.registerUser(new User("user1", "pwd", "other@gmail.com")));
+    }
+
+    @Test
+    @DisplayName("Register user - concurrent registrations of the same username")
+    public void registerUserConcurrent() throws Exception {
+        UserService service = UserService.concurrent();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int i = 0; i < 64; i++) {
+                User user = new User("user1", "pwd" + i, "user1@gmail.com");
+                results.add(executor.submit(() -> service.registerUser(user)));
+            }
+            // Only one of the racing registrations may win the username.
+            int registered = 0;
+            for (Future<Boolean> result : results) {
+                if (result.get()) {
+                    registered++;
+                }
+            }
+            assertEquals(1, registered);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    @DisplayName("Update user profile - concurrent renames of one user leave a single key")
+    public void updateProfileConcurrent() throws Exception {
+        Map<String, User> users = new ConcurrentHashMap<>();
+        UserService service = new UserService(users);
+        User user = new User("user0", "pwd", "user0@gmail.com");
+        assertTrue(service.registerUser(user));
+
+        // Both threads rename the same user. A rename that read the name before the other one
+        // changed it must not leave the name in between behind as a stale key.
+        Thread[] threads = new Thread[2];
+        for (int t = 0; t < threads.length; t++) {
+            String prefix = "t" + t + "-";
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 5_000; i++) {
+                    service.updateUserProfile(user, prefix + i, "pwd", "user@gmail.com");
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(Map.of(user.getUsername(), user), users);
+    }
+
+    @Test
+    @DisplayName("Register users - bulk with duplicates")
+    public void registerUsersBulk() {
+        UserService service = UserService.concurrent();
+        service.registerUser(new User("user1", "abcd1234", "user1@gmail.com"));
+
+        // user1 is already taken and user2 is repeated within the batch, so only the first user2 and user3 get in.
+        // A null is skipped, like in BookService.addBooks.
+        User user2 = new User("user2", "pwd2", "user2@gmail.com");
+        boolean[] result = service.registerUsers(Arrays.asList(
+                new User("user1", "pwd", "other@gmail.com"),
+                user2,
+                null,
+                new User("user2", "pwd", "other@gmail.com"),
+                new User("user3", "pwd3", "user3@gmail.com")));
+        assertArrayEquals(new boolean[]{false, true, false, false, true}, result);
+        assertEquals(user2, service.loginUser("user2", "pwd2"));
+        assertNotNull(service.loginUser("user3", "pwd3"));
+    }
+
+    @Test
+    @DisplayName("Login user - hashed passwords")
+    public void loginUserHashed() {
+        UserService service = UserService.concurrent();
+        service.setPasswordHasher(new PasswordHasher(1_000)); // few iterations, to keep the test fast
+        User user = new User("user1", "abcd1234", "user1@gmail.com");
+        assertTrue(service.registerUser(user));
+
+        // Only the salted hash is stored, and it still checks out.
+        assertTrue(user.getPassword().startsWith("pbkdf2-sha256$"));
+        assertEquals(user, service.loginUser("user1", "abcd1234"));
+        assertNull(service.loginUser("user1", "wrong"));
+        assertNull(service.loginUser("user1", null));
+        assertNull(service.loginUser("nobody", "abcd1234"));
+
+        // A new password is hashed too, and the cached login for the old one is dropped.
+        assertTrue(service.updateUserProfile(user, "user2", "1234abcd", "user1@gmail.com"));
+        assertNull(service.loginUser("user1", "abcd1234"));
+        assertNull(service.loginUser("user2", "abcd1234"));
+        assertEquals(user, service.loginUser("user2", "1234abcd"));
+    }
+
+    @Test
+    @DisplayName("Register user - hashed passwords, only for users that get registered")
+    public void registerUserHashed() {
+        UserService service = UserService.concurrent();
+        service.setPasswordHasher(new PasswordHasher(1_000));
+        assertTrue(service.registerUser(new User("user1", "abcd1234", "user1@gmail.com")));
+
+        // A rejected registration leaves the caller's user as it was.
+        User duplicate = new User("user1", "other", "other@gmail.com");
+        assertFalse(service.registerUser(duplicate));
+        assertEquals("other", duplicate.getPassword());
+        User batchDuplicate = new User("user1", "again", "again@gmail.com");
+        assertArrayEquals(new boolean[]{false}, service.registerUsers(List.of(batchDuplicate)));
+        assertEquals("again", batchDuplicate.getPassword());
+
+        // A password that looks like a hash is still just a password, hashed like any other.
+        String lookalike = new PasswordHasher(1_000).hash("secret");
+        User user2 = new User("user2", lookalike, "user2@gmail.com");
+        assertTrue(service.registerUser(user2));
+        assertNotEquals(lookalike, user2.getPassword());
+        assertNull(service.loginUser("user2", "secret"));
+        assertEquals(user2, service.loginUser("user2", lookalike));
+    }
+
+    @Test
+    @DisplayName("Login user - repeat logins skip the hash until the cache entry expires")
+    public void loginUserCached() {
+        UserService service = UserService.concurrent();
+        PasswordHasher hasher = spy(new PasswordHasher(1_000));
+        AtomicLong now = new AtomicLong();
+        service.setPasswordHasher(hasher, new LoginCache(100, 1, TimeUnit.MINUTES, now::get));
+        service.registerUser(new User("user1", "abcd1234", "user1@gmail.com"));
+
+        assertNotNull(service.loginUser("user1", "abcd1234"));
+        assertNotNull(service.loginUser("user1", "abcd1234"));
+        assertNull(service.loginUser("user1", "wrong")); // a wrong password is never answered from the cache
+        verify(hasher, times(2)).matches(anyString(), anyString());
+
+        now.addAndGet(TimeUnit.MINUTES.toNanos(1));
+        assertNotNull(service.loginUser("user1", "abcd1234"));
+        verify(hasher, times(3)).matches(anyString(), anyString());
+
+        // Unknown usernames run the same hash as a wrong password, against a hash nobody has.
+        assertNull(service.loginUser("nobody", "abcd1234"));
+        verify(hasher, times(4)).matches(anyString(), anyString());
+    }
+
+    @Test
+    @DisplayName("Login user - unknown usernames cost a full hash check, like a wrong password")
+    public void loginUnknownUserHashes() {
+        UserService service = UserService.concurrent();
+        PasswordHasher hasher = spy(new PasswordHasher(1_000));
+        service.setPasswordHasher(hasher, new LoginCache(100, 1, TimeUnit.MINUTES));
+        service.registerUser(new User("user1", "abcd1234", "user1@gmail.com"));
+
+        assertNull(service.loginUser("user1", "wrong"));
+        assertNull(service.loginUser("nobody", "wrong"));
+        assertNull(service.loginUser("nobody", "wrong"));
+        // One check per attempt, each against a hash with the same iteration count
+        ArgumentCaptor<String> checked = ArgumentCaptor.forClass(String.class);
+        verify(hasher, times(3)).matches(eq("wrong"), checked.capture());
+        for (String stored : checked.getAllValues()) {
+            assertTrue(stored.startsWith(PasswordHasher.PREFIX + 1_000 + "$"), stored);
+        }
+        assertNotEquals(checked.getAllValues().get(0), checked.getAllValues().get(1));
+    }
+
+    @Test
+    @DisplayName("Off-heap users - register, login and update like the other modes")
+    public void offHeapRegisterLoginUpdate() {
+        UserService service = UserService.offHeap(10, id -> null);
+        User user = new User("user1", "abcd1234", "user1@gmail.com");
+        assertTrue(service.registerUser(user));
+        assertFalse(service.registerUser(new User("user1", "other", "other@gmail.com")));
+        assertTrue(service.registerUser(new User("user2", "pwd", "user2@gmail.com")));
+
+        User loggedIn = service.loginUser("user1", "abcd1234");
+        assertEquals("user1@gmail.com", loggedIn.getEmail());
+        assertNull(service.loginUser("user1", "wrong"));
+        assertNull(service.loginUser("nobody", "abcd1234"));
+
+        assertFalse(service.updateUserProfile(loggedIn, "user2", "x", "x@gmail.com")); // taken
+        assertTrue(service.updateUserProfile(loggedIn, "user3", "1234abcd", "user3@gmail.com"));
+        assertEquals("user3", loggedIn.getUsername());
+        assertNull(service.loginUser("user1", "abcd1234"));
+        assertEquals("user3@gmail.com", service.loginUser("user3", "1234abcd").getEmail());
+        // The old name is free again
+        assertTrue(service.registerUser(new User("user1", "new", "new@gmail.com")));
+    }
+
+    @Test
+    @DisplayName("Off-heap users - purchases and top-ups through any view land in the table")
+    public void offHeapPurchases() {
+        BookService bookService = new BookService();
+        Book book1 = new Book("1984", "George Orwell", "Dystopian", 10.00);
+        Book book2 = new Book("Animal Farm", "George Orwell", "Satire", 10.00);
+        bookService.addBooks(List.of(book1, book2));
+        UserService service = UserService.offHeap(10, bookService::getBook);
+        service.registerUser(new User("user1", "pwd", "user1@gmail.com"));
+        assertTrue(service.topUp("user1", 1500));
+        assertFalse(service.topUp("nobody", 1500));
+
+        // Two logins, two views of one balance: it can't be spent twice
+        User first = service.loginUser("user1", "pwd");
+        User second = service.loginUser("user1", "pwd");
+        assertTrue(bookService.purchaseBook(first, book1));
+        assertFalse(bookService.purchaseBook(second, book2));
+        assertEquals(500, second.getBalanceCents());
+        assertEquals(List.of(book1), second.getPurchasedBooks());
+        assertTrue(bookService.addBookReview(second, book1, "Great"));
+
+        // Purchases survive a rename
+        assertTrue(service.updateUserProfile(first, "user2", "pwd", "user2@gmail.com"));
+        User renamed = service.loginUser("user2", "pwd");
+        assertEquals(List.of(book1), renamed.getPurchasedBooks());
+        assertEquals(500, renamed.getBalanceCents());
+    }
+
+    @Test
+    @DisplayName("Off-heap users - hashed passwords and the login cache")
+    public void offHeapLoginCached() {
+        UserService service = UserService.offHeap(10, id -> null);
+        PasswordHasher hasher = spy(new PasswordHasher(1_000));
+        LoginCache cache = new LoginCache(100, 1, TimeUnit.MINUTES);
+        service.setPasswordHasher(hasher, cache);
+        User user = new User("user1", "abcd1234", "user1@gmail.com");
+        service.registerUser(user);
+        assertTrue(user.getPassword().startsWith(PasswordHasher.PREFIX));
+
+        assertNotNull(service.loginUser("user1", "abcd1234"));
+        assertNotNull(service.loginUser("user1", "abcd1234"));
+        verify(hasher, times(1)).matches(anyString(), anyString());
+        assertEquals(1, cache.size());
+
+        // A profile update drops the cached login and stores a new hash
+        service.updateUserProfile(user, "user1", "new", "user1@gmail.com");
+        assertEquals(0, cache.size());
+        assertNull(service.loginUser("user1", "abcd1234"));
+        assertNotNull(service.loginUser("user1", "new"));
+    }
+
+    @Test
+    @DisplayName("Login cache - bounded")
+    public void loginCacheBounded() {
+        LoginCache cache = new LoginCache(4, 1, TimeUnit.MINUTES);
+        for (int i = 0; i < 100; i++) {
+            cache.put("user" + i, "hash", "pwd");
+        }
+        assertEquals(4, cache.size());
+        assertTrue(cache.verified("user99", "hash", "pwd"));
+    }
 }